@@ -31,8 +31,54 @@ shouldDoNativeRequest = function (url, callback, extraHeaders, options) {
     );
 };
 
+/**
+ * The maximum number of tracks that are being handed over to the native side at once
+ */
+Tomahawk.Collection.ADD_TRACKS_PAGE_SIZE = 500;
+
+/**
+ * Hands the given tracks over to the native side page by page, so that we never have to serialize
+ * and parse the whole collection at once. The pages are being staged natively and are committed
+ * to the collection's database after the last page has been sent.
+ *
+ * @returns Promise resolving to the collection's new revision
+ */
 Tomahawk.Collection.addTracks = function (params) {
-    return Tomahawk.NativeScriptJobManager.invoke("collectionAddTracks", params);
+    return Tomahawk.Collection._sendTracks(params, "collectionCommitTracks");
+};
+
+/**
+ * Replaces all tracks of the collection with the given tracks. Other than a wipe followed by
+ * addTracks, only the tracks that have been added, removed or changed (detected by their url,
+ * artist, album, track name, album position and lastModified timestamp) are being written to the
+ * collection's database.
+ *
+ * @returns Promise resolving to the collection's new revision
+ */
+Tomahawk.Collection.syncTracks = function (params) {
+    return Tomahawk.Collection._sendTracks(params, "collectionSyncTracks");
+};
+
+Tomahawk.Collection._sendTracks = function (params, commitMethodName) {
+    var tracks = params.tracks || [];
+    var pageSize = Tomahawk.Collection.ADD_TRACKS_PAGE_SIZE;
+    var promise = RSVP.Promise.resolve();
+    var addPage = function (page) {
+        return function () {
+            return Tomahawk.NativeScriptJobManager.invoke("collectionAddTracksPage", {
+                id: params.id,
+                tracks: page
+            });
+        };
+    };
+    for (var i = 0; i < tracks.length; i += pageSize) {
+        promise = promise.then(addPage(tracks.slice(i, i + pageSize)));
+    }
+    return promise.then(function () {
+        return Tomahawk.NativeScriptJobManager.invoke(commitMethodName, {
+            id: params.id
+        });
+    });
 };
 
 Tomahawk.Collection.wipe = function (params) {
@@ -41,4 +87,46 @@ Tomahawk.Collection.wipe = function (params) {
 
 Tomahawk.Collection.revision = function (params) {
     return Tomahawk.NativeScriptJobManager.invoke("collectionRevision", params);
-};
\ No newline at end of file
+};
+/**
+ * Invokes all given jobs, which the native side has collected within one frame. The result of
+ * every job is still being reported separately by its requestId.
+ *
+ * @param jobs Array of objects containing a job's requestId, objectId, methodName and params
+ */
+Tomahawk.PluginManager.invokeBatch = function (jobs) {
+    for (var i = 0; i < jobs.length; i++) {
+        var job = jobs[i];
+        try {
+            this.invoke(job.requestId, job.objectId, job.methodName, job.params);
+        } catch (e) {
+            // Don't let one failing job keep the rest of the batch from being invoked
+            Tomahawk.reportScriptJobResults({
+                requestId: job.requestId,
+                error: e.toString()
+            });
+        }
+    }
+};
+
+/**
+ * Ids of the jobs that have been cancelled by the native side. Their results are being dropped.
+ */
+Tomahawk.PluginManager.cancelledJobs = {};
+
+/**
+ * Cancels the job with the given requestId, so that its result isn't reported anymore
+ *
+ * @param requestId the requestId the job has been invoked with
+ */
+Tomahawk.PluginManager.cancel = function (requestId) {
+    this.cancelledJobs[requestId] = true;
+    var resolve = this.resolve[requestId];
+    if (resolve) {
+        // Settle the job right away. Old style resolvers still report their results through the
+        // callback later on, so it's replaced instead of being deleted.
+        this.resolve[requestId] = function () {
+        };
+        resolve();
+    }
+};
@@ -56,15 +56,16 @@ Tomahawk.nativeAsyncRequest =
 
 /**
  * Pass the natively retrieved reply back to the javascript callback.
- * Creates a fake XMLHttpRequest object to augment the response.
+ * Creates a fake XMLHttpRequest object to augment the response. The response text is pulled from
+ * the native side, so that it doesn't have to be escaped.
  * Convenience-method wrapper for nativeAsyncRequestDone(reqId, xhr).
  *
  * Internal use only!
  */
-Tomahawk._nativeAsyncRequestDone = function (requestId, responseText, responseHeaders, status, statusText) {
+Tomahawk._nativeAsyncRequestDone = function (requestId, responseHeaders, status, statusText) {
     var fakeXhr = {
-        responseHeaders: JSON.parse(responseHeaders),
-        responseText: responseText,
+        responseHeaders: responseHeaders,
+        responseText: Tomahawk.nativeAsyncResponseText(requestId),
         readyState: 4,
         status: status,
         statusText: statusText,
@@ -91,5 +92,10 @@ Tomahawk.localStorage = {
 };
 
 Tomahawk.reportScriptJobResults = function(result){
+    var cancelledJobs = Tomahawk.PluginManager && Tomahawk.PluginManager.cancelledJobs;
+    if (cancelledJobs && cancelledJobs[result.requestId]) {
+        delete cancelledJobs[result.requestId];
+        return;
+    }
     Tomahawk.reportScriptJobResultsString(JSON.stringify(result));
 };
@@ -17,6 +17,7 @@
  */
 package org.tomahawk.libtomahawk.collection;
 
+import org.tomahawk.libtomahawk.resolver.ResultScoring;
 import org.tomahawk.tomahawk_android.R;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 
@@ -35,6 +36,8 @@ public class Album extends Cacheable implements AlphaComparable, ArtistAlphaComp
 
     private final String mName;
 
+    private String mNormalizedName;
+
     private final Artist mArtist;
 
     private Image mImage;
@@ -71,6 +74,16 @@ public class Album extends Cacheable implements AlphaComparable, ArtistAlphaComp
         return mName;
     }
 
+    /**
+     * @return the cached name cleaned up by {@link ResultScoring#cleanUpString}
+     */
+    public String getNormalizedName() {
+        if (mNormalizedName == null) {
+            mNormalizedName = ResultScoring.cleanUpString(mName, false);
+        }
+        return mNormalizedName;
+    }
+
     /**
      * @return the name that should be displayed
      */
@@ -17,6 +17,7 @@
  */
 package org.tomahawk.libtomahawk.collection;
 
+import org.tomahawk.libtomahawk.resolver.ResultScoring;
 import org.tomahawk.tomahawk_android.R;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 
@@ -29,6 +30,8 @@ public class Artist extends Cacheable implements AlphaComparable {
 
     private final String mName;
 
+    private String mNormalizedName;
+
     private ListItemString mBio;
 
     private Image mImage;
@@ -62,6 +65,16 @@ public class Artist extends Cacheable implements AlphaComparable {
         return mName;
     }
 
+    /**
+     * @return the cached name cleaned up by {@link ResultScoring#cleanUpString}
+     */
+    public String getNormalizedName() {
+        if (mNormalizedName == null) {
+            mNormalizedName = ResultScoring.cleanUpString(mName, false);
+        }
+        return mNormalizedName;
+    }
+
     /**
      * @return the name that should be displayed
      */
@@ -19,6 +19,7 @@ package org.tomahawk.libtomahawk.collection;
 
 import android.util.Log;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -29,7 +30,21 @@ public abstract class Cacheable {
 
     private static final String TAG = Cacheable.class.getSimpleName();
 
-    private static final Map<Class, Map<String, Cacheable>> sCaches = new ConcurrentHashMap<>();
+    /**
+     * The number of unreferenced {@link Cacheable}s of each class that are being kept alive
+     */
+    private static final int DEFAULT_CAPACITY = 1000;
+
+    private static final ConcurrentHashMap<Class, CacheableRegistry> sCaches =
+            new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<CacheKeyBuilder> sCacheKeyBuilders =
+            new ThreadLocal<CacheKeyBuilder>() {
+                @Override
+                protected CacheKeyBuilder initialValue() {
+                    return new CacheKeyBuilder();
+                }
+            };
 
     private String mCacheKey;
 
@@ -47,11 +62,14 @@ public abstract class Cacheable {
         return mCacheKey;
     }
 
-    private static Map<String, Cacheable> getCache(Class clss) {
-        Map<String, Cacheable> cache = sCaches.get(clss);
+    private static CacheableRegistry getCache(Class clss) {
+        CacheableRegistry cache = sCaches.get(clss);
         if (cache == null) {
-            cache = new ConcurrentHashMap<>();
-            sCaches.put(clss, cache);
+            cache = new CacheableRegistry(DEFAULT_CAPACITY);
+            CacheableRegistry existingCache = sCaches.putIfAbsent(clss, cache);
+            if (existingCache != null) {
+                cache = existingCache;
+            }
         }
         return cache;
     }
@@ -60,23 +78,95 @@ public abstract class Cacheable {
         return getCache(clss).get(cacheKey);
     }
 
+    /**
+     * Set the number of unreferenced {@link Cacheable}s of the given class that are being kept
+     * alive.
+     *
+     * @param capacity the new capacity or {@link CacheableRegistry#UNBOUNDED} to never evict any
+     *                 object of the given class
+     */
+    public static void setCapacity(Class clss, int capacity) {
+        getCache(clss).setCapacity(capacity);
+    }
+
+    /**
+     * @return the size, hit and miss counters of the cache of every class
+     */
+    public static Map<Class, CacheableRegistry.Stats> getCacheStats() {
+        Map<Class, CacheableRegistry.Stats> stats = new HashMap<>();
+        for (Map.Entry<Class, CacheableRegistry> entry : sCaches.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    protected static String getCacheKey(Object o1) {
+        if (o1 instanceof String) {
+            // A single String is its own cache key, no need to copy it
+            return (String) o1;
+        }
+        return getCacheKeyBuilder().append(0, o1).toString();
+    }
+
+    protected static String getCacheKey(Object o1, Object o2) {
+        return getCacheKeyBuilder().append(0, o1).append(1, o2).toString();
+    }
+
+    protected static String getCacheKey(Object o1, Object o2, Object o3) {
+        return getCacheKeyBuilder().append(0, o1).append(1, o2).append(2, o3).toString();
+    }
+
+    protected static String getCacheKey(Object o1, Object o2, Object o3, Object o4) {
+        return getCacheKeyBuilder().append(0, o1).append(1, o2).append(2, o3).append(3, o4)
+                .toString();
+    }
+
+    protected static String getCacheKey(Object o1, Object o2, Object o3, Object o4, Object o5) {
+        return getCacheKeyBuilder().append(0, o1).append(1, o2).append(2, o3).append(3, o4)
+                .append(4, o5).toString();
+    }
+
     protected static String getCacheKey(Object... objects) {
-        String result = "";
+        CacheKeyBuilder builder = getCacheKeyBuilder();
         for (int i = 0; i < objects.length; i++) {
-            Object o = objects[i];
+            builder.append(i, objects[i]);
+        }
+        return builder.toString();
+    }
+
+    private static CacheKeyBuilder getCacheKeyBuilder() {
+        CacheKeyBuilder builder = sCacheKeyBuilders.get();
+        builder.mStringBuilder.setLength(0);
+        return builder;
+    }
+
+    /**
+     * Builds cache keys on top of a per-thread {@link StringBuilder}, so that the only allocation
+     * of a cache key is the resulting String itself.
+     */
+    private static class CacheKeyBuilder {
+
+        private final StringBuilder mStringBuilder = new StringBuilder(128);
+
+        private CacheKeyBuilder append(int index, Object o) {
             if (o != null) {
-                if (i > 0) {
-                    result += "\t\t";
+                if (index > 0) {
+                    mStringBuilder.append("\t\t");
                 }
                 if (o instanceof String) {
-                    result += ((String) o);
+                    mStringBuilder.append((String) o);
                 } else if (o instanceof Boolean) {
-                    result += ((Boolean) o) ? "1" : "0";
+                    mStringBuilder.append(((Boolean) o) ? '1' : '0');
                 } else {
                     Log.e(TAG, "getCacheKey - given Object type is not supported!");
                 }
             }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return mStringBuilder.toString();
         }
-        return result;
     }
-}
\ No newline at end of file
+}
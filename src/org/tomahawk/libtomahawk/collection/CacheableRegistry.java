@@ -0,0 +1,153 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.collection;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds all {@link Cacheable}s of one class. Every {@link Cacheable} is only weakly referenced, so
+ * an object stays interned as long as anybody still holds a reference to it. Additionally the
+ * most recently used {@link Cacheable}s are strongly referenced in an LRU list of the configured
+ * capacity, so that short-lived objects don't have to be rebuilt all the time.
+ */
+public class CacheableRegistry {
+
+    /**
+     * Capacity of a registry that never evicts anything
+     */
+    public static final int UNBOUNDED = -1;
+
+    public static class Stats {
+
+        public int mSize;
+
+        public int mCapacity;
+
+        public long mHits;
+
+        public long mMisses;
+
+        public long mEvictions;
+    }
+
+    private static class CacheableReference extends WeakReference<Cacheable> {
+
+        private final String mCacheKey;
+
+        public CacheableReference(String cacheKey, Cacheable cacheable,
+                ReferenceQueue<Cacheable> queue) {
+            super(cacheable, queue);
+            mCacheKey = cacheKey;
+        }
+    }
+
+    private final ConcurrentHashMap<String, CacheableReference> mReferences =
+            new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<Cacheable> mReferenceQueue = new ReferenceQueue<>();
+
+    private final LinkedHashMap<String, Cacheable> mRecentlyUsed =
+            new LinkedHashMap<String, Cacheable>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Cacheable> eldest) {
+                    return mCapacity != UNBOUNDED && size() > mCapacity;
+                }
+            };
+
+    private volatile int mCapacity;
+
+    private final AtomicLong mHits = new AtomicLong();
+
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    public CacheableRegistry(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Set the number of {@link Cacheable}s that are being kept alive even if nobody else
+     * references them anymore.
+     *
+     * @param capacity the new capacity or {@link #UNBOUNDED} to never evict anything
+     */
+    public void setCapacity(int capacity) {
+        mCapacity = capacity;
+        synchronized (mRecentlyUsed) {
+            if (capacity != UNBOUNDED) {
+                while (mRecentlyUsed.size() > capacity) {
+                    String eldestKey = mRecentlyUsed.keySet().iterator().next();
+                    mRecentlyUsed.remove(eldestKey);
+                }
+            }
+        }
+    }
+
+    public Cacheable get(String cacheKey) {
+        expungeStaleReferences();
+        CacheableReference reference = mReferences.get(cacheKey);
+        Cacheable cacheable = reference != null ? reference.get() : null;
+        if (cacheable != null) {
+            mHits.incrementAndGet();
+            synchronized (mRecentlyUsed) {
+                mRecentlyUsed.put(cacheKey, cacheable);
+            }
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return cacheable;
+    }
+
+    public void put(String cacheKey, Cacheable cacheable) {
+        expungeStaleReferences();
+        mReferences.put(cacheKey, new CacheableReference(cacheKey, cacheable, mReferenceQueue));
+        synchronized (mRecentlyUsed) {
+            mRecentlyUsed.put(cacheKey, cacheable);
+        }
+    }
+
+    public Stats getStats() {
+        expungeStaleReferences();
+        Stats stats = new Stats();
+        stats.mSize = mReferences.size();
+        stats.mCapacity = mCapacity;
+        stats.mHits = mHits.get();
+        stats.mMisses = mMisses.get();
+        stats.mEvictions = mEvictions.get();
+        return stats;
+    }
+
+    /**
+     * Removes the entries of all {@link Cacheable}s that have been garbage collected
+     */
+    private void expungeStaleReferences() {
+        CacheableReference reference;
+        while ((reference = (CacheableReference) mReferenceQueue.poll()) != null) {
+            // Only remove the entry if it hasn't been replaced in the meantime
+            if (mReferences.remove(reference.mCacheKey, reference)) {
+                mEvictions.incrementAndGet();
+            }
+        }
+    }
+}
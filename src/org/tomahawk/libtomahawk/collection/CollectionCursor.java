@@ -17,6 +17,7 @@
  */
 package org.tomahawk.libtomahawk.collection;
 
+import org.tomahawk.libtomahawk.database.CollectionDb;
 import org.tomahawk.libtomahawk.resolver.Query;
 import org.tomahawk.libtomahawk.resolver.Resolver;
 import org.tomahawk.libtomahawk.resolver.Result;
@@ -27,18 +28,192 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Provides random access to the items of a {@link Collection}. The items are either backed by a
+ * plain {@link List}, by an Android {@link Cursor} or by a {@link PageLoader}. Items are only
+ * materialized when they are being accessed and only a window of {@link #WINDOW_SIZE}
+ * materialized items around the most recently accessed position is being kept.
+ */
 public class CollectionCursor<T> {
 
     private final static String TAG = CollectionCursor.class.getSimpleName();
 
+    /**
+     * The number of materialized items that are being kept around the most recently accessed
+     * position
+     */
+    private static final int WINDOW_SIZE = 500;
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final ExecutorService sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Loads the pages of a {@link CollectionCursor} via keyset pagination
+     */
+    public interface PageLoader {
+
+        int getCount();
+
+        /**
+         * @param afterKey the key of the last item of the previous page or null if it isn't known.
+         *                 In that case the page at the given offset should be loaded.
+         * @return a {@link Cursor} containing at most limit rows. The last two columns of every row
+         * have to contain the row's key.
+         */
+        Cursor loadPage(String[] afterKey, int offset, int limit);
+
+        /**
+         * @return the {@link SectionTable} of all items or null if they can't be sectioned
+         */
+        SectionTable getSections();
+
+        /**
+         * @return a {@link Cursor} containing the artist name of every item in its first column.
+         * The rows have to be in the same order as the items.
+         */
+        Cursor loadArtistNames();
+    }
+
+    /**
+     * Column indexes of a {@link Cursor}'s rows. They are resolved by name once per cursor and
+     * fall back to the default layout of the respective {@link CollectionDb} query.
+     */
+    private static class ColumnIndexes {
+
+        int mArtist;
+
+        int mAlbum;
+
+        int mTrack;
+
+        int mDuration;
+
+        int mUrl;
+
+        int mAlbumPos;
+
+        int mImagePath;
+
+        ColumnIndexes(Cursor cursor, Class clss) {
+            if (clss == Album.class) {
+                mAlbum = resolve(cursor, CollectionDb.ALBUMS_ALBUM, 0);
+                mArtist = resolve(cursor, CollectionDb.ARTISTS_ARTIST, 1);
+                mImagePath = resolve(cursor, CollectionDb.ALBUMS_IMAGEPATH, 3);
+            } else if (clss == Artist.class) {
+                mArtist = resolve(cursor, CollectionDb.ARTISTS_ARTIST, 0);
+            } else {
+                mArtist = resolve(cursor, CollectionDb.ARTISTS_ARTIST, 0);
+                mAlbum = resolve(cursor, CollectionDb.ALBUMS_ALBUM, 2);
+                mTrack = resolve(cursor, CollectionDb.TRACKS_TRACK, 3);
+                mDuration = resolve(cursor, CollectionDb.TRACKS_DURATION, 4);
+                mUrl = resolve(cursor, CollectionDb.TRACKS_URL, 5);
+                mAlbumPos = resolve(cursor, CollectionDb.TRACKS_ALBUMPOS, 7);
+            }
+        }
+
+        private static int resolve(Cursor cursor, String columnName, int defaultIndex) {
+            int index = cursor.getColumnIndex(columnName);
+            return index >= 0 ? index : defaultIndex;
+        }
+    }
+
+    /**
+     * The primitive column values of one row. Reused for every row of a {@link Cursor} or a page
+     * that is being materialized.
+     */
+    private static class Row {
+
+        String mArtist;
+
+        String mAlbum;
+
+        String mTrack;
+
+        int mDuration;
+
+        String mUrl;
+
+        int mAlbumPos;
+
+        String mImagePath;
+
+        void read(Cursor cursor, ColumnIndexes columns, Class clss) {
+            mArtist = cursor.getString(columns.mArtist);
+            if (clss == Album.class) {
+                mAlbum = cursor.getString(columns.mAlbum);
+                mImagePath = cursor.getString(columns.mImagePath);
+            } else if (clss != Artist.class) {
+                mAlbum = cursor.getString(columns.mAlbum);
+                mTrack = cursor.getString(columns.mTrack);
+                mDuration = cursor.getInt(columns.mDuration);
+                mUrl = cursor.getString(columns.mUrl);
+                mAlbumPos = cursor.getInt(columns.mAlbumPos);
+            }
+        }
+    }
+
+    /**
+     * The materialized items of a page, that has been loaded without holding mLock, and the key of
+     * its last item
+     */
+    private class LoadedPage {
+
+        List<T> mItems;
+
+        String[] mEndKey;
+    }
+
+    private final Object mLock = new Object();
+
+    private ColumnIndexes mColumnIndexes;
+
+    private final Row mRow = new Row();
+
+    /**
+     * The artist name of every row. Built in one pass, when it is needed for the first time.
+     */
+    private String[] mArtistNames;
+
+    /**
+     * The precomputed sections of a paged cursor. Makes building the artist names unnecessary,
+     * if the items are sectioned by their artist.
+     */
+    private SectionTable mSectionTable;
+
     private SparseArray<T> mCursorCache = new SparseArray<>();
 
     private Cursor mCursor;
 
+    private PageLoader mPageLoader;
+
+    private SparseArray<List<T>> mPages = new SparseArray<>();
+
+    /**
+     * The key of the last item of the loaded pages and of the pages right before them. Trimmed
+     * together with the pages, so that it doesn't grow with the scroll depth.
+     */
+    private SparseArray<String[]> mPageEndKeys = new SparseArray<>();
+
+    private int mPrefetchingPage = -1;
+
+    private boolean mClosed;
+
     private int mCursorCount;
 
+    /**
+     * Entries are identified by their position, so that an entry that is materialized again after
+     * it has left the window is still recognized as the same entry
+     */
+    private final String mEntryIdPrefix = TomahawkMainActivity.getLifetimeUniqueStringId() + "_";
+
     private List<T> mItems;
 
     private Class<T> mClass;
@@ -48,8 +223,24 @@ public class CollectionCursor<T> {
     private Playlist mPlaylist;
 
     public CollectionCursor(Cursor cursor, Class<T> clss, Resolver resolver, Playlist playlist) {
+        this(clss, resolver, playlist);
         mCursor = cursor;
         mCursorCount = cursor.getCount();
+        mColumnIndexes = new ColumnIndexes(cursor, clss);
+    }
+
+    public CollectionCursor(PageLoader pageLoader, Class<T> clss, Resolver resolver,
+            Playlist playlist) {
+        this(clss, resolver, playlist);
+        mPageLoader = pageLoader;
+        mCursorCount = pageLoader.getCount();
+        SectionTable sections = pageLoader.getSections();
+        if (sections != null && sections.getItemCount() == mCursorCount) {
+            mSectionTable = sections;
+        }
+    }
+
+    private CollectionCursor(Class<T> clss, Resolver resolver, Playlist playlist) {
         mClass = clss;
         if (clss == PlaylistEntry.class || clss == Result.class) {
             if (resolver != null) {
@@ -75,62 +266,255 @@ public class CollectionCursor<T> {
     }
 
     public void close() {
-        if (mCursor != null) {
-            mCursor.close();
+        synchronized (mLock) {
+            if (mCursor != null) {
+                mCursor.close();
+            }
+            mClosed = true;
+            mPages.clear();
         }
     }
 
     public T get(int location) {
-        if (mCursor != null) {
+        if (mPageLoader != null) {
+            return getFromPage(location);
+        } else if (mCursor != null) {
             if (mCursor.isClosed()) {
                 Log.d(TAG, "rawGet - Cursor has been closed.");
                 return null;
             }
-            T cachedItem = mCursorCache.get(location);
-            if (cachedItem == null) {
-                mCursor.moveToPosition(location);
-                if (mClass == PlaylistEntry.class) {
-                    Artist artist = Artist.get(mCursor.getString(0));
-                    Album album = Album.get(mCursor.getString(2), artist);
-                    Track track = Track.get(mCursor.getString(3), album, artist);
-                    track.setDuration(mCursor.getInt(4) * 1000);
-                    track.setAlbumPos(mCursor.getInt(7));
-                    Result result = Result.get(mCursor.getString(5), track, mResolver);
-                    Query query = Query.get(result, false);
-                    query.addTrackResult(result, 1.0f);
-                    PlaylistEntry entry = PlaylistEntry.get(mPlaylist.getId(), query,
-                            TomahawkMainActivity.getLifetimeUniqueStringId());
-                    cachedItem = (T) entry;
-                } else if (mClass == Result.class) {
-                    Artist artist = Artist.get(mCursor.getString(0));
-                    Album album = Album.get(mCursor.getString(2), artist);
-                    Track track = Track.get(mCursor.getString(3), album, artist);
-                    track.setDuration(mCursor.getInt(4) * 1000);
-                    track.setAlbumPos(mCursor.getInt(7));
-                    Result result = Result.get(mCursor.getString(5), track, mResolver);
-                    cachedItem = (T) result;
-                } else if (mClass == Album.class) {
-                    Artist artist = Artist.get(mCursor.getString(1));
-                    Album album = Album.get(mCursor.getString(0), artist);
-                    String imagePath = mCursor.getString(3);
-                    if (!TextUtils.isEmpty(imagePath)) {
-                        album.setImage(Image.get(imagePath, false));
+            synchronized (mLock) {
+                T cachedItem = mCursorCache.get(location);
+                if (cachedItem == null) {
+                    cachedItem = getMaterializedEntry(location);
+                }
+                if (cachedItem == null) {
+                    mCursor.moveToPosition(location);
+                    cachedItem = materialize(mCursor, mColumnIndexes, mRow, location);
+                    mCursorCache.put(location, cachedItem);
+                    if (mCursorCache.size() > 2 * WINDOW_SIZE) {
+                        trimCursorCache(location);
                     }
-                    cachedItem = (T) album;
-                } else if (mClass == Artist.class) {
-                    Artist artist = Artist.get(mCursor.getString(0));
-                    cachedItem = (T) artist;
                 }
-                mCursorCache.put(location, cachedItem);
+                return cachedItem;
             }
-            return cachedItem;
         } else {
             return mItems.get(location);
         }
     }
 
+    /**
+     * @return the {@link PlaylistEntry} at the given location, if it is still alive from an earlier
+     * materialization. Saves us from reading the row and looking up all of its entities again.
+     */
+    private T getMaterializedEntry(int location) {
+        if (mClass == PlaylistEntry.class) {
+            return (T) PlaylistEntry.getByKey(
+                    Cacheable.getCacheKey(mPlaylist.getId(), mEntryIdPrefix + location));
+        }
+        return null;
+    }
+
+    private T materialize(Cursor cursor, ColumnIndexes columns, Row row, int location) {
+        row.read(cursor, columns, mClass);
+        if (mClass == PlaylistEntry.class || mClass == Result.class) {
+            Artist artist = Artist.get(row.mArtist);
+            Album album = Album.get(row.mAlbum, artist);
+            Track track = Track.get(row.mTrack, album, artist);
+            track.setDuration(row.mDuration * 1000);
+            track.setAlbumPos(row.mAlbumPos);
+            Result result = Result.get(row.mUrl, track, mResolver);
+            if (mClass == Result.class) {
+                return (T) result;
+            }
+            Query query = Query.get(result, false);
+            query.addTrackResult(result, 1.0f);
+            PlaylistEntry entry = PlaylistEntry.get(mPlaylist.getId(), query,
+                    mEntryIdPrefix + location);
+            return (T) entry;
+        } else if (mClass == Album.class) {
+            Artist artist = Artist.get(row.mArtist);
+            Album album = Album.get(row.mAlbum, artist);
+            if (!TextUtils.isEmpty(row.mImagePath)) {
+                album.setImage(Image.get(row.mImagePath, false));
+            }
+            return (T) album;
+        } else if (mClass == Artist.class) {
+            Artist artist = Artist.get(row.mArtist);
+            return (T) artist;
+        }
+        return null;
+    }
+
+    /**
+     * Removes all materialized items that are outside of the window around the given location
+     */
+    private void trimCursorCache(int location) {
+        for (int i = mCursorCache.size() - 1; i >= 0; i--) {
+            if (Math.abs(mCursorCache.keyAt(i) - location) > WINDOW_SIZE) {
+                mCursorCache.removeAt(i);
+            }
+        }
+    }
+
+    private T getFromPage(int location) {
+        int page = location / PAGE_SIZE;
+        List<T> items = getPage(page);
+        if (items == null) {
+            return null;
+        }
+        T item = null;
+        int pageLocation = location % PAGE_SIZE;
+        if (pageLocation < items.size()) {
+            item = items.get(pageLocation);
+        }
+        if (pageLocation >= PAGE_SIZE / 2) {
+            prefetch(page + 1);
+        }
+        return item;
+    }
+
+    /**
+     * @return the materialized items of the given page or null if this {@link CollectionCursor}
+     * has been closed. The page is being loaded without holding mLock, if it isn't already, so
+     * that reads of other pages don't have to wait for it.
+     */
+    private List<T> getPage(int page) {
+        String[] afterKey;
+        synchronized (mLock) {
+            if (mClosed) {
+                Log.d(TAG, "getPage - CollectionCursor has been closed.");
+                return null;
+            }
+            List<T> items = mPages.get(page);
+            if (items != null) {
+                trimPages(page);
+                return items;
+            }
+            afterKey = page > 0 ? mPageEndKeys.get(page - 1) : null;
+        }
+        LoadedPage loadedPage = loadPage(page, afterKey);
+        synchronized (mLock) {
+            if (mClosed) {
+                Log.d(TAG, "getPage - CollectionCursor has been closed while loading.");
+                return null;
+            }
+            List<T> items = publishPage(page, loadedPage);
+            trimPages(page);
+            return items;
+        }
+    }
+
+    /**
+     * Queries and materializes the given page. Must not be called while holding mLock.
+     *
+     * @param afterKey the key of the last item of the previous page or null if it isn't known
+     */
+    private LoadedPage loadPage(int page, String[] afterKey) {
+        LoadedPage loadedPage = new LoadedPage();
+        Cursor cursor = mPageLoader.loadPage(afterKey, page * PAGE_SIZE, PAGE_SIZE);
+        try {
+            // Pages can be loaded concurrently, so every page gets its own column indexes and row
+            ColumnIndexes columns = new ColumnIndexes(cursor, mClass);
+            Row row = new Row();
+            loadedPage.mItems = new ArrayList<>(cursor.getCount());
+            int location = page * PAGE_SIZE;
+            while (cursor.moveToNext()) {
+                T item = getMaterializedEntry(location);
+                loadedPage.mItems.add(
+                        item != null ? item : materialize(cursor, columns, row, location));
+                location++;
+            }
+            if (cursor.moveToLast()) {
+                int columnCount = cursor.getColumnCount();
+                loadedPage.mEndKey = new String[]{cursor.getString(columnCount - 2),
+                        cursor.getString(columnCount - 1)};
+            }
+        } finally {
+            cursor.close();
+        }
+        return loadedPage;
+    }
+
+    /**
+     * Stores the given loaded page, unless another thread has stored the same page in the
+     * meantime. Has to be called while holding mLock.
+     *
+     * @return the items of the stored page
+     */
+    private List<T> publishPage(int page, LoadedPage loadedPage) {
+        List<T> items = mPages.get(page);
+        if (items == null) {
+            items = loadedPage.mItems;
+            mPages.put(page, items);
+        }
+        if (loadedPage.mEndKey != null) {
+            mPageEndKeys.put(page, loadedPage.mEndKey);
+        }
+        return items;
+    }
+
+    /**
+     * Removes all loaded pages that are outside of the window around the given page and all page
+     * end keys that aren't needed to load the pages of the window. Has to be called while holding
+     * mLock.
+     */
+    private void trimPages(int page) {
+        int windowPages = Math.max(1, WINDOW_SIZE / PAGE_SIZE);
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - page) > windowPages) {
+                mPages.removeAt(i);
+            }
+        }
+        for (int i = mPageEndKeys.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPageEndKeys.keyAt(i) - page) > windowPages + 1) {
+                mPageEndKeys.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Loads the given page on a background thread, unless it has already been loaded. mLock is
+     * only held to look up and to store the page, not while it is being loaded.
+     */
+    private void prefetch(final int page) {
+        if (page * PAGE_SIZE >= mCursorCount) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mClosed || mPrefetchingPage == page || mPages.get(page) != null) {
+                return;
+            }
+            mPrefetchingPage = page;
+        }
+        sPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String[] afterKey;
+                    synchronized (mLock) {
+                        if (mClosed || mPages.get(page) != null) {
+                            return;
+                        }
+                        afterKey = page > 0 ? mPageEndKeys.get(page - 1) : null;
+                    }
+                    LoadedPage loadedPage = loadPage(page, afterKey);
+                    synchronized (mLock) {
+                        if (!mClosed) {
+                            publishPage(page, loadedPage);
+                        }
+                    }
+                } finally {
+                    synchronized (mLock) {
+                        mPrefetchingPage = -1;
+                    }
+                }
+            }
+        });
+    }
+
     public int size() {
-        if (mCursor != null) {
+        if (mCursor != null || mPageLoader != null) {
             return mCursorCount;
         } else {
             return mItems.size();
@@ -138,12 +522,11 @@ public class CollectionCursor<T> {
     }
 
     public String getArtistName(int location) {
-        if (mCursor != null) {
-            mCursor.moveToPosition(location);
-            if (mClass == PlaylistEntry.class || mClass == Result.class || mClass == Artist.class) {
-                return mCursor.getString(0);
-            } else if (mClass == Album.class) {
-                return mCursor.getString(1);
+        if (mSectionTable != null && mSectionTable.getType() == SectionTable.TYPE_ARTIST) {
+            return mSectionTable.getKeyForPosition(location);
+        } else if (mCursor != null || mPageLoader != null) {
+            if (ensureArtistNames()) {
+                return mArtistNames[location];
             }
         } else {
             Object o = mItems.get(location);
@@ -155,10 +538,71 @@ public class CollectionCursor<T> {
                 return ((Album) o).getArtist().getName();
             } else if (o instanceof Artist) {
                 return ((Artist) o).getName();
+            } else if (o != null) {
+                return ((ArtistAlphaComparable) o).getArtist().getName();
             }
-            return ((ArtistAlphaComparable) mItems.get(location)).getArtist().getName();
         }
         Log.e(TAG, "getArtistName(int location) - Couldn't return a string");
         return null;
     }
+
+    /**
+     * @return the precomputed {@link SectionTable} of this {@link CollectionCursor} or null if
+     * there is none
+     */
+    public SectionTable getSectionTable() {
+        return mSectionTable;
+    }
+
+    /**
+     * Builds the artist names of all rows in one pass, unless that has already been done. Paged
+     * cursors get them with one query from their {@link PageLoader} without materializing any
+     * item.
+     *
+     * @return whether or not the artist names are available
+     */
+    private boolean ensureArtistNames() {
+        synchronized (mLock) {
+            if (mArtistNames != null) {
+                return true;
+            }
+            if (mClosed || (mCursor != null && mCursor.isClosed())) {
+                Log.d(TAG, "ensureArtistNames - CollectionCursor has been closed.");
+                return false;
+            }
+            String[] artistNames = new String[mCursorCount];
+            // Many rows share the same artist, so we only keep one instance of every name
+            Map<String, String> uniqueNames = new HashMap<>();
+            if (mCursor != null) {
+                if (mColumnIndexes == null) {
+                    mColumnIndexes = new ColumnIndexes(mCursor, mClass);
+                }
+                readArtistNames(mCursor, mColumnIndexes.mArtist, artistNames, uniqueNames);
+            } else {
+                Cursor cursor = mPageLoader.loadArtistNames();
+                try {
+                    readArtistNames(cursor, 0, artistNames, uniqueNames);
+                } finally {
+                    cursor.close();
+                }
+            }
+            mArtistNames = artistNames;
+            return true;
+        }
+    }
+
+    private static void readArtistNames(Cursor cursor, int columnIndex, String[] artistNames,
+            Map<String, String> uniqueNames) {
+        cursor.moveToPosition(-1);
+        int location = 0;
+        while (cursor.moveToNext() && location < artistNames.length) {
+            String artistName = cursor.getString(columnIndex);
+            String uniqueName = uniqueNames.get(artistName);
+            if (uniqueName == null) {
+                uniqueName = artistName;
+                uniqueNames.put(artistName, artistName);
+            }
+            artistNames[location++] = uniqueName;
+        }
+    }
 }
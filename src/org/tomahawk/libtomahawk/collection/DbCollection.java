@@ -25,23 +25,29 @@ import org.tomahawk.libtomahawk.database.CollectionDbManager;
 import org.tomahawk.libtomahawk.resolver.FuzzyIndex;
 import org.tomahawk.libtomahawk.resolver.PipeLine;
 import org.tomahawk.libtomahawk.resolver.Query;
+import org.tomahawk.libtomahawk.resolver.ResolutionCache;
 import org.tomahawk.libtomahawk.resolver.Resolver;
 import org.tomahawk.libtomahawk.resolver.Result;
 import org.tomahawk.libtomahawk.resolver.ScriptAccount;
 import org.tomahawk.libtomahawk.resolver.ScriptResolver;
 import org.tomahawk.libtomahawk.utils.ADeferredObject;
+import org.tomahawk.tomahawk_android.utils.QueryBatchRunnable;
 import org.tomahawk.tomahawk_android.utils.ThreadManager;
 import org.tomahawk.tomahawk_android.utils.TomahawkRunnable;
 
 import android.database.Cursor;
 import android.util.Log;
+import android.util.SparseArray;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import de.greenrobot.event.EventBus;
+
 /**
  * This class represents a Collection which contains tracks/albums/artists which are being stored in
  * a local sqlite db.
@@ -61,6 +67,27 @@ public abstract class DbCollection extends Collection {
         super(resolver.getId(), resolver.getPrettyName());
 
         mResolver = resolver;
+
+        EventBus.getDefault().register(this);
+    }
+
+    @SuppressWarnings("unused")
+    public void onEventAsync(final CollectionDb.RevisionChangedEvent event) {
+        getCollectionId().done(new DoneCallback<String>() {
+            @Override
+            public void onDone(String collectionId) {
+                if (mFuzzyIndex != null && collectionId.equals(event.mCollectionId)) {
+                    TomahawkRunnable r = new TomahawkRunnable(
+                            TomahawkRunnable.PRIORITY_IS_DATABASEACTION) {
+                        @Override
+                        public void run() {
+                            mFuzzyIndex.update();
+                        }
+                    };
+                    ThreadManager.get().execute(r);
+                }
+            }
+        });
     }
 
     protected void initFuzzyIndex() {
@@ -72,9 +99,10 @@ public abstract class DbCollection extends Collection {
                     @Override
                     public void run() {
                         mFuzzyIndex = new FuzzyIndex(collectionId);
-                        for (Query query : mWaitingQueries) {
-                            mWaitingQueries.remove(query);
-                            resolve(query);
+                        List<Query> waitingQueries = new ArrayList<>(mWaitingQueries);
+                        mWaitingQueries.removeAll(waitingQueries);
+                        if (!waitingQueries.isEmpty()) {
+                            resolve(waitingQueries);
                         }
                         Log.d(TAG, collectionId
                                 + " - Fuzzy index initialized. Resolving all waiting queries.");
@@ -108,54 +136,84 @@ public abstract class DbCollection extends Collection {
     public abstract Promise<String, Throwable, Void> getCollectionId();
 
     public boolean resolve(final Query query) {
+        return resolve(Collections.singletonList(query));
+    }
+
+    /**
+     * Resolves all of the given {@link Query}s in one batch. The FuzzyIndex is searched for all
+     * queries with one acquired IndexSearcher and all hits are fetched from the {@link
+     * CollectionDb} at once, before the results are being reported to the {@link PipeLine} for
+     * each individual {@link Query}.
+     */
+    public boolean resolve(final java.util.Collection<Query> queries) {
         getCollectionId().done(new DoneCallback<String>() {
             @Override
             public void onDone(final String collectionId) {
                 if (mFuzzyIndex == null) {
-                    mWaitingQueries.add(query);
-                    Log.d(TAG, collectionId + " - Added query to the waiting queue because the "
-                            + "FuzzyIndex is still initializing.");
+                    mWaitingQueries.addAll(queries);
+                    Log.d(TAG, collectionId + " - Added " + queries.size() + " queries to the "
+                            + "waiting queue because the FuzzyIndex is still initializing.");
                 } else {
                     // Always make sure that no queries are waiting to be resolved
+                    List<Query> allQueries = new ArrayList<>(queries);
                     for (Query query : mWaitingQueries) {
                         mWaitingQueries.remove(query);
-                        resolve(query);
+                        allQueries.add(query);
                     }
-                    TomahawkRunnable r = new TomahawkRunnable(
-                            TomahawkRunnable.PRIORITY_IS_RESOLVING) {
+                    QueryBatchRunnable r = new QueryBatchRunnable(
+                            TomahawkRunnable.PRIORITY_IS_RESOLVING, allQueries) {
                         @Override
-                        public void run() {
-                            List<FuzzyIndex.IndexResult> indexResults =
-                                    mFuzzyIndex.searchIndex(query);
-                            if (indexResults.size() > 0) {
-                                String[] ids = new String[indexResults.size()];
-                                for (int i = 0; i < indexResults.size(); i++) {
-                                    FuzzyIndex.IndexResult indexResult = indexResults.get(i);
-                                    ids[i] = String.valueOf(indexResult.id);
-                                }
-                                CollectionDb.WhereInfo whereInfo = new CollectionDb.WhereInfo();
-                                whereInfo.connection = "OR";
-                                whereInfo.where.put(CollectionDb.ID, ids);
-                                Cursor cursor = CollectionDbManager.get()
-                                        .getCollectionDb(collectionId).tracks(whereInfo, null);
-                                CollectionCursor<Result> collectionCursor = new CollectionCursor<>(
-                                        cursor, Result.class, mResolver, null);
-                                ArrayList<Result> results = new ArrayList<>();
-                                for (int i = 0; i < collectionCursor.size(); i++) {
-                                    results.add(collectionCursor.get(i));
-                                }
-                                collectionCursor.close();
-                                PipeLine.get().reportResults(query, results, mResolver.getId());
-                            }
+                        public void run(List<Query> queries) {
+                            resolveBatch(collectionId, queries);
                         }
                     };
-                    ThreadManager.get().execute(r, query);
+                    ThreadManager.get().executeBatch(r);
                 }
             }
         });
         return true;
     }
 
+    private void resolveBatch(String collectionId, List<Query> queries) {
+        Map<Query, List<FuzzyIndex.IndexResult>> indexResultsMap =
+                mFuzzyIndex.searchIndex(queries);
+        List<Integer> ids = new ArrayList<>();
+        for (List<FuzzyIndex.IndexResult> indexResults : indexResultsMap.values()) {
+            for (FuzzyIndex.IndexResult indexResult : indexResults) {
+                ids.add(indexResult.id);
+            }
+        }
+        SparseArray<Result> resultsById = new SparseArray<>();
+        if (!ids.isEmpty()) {
+            Cursor cursor = CollectionDbManager.get().getCollectionDb(collectionId)
+                    .tracksWithIds(ids);
+            CollectionCursor<Result> collectionCursor =
+                    new CollectionCursor<>(cursor, Result.class, mResolver, null);
+            for (int i = 0; i < collectionCursor.size(); i++) {
+                Result result = collectionCursor.get(i);
+                cursor.moveToPosition(i);
+                resultsById.put(cursor.getInt(cursor.getColumnCount() - 1), result);
+            }
+            collectionCursor.close();
+        }
+        for (Query query : queries) {
+            // Queries without any hits are being reported as well, so that the empty result is
+            // being cached
+            ArrayList<Result> results = new ArrayList<>();
+            List<FuzzyIndex.IndexResult> indexResults = indexResultsMap.get(query);
+            if (indexResults != null) {
+                for (FuzzyIndex.IndexResult indexResult : indexResults) {
+                    Result result = resultsById.get(indexResult.id);
+                    if (result != null) {
+                        results.add(result);
+                    }
+                }
+            }
+            PipeLine.get().reportResults(query, results, mResolver.getId(),
+                    ResolutionCache.getCollectionSourceId(getId()));
+        }
+    }
+
     @Override
     public Promise<Playlist, Throwable, Void> getQueries(final int sortMode) {
         final Deferred<Playlist, Throwable, Void> deferred = new ADeferredObject<>();
@@ -165,36 +223,61 @@ public abstract class DbCollection extends Collection {
                 new Thread(new Runnable() {
                     @Override
                     public void run() {
-                        String[] orderBy;
+                        final String sortColumn;
+                        final boolean descending;
                         switch (sortMode) {
                             case SORT_ALPHA:
-                                orderBy = new String[]{CollectionDb.TRACKS_TRACK};
+                                sortColumn = CollectionDb.TRACKS_TRACK;
+                                descending = false;
                                 break;
                             case SORT_ARTIST_ALPHA:
-                                orderBy = new String[]{CollectionDb.ARTISTS_ARTIST};
+                                sortColumn = CollectionDb.ARTISTS_ARTIST;
+                                descending = false;
                                 break;
                             case SORT_LAST_MODIFIED:
-                                orderBy = new String[]{CollectionDb.TRACKS_LASTMODIFIED + " DESC"};
+                                sortColumn = CollectionDb.TRACKS_LASTMODIFIED;
+                                descending = true;
                                 break;
                             default:
                                 Log.e(TAG,
                                         collectionId + " - getQueries - sortMode not supported!");
                                 return;
                         }
-                        CollectionDb db = CollectionDbManager.get().getCollectionDb(collectionId);
+                        final CollectionDb db =
+                                CollectionDbManager.get().getCollectionDb(collectionId);
                         String currentRevision = String.valueOf(db.tracksCurrentRevision());
                         Playlist playlist = Playlist.get(
                                 collectionId + "_tracks_" + currentRevision + "_" + sortMode,
                                 false);
                         if (playlist.getCurrentRevision().isEmpty()) {
-                            Cursor cursor = db.tracks(null, orderBy);
-                            if (cursor == null) {
-                                deferred.resolve(null);
-                                return;
-                            }
+                            CollectionCursor.PageLoader pageLoader =
+                                    new CollectionCursor.PageLoader() {
+                                        @Override
+                                        public int getCount() {
+                                            return db.tracksCount();
+                                        }
+
+                                        @Override
+                                        public Cursor loadPage(String[] afterKey, int offset,
+                                                int limit) {
+                                            return db.tracksPage(sortColumn, descending,
+                                                    afterKey, offset, limit);
+                                        }
+
+                                        @Override
+                                        public SectionTable getSections() {
+                                            return db.trackSections(sortColumn, descending);
+                                        }
+
+                                        @Override
+                                        public Cursor loadArtistNames() {
+                                            return db.tracksArtistNames(sortColumn,
+                                                    descending);
+                                        }
+                                    };
                             CollectionCursor<PlaylistEntry> collectionCursor
                                     = new CollectionCursor<>(
-                                    cursor, PlaylistEntry.class, mResolver, playlist);
+                                    pageLoader, PlaylistEntry.class, mResolver, playlist);
                             playlist.setCursor(collectionCursor);
                             playlist.setFilled(true);
                             playlist.setCurrentRevision(currentRevision);
@@ -29,6 +29,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -39,13 +40,20 @@ public class Playlist extends Cacheable implements AlphaComparable {
 
     private static final String TAG = Playlist.class.getSimpleName();
 
+    static {
+        // Playlists are being looked up by their id and are expensive to rebuild
+        setCapacity(Playlist.class, CacheableRegistry.UNBOUNDED);
+    }
+
     private String mName = "";
 
     private CollectionCursor<PlaylistEntry> mCursor = null;
 
     private List<PlaylistEntry> mAddedEntries = new ArrayList<>();
 
-    private Map<PlaylistEntry, Index> mCachedEntries = new HashMap<>();
+    // Weakly referenced, so that entries which have left the CollectionCursor's window can be
+    // garbage collected
+    private Map<PlaylistEntry, Index> mCachedEntries = new WeakHashMap<>();
 
     private List<Index> mIndex = new ArrayList<>();
 
@@ -390,6 +398,18 @@ public class Playlist extends Cacheable implements AlphaComparable {
         return true;
     }
 
+    /**
+     * @return the {@link SectionTable} of this {@link Playlist}'s entries or null if there is none
+     * or if its positions don't match the entries' positions anymore
+     */
+    public SectionTable getSectionTable() {
+        if (mCursor == null || mShuffled || !mAddedEntries.isEmpty()
+                || mIndex.size() != mCursor.size()) {
+            return null;
+        }
+        return mCursor.getSectionTable();
+    }
+
     public String getArtistName(int position) {
         Index index = mIndex.get(position);
         if (index.fromMergedItems) {
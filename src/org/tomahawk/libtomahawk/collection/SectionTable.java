@@ -0,0 +1,118 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.collection;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * The sections of a sorted list of items. Every section is a run of consecutive items that share
+ * the same key (e.g. the first letter of their name or their artist) and is stored with its start
+ * offset, so that headers, fast scroll thumbs and jumps to a section don't have to touch the
+ * items themselves.
+ */
+public class SectionTable {
+
+    /**
+     * Sections are keyed by the first letter of the items' names
+     */
+    public static final int TYPE_LETTER = 0;
+
+    /**
+     * Sections are keyed by the names of the items' artists
+     */
+    public static final int TYPE_ARTIST = 1;
+
+    private final int mType;
+
+    private final String[] mKeys;
+
+    private final int[] mStartOffsets;
+
+    private final int mItemCount;
+
+    /**
+     * Construct a new {@link SectionTable} from the given {@link Cursor}. Every row of the cursor
+     * has to contain the section's key in its first and the section's item count in its second
+     * column. The rows have to be in the same order as the items. The cursor isn't closed.
+     */
+    public SectionTable(int type, Cursor cursor) {
+        mType = type;
+        mKeys = new String[cursor.getCount()];
+        mStartOffsets = new int[cursor.getCount()];
+        int offset = 0;
+        int section = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext() && section < mKeys.length) {
+            mKeys[section] = cursor.getString(0);
+            mStartOffsets[section] = offset;
+            offset += cursor.getInt(1);
+            section++;
+        }
+        mItemCount = offset;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getSectionCount() {
+        return mKeys.length;
+    }
+
+    /**
+     * @return the number of items that are covered by all sections
+     */
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    public String getKey(int section) {
+        return mKeys[section];
+    }
+
+    public int getStartOffset(int section) {
+        return mStartOffsets[section];
+    }
+
+    /**
+     * @return the section that contains the item at the given position or -1 if there are no
+     * sections
+     */
+    public int getSectionForPosition(int position) {
+        if (mStartOffsets.length == 0) {
+            return -1;
+        }
+        int section = Arrays.binarySearch(mStartOffsets, position);
+        if (section < 0) {
+            // Not a start offset, so the section is the one that starts before the insertion point
+            section = -section - 2;
+        }
+        return Math.max(0, Math.min(section, mStartOffsets.length - 1));
+    }
+
+    /**
+     * @return the key of the section that contains the item at the given position or null if there
+     * are no sections
+     */
+    public String getKeyForPosition(int position) {
+        int section = getSectionForPosition(position);
+        return section >= 0 ? mKeys[section] : null;
+    }
+}
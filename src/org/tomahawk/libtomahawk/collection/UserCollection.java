@@ -369,10 +369,9 @@ public class UserCollection extends DbCollection {
                 }
             }
             CollectionDb db = CollectionDbManager.get().getCollectionDb(getId());
-            db.wipe();
-            db.addTracks(tracks.toArray(new ScriptResolverTrack[tracks.size()]));
+            db.syncTracks(tracks.toArray(new ScriptResolverTrack[tracks.size()]));
             Log.d(TAG, "Processed " + mws.size() + " media items. " + tracks.size()
-                    + " tracks have been added to the UserCollection.");
+                    + " tracks have been synced to the UserCollection.");
         }
     }
 
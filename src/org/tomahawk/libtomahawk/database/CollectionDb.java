@@ -17,26 +17,47 @@
  */
 package org.tomahawk.libtomahawk.database;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
 import org.tomahawk.libtomahawk.collection.Artist;
+import org.tomahawk.libtomahawk.collection.SectionTable;
 import org.tomahawk.libtomahawk.resolver.models.ScriptResolverTrack;
 import org.tomahawk.libtomahawk.utils.StringUtils;
+import org.tomahawk.tomahawk_android.BuildConfig;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.greenrobot.event.EventBus;
 
 public class CollectionDb extends SQLiteOpenHelper {
 
@@ -98,6 +119,8 @@ public class CollectionDb extends SQLiteOpenHelper {
 
     public static final String TRACKS_LASTMODIFIED = "trackLastModified";
 
+    public static final String TABLE_PENDINGTRACKS = "pendingTracks";
+
     public static final String TABLE_REVISIONHISTORY = "revisionHistory";
 
     public static final String REVISIONHISTORY_ACTION = "action";
@@ -108,10 +131,22 @@ public class CollectionDb extends SQLiteOpenHelper {
 
     public static final String REVISIONHISTORY_TIMESTAMP = "timeStamp";
 
+    public static final String REVISIONHISTORY_ADDEDCOUNT = "addedCount";
+
+    public static final String REVISIONHISTORY_REMOVEDCOUNT = "removedCount";
+
+    public static final String TABLE_REMOVEDTRACKS = "removedTracks";
+
+    public static final String REMOVEDTRACKS_TRACKID = "trackId";
+
+    public static final String REMOVEDTRACKS_TIMESTAMP = "timeStamp";
+
     protected static final int ACTION_WIPE = 0;
 
     protected static final int ACTION_ADDTRACKS = 1;
 
+    protected static final int ACTION_SYNCTRACKS = 2;
+
     protected static final int TYPE_DEFAULT = 0;
 
     // This type marks an entry that has been explicitly loved.
@@ -192,17 +227,131 @@ public class CollectionDb extends SQLiteOpenHelper {
             + REVISIONHISTORY_ACTION + " INTEGER,"
             + REVISIONHISTORY_TRACKCOUNT + " INTEGER,"
             + REVISIONHISTORY_REVISION + " TEXT,"
-            + REVISIONHISTORY_TIMESTAMP + " INTEGER );";
+            + REVISIONHISTORY_TIMESTAMP + " INTEGER,"
+            + REVISIONHISTORY_ADDEDCOUNT + " INTEGER,"
+            + REVISIONHISTORY_REMOVEDCOUNT + " INTEGER );";
 
-    private static final int DB_VERSION = 5;
+    /**
+     * The ids of all tracks that have been removed by a differential sync, together with the
+     * timestamp of the revision that has removed them
+     */
+    private static final String CREATE_TABLE_REMOVEDTRACKS = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_REMOVEDTRACKS + " ("
+            + REMOVEDTRACKS_TRACKID + " INTEGER,"
+            + REMOVEDTRACKS_TIMESTAMP + " INTEGER );";
+
+    /**
+     * Staging table for tracks that are being synced page by page. Its content is only being added
+     * to the actual collection tables in {@link #commitPendingTracks()}.
+     */
+    private static final String CREATE_TABLE_PENDINGTRACKS = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_PENDINGTRACKS + " ("
+            + ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + TRACKS_TRACK + " TEXT,"
+            + ALBUMS_ALBUM + " TEXT,"
+            + ALBUMS_IMAGEPATH + " TEXT,"
+            + ARTISTS_ARTIST + " TEXT,"
+            + ARTISTS_ARTISTDISAMBIGUATION + " TEXT,"
+            + ALBUMARTISTS_ALBUMARTIST + " TEXT,"
+            + ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION + " TEXT,"
+            + TRACKS_URL + " TEXT,"
+            + TRACKS_DURATION + " REAL,"
+            + TRACKS_LINKURL + " TEXT,"
+            + TRACKS_ALBUMPOS + " INTEGER,"
+            + TRACKS_LASTMODIFIED + " INTEGER );";
+
+    private static final String[] PENDINGTRACKS_COLUMNS = new String[]{ID, TRACKS_TRACK,
+            ALBUMS_ALBUM, ALBUMS_IMAGEPATH, ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION,
+            ALBUMARTISTS_ALBUMARTIST, ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION, TRACKS_URL,
+            TRACKS_DURATION, TRACKS_LINKURL, TRACKS_ALBUMPOS, TRACKS_LASTMODIFIED};
+
+    /**
+     * Indexes for all access paths that aren't already covered by a UNIQUE constraint
+     */
+    private static final String[] CREATE_INDEXES = new String[]{
+            // artistTracks: tracks of an artist, ordered by album
+            "CREATE INDEX IF NOT EXISTS " + TABLE_TRACKS + "_" + TRACKS_ARTISTID + " ON "
+                    + TABLE_TRACKS + " (" + TRACKS_ARTISTID + ", " + TRACKS_ALBUMID + ");",
+            // albumTracks: tracks of an album, ordered by position
+            "CREATE INDEX IF NOT EXISTS " + TABLE_TRACKS + "_" + TRACKS_ALBUMID + " ON "
+                    + TABLE_TRACKS + " (" + TRACKS_ALBUMID + ", " + TRACKS_ALBUMPOS + ");",
+            // tracksCurrentRevision: most recently modified track
+            "CREATE INDEX IF NOT EXISTS " + TABLE_TRACKS + "_" + TRACKS_LASTMODIFIED + " ON "
+                    + TABLE_TRACKS + " (" + TRACKS_LASTMODIFIED + ");",
+            // artistAlbums: albums of an artist. The UNIQUE constraint only covers lookups by
+            // albumId.
+            "CREATE INDEX IF NOT EXISTS " + TABLE_ARTISTALBUMS + "_" + ARTISTALBUMS_ARTISTID
+                    + " ON " + TABLE_ARTISTALBUMS + " (" + ARTISTALBUMS_ARTISTID + ", "
+                    + ARTISTALBUMS_ALBUMID + ");",
+            // albums of an album artist
+            "CREATE INDEX IF NOT EXISTS " + TABLE_ALBUMS + "_" + ALBUMS_ALBUMARTISTID + " ON "
+                    + TABLE_ALBUMS + " (" + ALBUMS_ALBUMARTISTID + ");",
+            // tracksRemovedSince
+            "CREATE INDEX IF NOT EXISTS " + TABLE_REMOVEDTRACKS + "_" + REMOVEDTRACKS_TIMESTAMP
+                    + " ON " + TABLE_REMOVEDTRACKS + " (" + REMOVEDTRACKS_TIMESTAMP + ");"
+    };
+
+    /**
+     * FROM and WHERE clause that only select the most recently modified one of all tracks with the
+     * same name, artist and album. The lookup of other tracks with the same name is covered by the
+     * tracks' UNIQUE constraint.
+     */
+    private static final String DEDUPLICATED_TRACKS = " FROM " + TABLE_TRACKS
+            + " INNER JOIN " + TABLE_ARTISTS + " ON "
+            + TABLE_TRACKS + "." + TRACKS_ARTISTID + " = " + TABLE_ARTISTS + "." + ID
+            + " INNER JOIN " + TABLE_ALBUMS + " ON "
+            + TABLE_TRACKS + "." + TRACKS_ALBUMID + " = " + TABLE_ALBUMS + "." + ID
+            + " WHERE NOT EXISTS (SELECT 1 FROM " + TABLE_TRACKS + " AS t"
+            + " INNER JOIN " + TABLE_ARTISTS + " AS ar ON t." + TRACKS_ARTISTID + " = ar." + ID
+            + " INNER JOIN " + TABLE_ALBUMS + " AS al ON t." + TRACKS_ALBUMID + " = al." + ID
+            + " WHERE t." + TRACKS_TRACK + " = " + TABLE_TRACKS + "." + TRACKS_TRACK
+            + " AND ar." + ARTISTS_ARTIST + " = " + TABLE_ARTISTS + "." + ARTISTS_ARTIST
+            + " AND al." + ALBUMS_ALBUM + " = " + TABLE_ALBUMS + "." + ALBUMS_ALBUM
+            + " AND (t." + TRACKS_LASTMODIFIED + " > " + TABLE_TRACKS + "." + TRACKS_LASTMODIFIED
+            + " OR (t." + TRACKS_LASTMODIFIED + " = " + TABLE_TRACKS + "." + TRACKS_LASTMODIFIED
+            + " AND t." + ID + " > " + TABLE_TRACKS + "." + ID + ")))";
+
+    private static final int PENDING_TRACKS_CHUNK_SIZE = 1000;
+
+    // SQLite allows a maximum of 999 host parameters per statement
+    private static final int MAX_PARAMS_PER_STATEMENT = 500;
+
+    private static final int DB_VERSION = 7;
+
+    /**
+     * Whether or not every generated statement should be checked with "EXPLAIN QUERY PLAN" for
+     * full table scans
+     */
+    private static final boolean EXPLAIN_QUERY_PLANS = BuildConfig.DEBUG;
 
     private static final String DB_FILE_SUFFIX = "_collection.db";
 
     protected final SQLiteDatabase mDb;
 
+    private final ExecutorService mWriteExecutor;
+
+    private volatile Thread mWriteThread;
+
+    /**
+     * The SQL text of every statement shape that {@link #sqlSelect} has built so far, by shape key.
+     * There's only a small, fixed number of shapes, so this doesn't have to be bounded. Reusing the
+     * exact same SQL text allows SQLite's prepared statement cache to be hit.
+     */
+    private final ConcurrentHashMap<String, String> mStatements = new ConcurrentHashMap<>();
+
+    private final AtomicLong mStatementHits = new AtomicLong();
+
+    private final AtomicLong mStatementMisses = new AtomicLong();
+
+    private final AtomicLong mPrepareCount = new AtomicLong();
+
+    private final AtomicLong mPrepareTimeNanos = new AtomicLong();
+
     private static final String LAST_COLLECTION_DB_UPDATE_SUFFIX = "_last_collection_db_update";
 
-    private boolean mInitialized = false;
+    private volatile boolean mInitialized = false;
+
+    private boolean mReplaceOnNextCommit = false;
 
     public static class WhereInfo {
 
@@ -214,6 +363,40 @@ public class CollectionDb extends SQLiteOpenHelper {
 
     }
 
+    /**
+     * A track that is already stored in the database. Used to compute the delta of a differential
+     * sync.
+     */
+    private static class StoredTrack {
+
+        long mId;
+
+        long mLastModified;
+
+        boolean mIsCompilationTrack;
+    }
+
+    /**
+     * The state of a differential sync
+     */
+    private static class TrackDelta {
+
+        /**
+         * All stored tracks that haven't been matched by a synced track yet, by their identity
+         * (see {@link #getIdentity}). Every stored track can only be matched once, so tracks with
+         * the same identity are being kept in a list.
+         */
+        Map<String, List<StoredTrack>> mUnmatchedTracks = new HashMap<>();
+
+        List<Long> mRemovedTrackIds = new ArrayList<>();
+
+        int mAddedTrackCount;
+
+        boolean hasChanges() {
+            return mAddedTrackCount > 0 || !mRemovedTrackIds.isEmpty();
+        }
+    }
+
     private static class JoinInfo {
 
         String table;
@@ -224,13 +407,36 @@ public class CollectionDb extends SQLiteOpenHelper {
 
     private String mCollectionId;
 
-    public CollectionDb(Context context, String collectionId) {
+    public static class RevisionChangedEvent {
+
+        public String mCollectionId;
+    }
+
+    public static class SyncProgressEvent {
+
+        public String mCollectionId;
+
+        public int mPendingTrackCount;
+    }
+
+    public CollectionDb(Context context, final String collectionId) {
         super(context, collectionId + DB_FILE_SUFFIX, null, DB_VERSION);
 
         mCollectionId = collectionId;
+        mWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                mWriteThread = new Thread(r, "CollectionDb writer " + collectionId);
+                return mWriteThread;
+            }
+        });
 
         close();
         mDb = getWritableDatabase();
+        // Allows readers to use their own connections while a write transaction is running
+        mDb.enableWriteAheadLogging();
+        // Every connection caches this many prepared statements by their SQL text
+        mDb.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
     }
 
     @Override
@@ -241,6 +447,14 @@ public class CollectionDb extends SQLiteOpenHelper {
         db.execSQL(CREATE_TABLE_ARTISTALBUMS);
         db.execSQL(CREATE_TABLE_TRACKS);
         db.execSQL(CREATE_TABLE_REVISIONHISTORY);
+        db.execSQL(CREATE_TABLE_REMOVEDTRACKS);
+        createIndexes(db);
+    }
+
+    private static void createIndexes(SQLiteDatabase db) {
+        for (String createIndex : CREATE_INDEXES) {
+            db.execSQL(createIndex);
+        }
     }
 
     @Override
@@ -260,187 +474,831 @@ public class CollectionDb extends SQLiteOpenHelper {
                 storeNewRevision(db, String.valueOf(lastDbUpdate), ACTION_ADDTRACKS);
             }
         }
+        if (oldVersion < 7) {
+            if (oldVersion >= 5) {
+                db.execSQL("ALTER TABLE `" + TABLE_REVISIONHISTORY + "` ADD COLUMN `"
+                        + REVISIONHISTORY_ADDEDCOUNT + "` INTEGER");
+                db.execSQL("ALTER TABLE `" + TABLE_REVISIONHISTORY + "` ADD COLUMN `"
+                        + REVISIONHISTORY_REMOVEDCOUNT + "` INTEGER");
+            }
+            db.execSQL(CREATE_TABLE_REMOVEDTRACKS);
+            createIndexes(db);
+        }
     }
 
     public boolean isInitialized() {
         return mInitialized;
     }
 
-    public synchronized void addTracks(ScriptResolverTrack[] tracks) {
+    public void addTracks(final ScriptResolverTrack[] tracks) {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                doAddTracks(tracks);
+                return null;
+            }
+        });
+    }
+
+    private void doAddTracks(ScriptResolverTrack[] tracks) {
         long time = System.currentTimeMillis();
-        mDb.beginTransaction();
+        int addedTrackCount;
+        if (mReplaceOnNextCommit) {
+            // This is only one of possibly many chunks, which we can't tell apart from the last
+            // one. So we can't replace the collection with a delta and have to wipe it instead.
+            mReplaceOnNextCommit = false;
+            mDb.beginTransaction();
+            try {
+                wipe(mDb);
+                addedTrackCount = insertTracks(tracks, null);
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+        } else {
+            addedTrackCount = insertTracks(tracks, null);
+        }
+        mInitialized = true;
+        Log.d(TAG, "Added " + tracks.length + " tracks in " + (System.currentTimeMillis() - time)
+                + "ms");
+        if (tracks.length > 0) {
+            long timeStamp = System.currentTimeMillis();
+            storeNewRevision(mDb, String.valueOf(timeStamp), ACTION_ADDTRACKS, timeStamp,
+                    addedTrackCount, 0);
+            postRevisionChangedEvent();
+        }
+    }
+
+    /**
+     * Replaces the content of this collection with the given tracks. Instead of wiping the
+     * database, only the delta is being applied: Tracks are matched with the stored tracks by their
+     * identity (see {@link #getIdentity}) and lastModified timestamp. Unchanged tracks are left
+     * untouched, changed tracks are being removed and added again. A new revision is only stored
+     * if anything has changed.
+     */
+    public void syncTracks(final ScriptResolverTrack[] tracks) {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                doSyncTracks(tracks);
+                return null;
+            }
+        });
+    }
 
-        // Check if we want to store the album as a compilation album (with artist "Various Artists")
-        Map<String, Set<String>> albumArtists = new HashMap<>();
+    private void doSyncTracks(ScriptResolverTrack[] tracks) {
+        long time = System.currentTimeMillis();
         for (ScriptResolverTrack track : tracks) {
-            if (track.artist == null) {
-                track.artist = "";
+            normalizeTrack(track);
+        }
+        Set<String> compilationAlbums = getCompilationAlbums(tracks);
+        TrackDelta delta;
+        // The whole sync is one transaction, so that a sync that fails half way through doesn't
+        // leave a partially applied delta behind
+        mDb.beginTransaction();
+        try {
+            delta = loadStoredTracks();
+            applyDelta(tracks, compilationAlbums, delta);
+            commitDelta(delta);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        onDeltaCommitted(delta);
+        Log.d(TAG, "Synced " + tracks.length + " tracks in " + (System.currentTimeMillis() - time)
+                + "ms");
+    }
+
+    /**
+     * The next call to {@link #commitPendingTracks(boolean)} replaces the content of this
+     * collection with a differential sync instead of adding to it. Used instead of a wipe before a
+     * collection is being re-added completely. If the tracks are being added with {@link
+     * #addTracks(ScriptResolverTrack[])} instead, the collection is being wiped before the first
+     * chunk is added, since we can't know which chunk is the last one.
+     */
+    public void replaceOnNextCommit() {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mReplaceOnNextCommit = true;
+                return null;
             }
-            if (track.artistDisambiguation == null) {
-                track.artistDisambiguation = "";
+        });
+    }
+
+    /**
+     * Inserts the given tracks without storing a new revision.
+     *
+     * @param compilationAlbums the names of all albums that should be stored as compilation albums
+     *                          (with artist "Various Artists"). If null, the compilation albums
+     *                          are determined by looking at the given tracks only.
+     */
+    private int insertTracks(ScriptResolverTrack[] tracks, Set<String> compilationAlbums) {
+        // Determine the most recent lastModified timestamp of every artist and album
+        Map<String, Long> artistLastModifieds = new HashMap<>();
+        Map<String, Long> albumArtistLastModifieds = new HashMap<>();
+        Map<String, Long> albumLastModifieds = new HashMap<>();
+        for (ScriptResolverTrack track : tracks) {
+            normalizeTrack(track);
+        }
+        if (compilationAlbums == null) {
+            compilationAlbums = getCompilationAlbums(tracks);
+        }
+        for (ScriptResolverTrack track : tracks) {
+            putMax(artistLastModifieds, concatKeys(track.artist, track.artistDisambiguation),
+                    track.lastModified);
+            putMax(albumArtistLastModifieds,
+                    concatKeys(track.albumArtist, track.albumArtistDisambiguation),
+                    track.lastModified);
+        }
+        String compilationArtistKey = concatKeys(Artist.COMPILATION_ARTIST.getName(), "");
+        for (ScriptResolverTrack track : tracks) {
+            String albumArtistKey;
+            if (compilationAlbums.contains(track.album)) {
+                albumArtistKey = compilationArtistKey;
+                putMax(artistLastModifieds, compilationArtistKey, track.lastModified);
+            } else {
+                albumArtistKey = concatKeys(track.artist, track.artistDisambiguation);
             }
-            if (track.album == null) {
-                track.album = "";
+            putMax(albumLastModifieds, concatKeys(track.album, albumArtistKey),
+                    track.lastModified);
+        }
+
+        SQLiteStatement insertArtist = mDb.compileStatement("INSERT INTO " + TABLE_ARTISTS
+                + " (" + ARTISTS_ARTIST + ", " + ARTISTS_ARTISTDISAMBIGUATION + ", "
+                + ARTISTS_LASTMODIFIED + ", " + ARTISTS_TYPE + ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement selectArtistId = mDb.compileStatement("SELECT " + ID + " FROM "
+                + TABLE_ARTISTS + " WHERE " + ARTISTS_ARTIST + " = ? AND "
+                + ARTISTS_ARTISTDISAMBIGUATION + " = ? AND " + ARTISTS_TYPE + " = ?");
+        SQLiteStatement insertAlbumArtist = mDb.compileStatement("INSERT INTO "
+                + TABLE_ALBUMARTISTS + " (" + ALBUMARTISTS_ALBUMARTIST + ", "
+                + ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION + ", " + ALBUMARTISTS_LASTMODIFIED
+                + ") VALUES (?, ?, ?)");
+        SQLiteStatement insertAlbum = mDb.compileStatement("INSERT INTO " + TABLE_ALBUMS + " ("
+                + ALBUMS_ALBUM + ", " + ALBUMS_ALBUMARTISTID + ", " + ALBUMS_IMAGEPATH + ", "
+                + ALBUMS_LASTMODIFIED + ", " + ALBUMS_TYPE + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement selectAlbumId = mDb.compileStatement("SELECT " + ID + " FROM "
+                + TABLE_ALBUMS + " WHERE " + ALBUMS_ALBUM + " = ? AND " + ALBUMS_ALBUMARTISTID
+                + " = ? AND " + ALBUMS_TYPE + " = ?");
+        SQLiteStatement insertArtistAlbum = mDb.compileStatement("INSERT INTO "
+                + TABLE_ARTISTALBUMS + " (" + ARTISTALBUMS_ARTISTID + ", " + ARTISTALBUMS_ALBUMID
+                + ") VALUES (?, ?)");
+        SQLiteStatement insertTrack = mDb.compileStatement("INSERT INTO " + TABLE_TRACKS + " ("
+                + TRACKS_TRACK + ", " + TRACKS_ARTISTID + ", " + TRACKS_ALBUMID + ", "
+                + TRACKS_URL + ", " + TRACKS_DURATION + ", " + TRACKS_LINKURL + ", "
+                + TRACKS_ALBUMPOS + ", " + TRACKS_LASTMODIFIED
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+
+        // The ids of everything that has been inserted during this call
+        Map<String, Long> artistIds = new HashMap<>();
+        Set<String> insertedAlbumArtists = new HashSet<>();
+        Map<String, Long> albumIds = new HashMap<>();
+        Set<String> insertedArtistAlbums = new HashSet<>();
+        int insertedTrackCount = 0;
+        // All tracks are inserted in one transaction, so that a failure doesn't leave them
+        // partially applied
+        mDb.beginTransaction();
+        try {
+            for (ScriptResolverTrack track : tracks) {
+                String artistKey = concatKeys(track.artist, track.artistDisambiguation);
+                long artistId = getOrInsertArtist(insertArtist, selectArtistId, artistIds,
+                        track.artist, track.artistDisambiguation,
+                        artistLastModifieds.get(artistKey));
+                long albumArtistId;
+                String albumArtistKey;
+                if (compilationAlbums.contains(track.album)) {
+                    albumArtistKey = compilationArtistKey;
+                    albumArtistId = getOrInsertArtist(insertArtist, selectArtistId, artistIds,
+                            Artist.COMPILATION_ARTIST.getName(), "",
+                            artistLastModifieds.get(compilationArtistKey));
+                } else {
+                    albumArtistKey = artistKey;
+                    albumArtistId = artistId;
+                }
+                String key = concatKeys(track.albumArtist, track.albumArtistDisambiguation);
+                if (insertedAlbumArtists.add(key)) {
+                    insertAlbumArtist.bindString(1, track.albumArtist);
+                    insertAlbumArtist.bindString(2, track.albumArtistDisambiguation);
+                    insertAlbumArtist.bindLong(3, albumArtistLastModifieds.get(key));
+                    insertAlbumArtist.executeInsert();
+                }
+                key = concatKeys(track.album, albumArtistKey);
+                Long albumId = albumIds.get(key);
+                if (albumId == null) {
+                    insertAlbum.bindString(1, track.album);
+                    insertAlbum.bindLong(2, albumArtistId);
+                    bindStringOrNull(insertAlbum, 3, track.imagePath);
+                    insertAlbum.bindLong(4, albumLastModifieds.get(key));
+                    insertAlbum.bindLong(5, TYPE_DEFAULT);
+                    albumId = insertAlbum.executeInsert();
+                    if (albumId < 0) {
+                        // The album has already been added before
+                        selectAlbumId.bindString(1, track.album);
+                        selectAlbumId.bindLong(2, albumArtistId);
+                        selectAlbumId.bindLong(3, TYPE_DEFAULT);
+                        albumId = selectAlbumId.simpleQueryForLong();
+                    }
+                    albumIds.put(key, albumId);
+                }
+                if (insertedArtistAlbums.add(concatKeys(artistId, albumId))) {
+                    insertArtistAlbum.bindLong(1, artistId);
+                    insertArtistAlbum.bindLong(2, albumId);
+                    insertArtistAlbum.executeInsert();
+                }
+                insertTrack.bindString(1, track.track);
+                insertTrack.bindLong(2, artistId);
+                insertTrack.bindLong(3, albumId);
+                bindStringOrNull(insertTrack, 4, track.url);
+                insertTrack.bindLong(5, (int) track.duration);
+                bindStringOrNull(insertTrack, 6, track.linkUrl);
+                insertTrack.bindLong(7, track.albumpos);
+                insertTrack.bindLong(8, track.lastModified);
+                if (insertTrack.executeInsert() >= 0) {
+                    insertedTrackCount++;
+                }
             }
-            if (track.albumArtist == null) {
-                track.albumArtist = "";
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insertArtist.close();
+            selectArtistId.close();
+            insertAlbumArtist.close();
+            insertAlbum.close();
+            selectAlbumId.close();
+            insertArtistAlbum.close();
+            insertTrack.close();
+        }
+        return insertedTrackCount;
+    }
+
+    /**
+     * Replaces null values with empty strings, so that tracks can be compared by their keys
+     */
+    private static void normalizeTrack(ScriptResolverTrack track) {
+        if (track.artist == null) {
+            track.artist = "";
+        }
+        if (track.artistDisambiguation == null) {
+            track.artistDisambiguation = "";
+        }
+        if (track.album == null) {
+            track.album = "";
+        }
+        if (track.albumArtist == null) {
+            track.albumArtist = "";
+        }
+        if (track.albumArtistDisambiguation == null) {
+            track.albumArtistDisambiguation = "";
+        }
+        if (track.track == null) {
+            track.track = "";
+        }
+    }
+
+    /**
+     * @return the names of all albums that should be stored as a compilation album (with artist
+     * "Various Artists"), because the given tracks contain them with more than one artist
+     */
+    private static Set<String> getCompilationAlbums(ScriptResolverTrack[] tracks) {
+        Map<String, String> albumArtists = new HashMap<>();
+        Set<String> compilationAlbums = new HashSet<>();
+        for (ScriptResolverTrack track : tracks) {
+            String artist = albumArtists.get(track.album);
+            if (artist == null) {
+                albumArtists.put(track.album, track.artist);
+            } else if (!artist.equals(track.artist)) {
+                compilationAlbums.add(track.album);
             }
-            if (track.albumArtistDisambiguation == null) {
-                track.albumArtistDisambiguation = "";
+        }
+        return compilationAlbums;
+    }
+
+    /**
+     * @return a {@link TrackDelta} containing all tracks that are currently stored in the database.
+     * Must be called inside of the transaction that commits the delta.
+     */
+    private TrackDelta loadStoredTracks() {
+        TrackDelta delta = new TrackDelta();
+        long compilationArtistId = -1;
+        SQLiteStatement selectArtistId = mDb.compileStatement("SELECT " + ID + " FROM "
+                + TABLE_ARTISTS + " WHERE " + ARTISTS_ARTIST + " = ? AND "
+                + ARTISTS_ARTISTDISAMBIGUATION + " = ? AND " + ARTISTS_TYPE + " = ?");
+        try {
+            selectArtistId.bindString(1, Artist.COMPILATION_ARTIST.getName());
+            selectArtistId.bindString(2, "");
+            selectArtistId.bindLong(3, TYPE_DEFAULT);
+            compilationArtistId = selectArtistId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // There's no compilation album yet
+        } finally {
+            selectArtistId.close();
+        }
+        Cursor cursor = null;
+        try {
+            cursor = rawQuery("SELECT " + TABLE_TRACKS + "." + ID + ", " + TRACKS_URL + ", "
+                    + TRACKS_LASTMODIFIED + ", " + ALBUMS_ALBUMARTISTID + ", " + ARTISTS_ARTIST
+                    + ", " + ALBUMS_ALBUM + ", " + TRACKS_TRACK + ", " + TRACKS_ALBUMPOS
+                    + " FROM " + TABLE_TRACKS + " INNER JOIN " + TABLE_ALBUMS + " ON "
+                    + TABLE_TRACKS + "." + TRACKS_ALBUMID + " = " + TABLE_ALBUMS + "." + ID
+                    + " INNER JOIN " + TABLE_ARTISTS + " ON " + TABLE_TRACKS + "."
+                    + TRACKS_ARTISTID + " = " + TABLE_ARTISTS + "." + ID, null);
+            while (cursor.moveToNext()) {
+                StoredTrack storedTrack = new StoredTrack();
+                storedTrack.mId = cursor.getLong(0);
+                storedTrack.mLastModified = cursor.getLong(2);
+                storedTrack.mIsCompilationTrack = cursor.getLong(3) == compilationArtistId;
+                String identity = getIdentity(cursor.getString(1), cursor.getString(4),
+                        cursor.getString(5), cursor.getString(6), cursor.getInt(7));
+                List<StoredTrack> storedTracks = delta.mUnmatchedTracks.get(identity);
+                if (storedTracks == null) {
+                    storedTracks = new ArrayList<>();
+                    delta.mUnmatchedTracks.put(identity, storedTracks);
+                }
+                storedTracks.add(storedTrack);
             }
-            if (track.track == null) {
-                track.track = "";
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
-            Set<String> artists = albumArtists.get(track.album);
-            if (artists == null) {
-                artists = new HashSet<>();
-                albumArtists.put(track.album, artists);
+        }
+        return delta;
+    }
+
+    /**
+     * @return the identity by which a synced track is being matched with a stored track
+     */
+    private static String getIdentity(String url, String artist, String album, String track,
+            int albumPos) {
+        return concatKeys(url, artist, album, track, albumPos);
+    }
+
+    /**
+     * Applies the given (normalized) tracks to the database. Tracks that are already stored with
+     * the same lastModified timestamp and album artist are skipped.
+     */
+    private void applyDelta(ScriptResolverTrack[] tracks, Set<String> compilationAlbums,
+            TrackDelta delta) {
+        List<ScriptResolverTrack> addedTracks = new ArrayList<>();
+        List<Long> changedTrackIds = new ArrayList<>();
+        for (ScriptResolverTrack track : tracks) {
+            String identity = getIdentity(track.url, track.artist, track.album, track.track,
+                    track.albumpos);
+            List<StoredTrack> storedTracks = delta.mUnmatchedTracks.get(identity);
+            StoredTrack storedTrack = null;
+            if (storedTracks != null) {
+                storedTrack = storedTracks.remove(storedTracks.size() - 1);
+                if (storedTracks.isEmpty()) {
+                    delta.mUnmatchedTracks.remove(identity);
+                }
             }
-            if (artists.size() < 2) {
-                artists.add(track.artist);
+            if (storedTrack != null) {
+                if (storedTrack.mLastModified == track.lastModified
+                        && storedTrack.mIsCompilationTrack
+                        == compilationAlbums.contains(track.album)) {
+                    continue;
+                }
+                changedTrackIds.add(storedTrack.mId);
             }
+            addedTracks.add(track);
         }
+        // Changed tracks have to be removed first, otherwise their new version would collide with
+        // the old one
+        deleteTracks(changedTrackIds);
+        delta.mRemovedTrackIds.addAll(changedTrackIds);
+        delta.mAddedTrackCount += insertTracks(
+                addedTracks.toArray(new ScriptResolverTrack[addedTracks.size()]),
+                compilationAlbums);
+    }
 
-        Map<String, Long> mArtistLastModifiedMap = new HashMap<>();
-        // First we insert all artists and albumArtists
-        for (ScriptResolverTrack track : tracks) {
-            if (albumArtists.get(track.album).size() > 1) {
-                ContentValues values = new ContentValues();
-                values.put(ARTISTS_ARTIST, Artist.COMPILATION_ARTIST.getName());
-                values.put(ARTISTS_ARTISTDISAMBIGUATION, "");
-                String artistKey = Artist.COMPILATION_ARTIST.getName() + "♠" + "";
-                Long lastModified = mArtistLastModifiedMap.get(artistKey);
-                if (lastModified == null || lastModified < track.lastModified) {
-                    mArtistLastModifiedMap.put(artistKey, track.lastModified);
-                    lastModified = track.lastModified;
+    /**
+     * Removes all stored tracks that haven't been matched, cleans up orphaned artists and albums
+     * and stores a new revision containing the delta, if anything has changed. Must be called
+     * inside of the transaction that has loaded the delta.
+     */
+    private void commitDelta(TrackDelta delta) {
+        List<Long> unmatchedTrackIds = new ArrayList<>();
+        for (List<StoredTrack> storedTracks : delta.mUnmatchedTracks.values()) {
+            for (StoredTrack storedTrack : storedTracks) {
+                unmatchedTrackIds.add(storedTrack.mId);
+            }
+        }
+        deleteTracks(unmatchedTrackIds);
+        delta.mRemovedTrackIds.addAll(unmatchedTrackIds);
+        if (!delta.hasChanges()) {
+            return;
+        }
+        long timeStamp = System.currentTimeMillis();
+        if (!delta.mRemovedTrackIds.isEmpty()) {
+            removeOrphans();
+            SQLiteStatement insertRemovedTrack = mDb.compileStatement("INSERT INTO "
+                    + TABLE_REMOVEDTRACKS + " (" + REMOVEDTRACKS_TRACKID + ", "
+                    + REMOVEDTRACKS_TIMESTAMP + ") VALUES (?, ?)");
+            try {
+                for (long trackId : delta.mRemovedTrackIds) {
+                    insertRemovedTrack.bindLong(1, trackId);
+                    insertRemovedTrack.bindLong(2, timeStamp);
+                    insertRemovedTrack.executeInsert();
                 }
-                values.put(ARTISTS_LASTMODIFIED, lastModified);
-                values.put(ARTISTS_TYPE, TYPE_DEFAULT);
-                mDb.insert(TABLE_ARTISTS, null, values);
-            }
-            ContentValues values = new ContentValues();
-            values.put(ARTISTS_ARTIST, track.artist);
-            values.put(ARTISTS_ARTISTDISAMBIGUATION, track.artistDisambiguation);
-            String artistKey = track.artist + "♠" + track.artistDisambiguation;
-            Long lastModified = mArtistLastModifiedMap.get(artistKey);
-            if (lastModified == null || lastModified < track.lastModified) {
-                mArtistLastModifiedMap.put(artistKey, track.lastModified);
-                lastModified = track.lastModified;
-            }
-            values.put(ARTISTS_LASTMODIFIED, lastModified);
-            values.put(ARTISTS_TYPE, TYPE_DEFAULT);
-            mDb.insert(TABLE_ARTISTS, null, values);
-            values = new ContentValues();
-            values.put(ALBUMARTISTS_ALBUMARTIST, track.albumArtist);
-            values.put(ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION, track.albumArtistDisambiguation);
-            values.put(ALBUMARTISTS_LASTMODIFIED, lastModified);
-            mDb.insert(TABLE_ALBUMARTISTS, null, values);
-        }
-
-        Map<String, Integer> cachedArtists = new HashMap<>();
-        Map<Integer, String> cachedArtistIds = new HashMap<>();
-        Cursor cursor = mDb.query(TABLE_ARTISTS,
-                new String[]{ID, ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION},
-                null, null, null, null, null);
+            } finally {
+                insertRemovedTrack.close();
+            }
+        }
+        storeNewRevision(mDb, String.valueOf(timeStamp), ACTION_SYNCTRACKS, timeStamp,
+                delta.mAddedTrackCount, delta.mRemovedTrackIds.size());
+    }
+
+    /**
+     * Called after the transaction that has committed the given delta has ended successfully
+     */
+    private void onDeltaCommitted(TrackDelta delta) {
+        mReplaceOnNextCommit = false;
+        mInitialized = true;
+        Log.d(TAG, "onDeltaCommitted - added " + delta.mAddedTrackCount + " tracks, removed "
+                + delta.mRemovedTrackIds.size() + " tracks");
+        if (delta.hasChanges()) {
+            postRevisionChangedEvent();
+        }
+    }
+
+    private void deleteTracks(List<Long> trackIds) {
+        mDb.beginTransaction();
         try {
-            cursor.moveToFirst();
-            if (!cursor.isAfterLast()) {
-                do {
-                    cachedArtists.put(concatKeys(cursor.getString(1), cursor.getString(2)),
-                            cursor.getInt(0));
-                    cachedArtistIds.put(cursor.getInt(0), cursor.getString(1));
-                } while (cursor.moveToNext());
+            for (int i = 0; i < trackIds.size(); i += MAX_PARAMS_PER_STATEMENT) {
+                List<Long> chunk =
+                        trackIds.subList(i, Math.min(i + MAX_PARAMS_PER_STATEMENT, trackIds.size()));
+                String[] args = new String[chunk.size()];
+                StringBuilder whereClause = new StringBuilder(ID + " IN (");
+                for (int j = 0; j < args.length; j++) {
+                    whereClause.append(j > 0 ? ",?" : "?");
+                    args[j] = String.valueOf(chunk.get(j));
+                }
+                whereClause.append(")");
+                mDb.delete(TABLE_TRACKS, whereClause.toString(), args);
             }
+            mDb.setTransactionSuccessful();
         } finally {
-            if (cursor != null) {
-                cursor.close();
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Removes all artists and albums, that have been added by a collection's tracks, but aren't
+     * referenced by any track anymore
+     */
+    private void removeOrphans() {
+        mDb.execSQL("DELETE FROM " + TABLE_ARTISTALBUMS + " WHERE " + ARTISTALBUMS_ALBUMID
+                + " IN (SELECT " + ID + " FROM " + TABLE_ALBUMS + " WHERE " + ALBUMS_TYPE + " = "
+                + TYPE_DEFAULT + ") AND NOT EXISTS (SELECT 1 FROM " + TABLE_TRACKS + " WHERE "
+                + TABLE_TRACKS + "." + TRACKS_ARTISTID + " = " + TABLE_ARTISTALBUMS + "."
+                + ARTISTALBUMS_ARTISTID + " AND " + TABLE_TRACKS + "." + TRACKS_ALBUMID + " = "
+                + TABLE_ARTISTALBUMS + "." + ARTISTALBUMS_ALBUMID + ")");
+        mDb.execSQL("DELETE FROM " + TABLE_ALBUMS + " WHERE " + ALBUMS_TYPE + " = "
+                + TYPE_DEFAULT + " AND NOT EXISTS (SELECT 1 FROM " + TABLE_TRACKS + " WHERE "
+                + TABLE_TRACKS + "." + TRACKS_ALBUMID + " = " + TABLE_ALBUMS + "." + ID + ")");
+        mDb.execSQL("DELETE FROM " + TABLE_ARTISTS + " WHERE " + ARTISTS_TYPE + " = "
+                + TYPE_DEFAULT + " AND NOT EXISTS (SELECT 1 FROM " + TABLE_TRACKS + " WHERE "
+                + TABLE_TRACKS + "." + TRACKS_ARTISTID + " = " + TABLE_ARTISTS + "." + ID
+                + ") AND NOT EXISTS (SELECT 1 FROM " + TABLE_ALBUMS + " WHERE " + TABLE_ALBUMS
+                + "." + ALBUMS_ALBUMARTISTID + " = " + TABLE_ARTISTS + "." + ID + ")");
+    }
+
+    /**
+     * Streams the tracks of the JSON array that the given {@link JsonReader} is positioned at into
+     * the pending tracks table. Pending tracks are only being added to the collection once {@link
+     * #commitPendingTracks()} is called, so that compilation albums can be detected across all
+     * pages.
+     *
+     * @return the number of tracks that are pending in total
+     */
+    public int addPendingTracks(final JsonReader reader) throws IOException {
+        try {
+            return write(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return doAddPendingTracks(reader);
+                }
+            });
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw e;
         }
+    }
 
-        Map<String, Long> mAlbumLastModifiedMap = new HashMap<>();
-        for (ScriptResolverTrack track : tracks) {
-            ContentValues values = new ContentValues();
-            values.put(ALBUMS_ALBUM, track.album);
-            int albumArtistId;
-            if (albumArtists.get(track.album).size() == 1) {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(track.artist, track.artistDisambiguation));
-            } else {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(Artist.COMPILATION_ARTIST.getName(), ""));
-            }
-            values.put(ALBUMS_ALBUMARTISTID, albumArtistId);
-            values.put(ALBUMS_IMAGEPATH, track.imagePath);
-            String artistKey = track.album + "♠" + albumArtistId;
-            Long lastModified = mAlbumLastModifiedMap.get(artistKey);
-            if (lastModified == null || lastModified < track.lastModified) {
-                mAlbumLastModifiedMap.put(artistKey, track.lastModified);
-                lastModified = track.lastModified;
-            }
-            values.put(ALBUMS_LASTMODIFIED, lastModified);
-            values.put(ALBUMS_TYPE, TYPE_DEFAULT);
-            mDb.insert(TABLE_ALBUMS, null, values);
-        }
-
-        Map<String, Integer> cachedAlbums = new HashMap<>();
-        Map<Integer, String> cachedAlbumIds = new HashMap<>();
-        cursor = mDb.query(TABLE_ALBUMS,
-                new String[]{ID, ALBUMS_ALBUM, ALBUMS_ALBUMARTISTID},
-                null, null, null, null, null);
+    private int doAddPendingTracks(JsonReader reader) throws IOException {
+        mDb.execSQL(CREATE_TABLE_PENDINGTRACKS);
+        SQLiteStatement insertPendingTrack = mDb.compileStatement("INSERT INTO "
+                + TABLE_PENDINGTRACKS + " (" + TRACKS_TRACK + ", " + ALBUMS_ALBUM + ", "
+                + ALBUMS_IMAGEPATH + ", " + ARTISTS_ARTIST + ", " + ARTISTS_ARTISTDISAMBIGUATION
+                + ", " + ALBUMARTISTS_ALBUMARTIST + ", " + ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION
+                + ", " + TRACKS_URL + ", " + TRACKS_DURATION + ", " + TRACKS_LINKURL + ", "
+                + TRACKS_ALBUMPOS + ", " + TRACKS_LASTMODIFIED
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        mDb.beginTransaction();
         try {
-            cursor.moveToFirst();
-            if (!cursor.isAfterLast()) {
-                do {
-                    cachedAlbums.put(concatKeys(cursor.getString(1), cursor.getString(2)),
-                            cursor.getInt(0));
-                    cachedAlbumIds.put(cursor.getInt(0), cursor.getString(1));
-                } while (cursor.moveToNext());
+            reader.beginArray();
+            while (reader.hasNext()) {
+                ScriptResolverTrack track = readTrack(reader);
+                insertPendingTrack.bindString(1, track.track);
+                insertPendingTrack.bindString(2, track.album);
+                bindStringOrNull(insertPendingTrack, 3, track.imagePath);
+                insertPendingTrack.bindString(4, track.artist);
+                insertPendingTrack.bindString(5, track.artistDisambiguation);
+                insertPendingTrack.bindString(6, track.albumArtist);
+                insertPendingTrack.bindString(7, track.albumArtistDisambiguation);
+                bindStringOrNull(insertPendingTrack, 8, track.url);
+                insertPendingTrack.bindDouble(9, track.duration);
+                bindStringOrNull(insertPendingTrack, 10, track.linkUrl);
+                insertPendingTrack.bindLong(11, track.albumpos);
+                insertPendingTrack.bindLong(12, track.lastModified);
+                insertPendingTrack.executeInsert();
+            }
+            reader.endArray();
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insertPendingTrack.close();
+        }
+        int pendingTrackCount = (int) DatabaseUtils.queryNumEntries(mDb, TABLE_PENDINGTRACKS);
+        SyncProgressEvent event = new SyncProgressEvent();
+        event.mCollectionId = mCollectionId;
+        event.mPendingTrackCount = pendingTrackCount;
+        EventBus.getDefault().post(event);
+        return pendingTrackCount;
+    }
+
+    /**
+     * Adds all pending tracks to the collection and stores a new revision.
+     *
+     * @param replace whether the pending tracks should replace the current content of this
+     *                collection (see {@link #syncTracks(ScriptResolverTrack[])}) or should be added
+     *                to it
+     */
+    public void commitPendingTracks(final boolean replace) {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                doCommitPendingTracks(replace);
+                return null;
+            }
+        });
+    }
+
+    private void doCommitPendingTracks(boolean replace) {
+        long time = System.currentTimeMillis();
+        mDb.execSQL(CREATE_TABLE_PENDINGTRACKS);
+        Set<String> compilationAlbums = new HashSet<>();
+        Cursor cursor = null;
+        try {
+            cursor = mDb.rawQuery("SELECT " + ALBUMS_ALBUM + " FROM " + TABLE_PENDINGTRACKS
+                    + " GROUP BY " + ALBUMS_ALBUM + " HAVING COUNT(DISTINCT " + ARTISTS_ARTIST
+                    + ") > 1", null);
+            while (cursor.moveToNext()) {
+                compilationAlbums.add(cursor.getString(0));
             }
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
         }
+        if (replace || mReplaceOnNextCommit) {
+            TrackDelta delta;
+            int trackCount;
+            // Like in doSyncTracks the whole sync is one transaction
+            mDb.beginTransaction();
+            try {
+                delta = loadStoredTracks();
+                trackCount = commitPendingChunks(compilationAlbums, delta, true);
+                commitDelta(delta);
+                mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_PENDINGTRACKS + "`;");
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            Log.d(TAG, "Committed " + trackCount + " pending tracks in "
+                    + (System.currentTimeMillis() - time) + "ms");
+            onDeltaCommitted(delta);
+            return;
+        }
+        TrackDelta delta = new TrackDelta();
+        int trackCount;
+        // The pending tracks are either added completely or not at all
+        mDb.beginTransaction();
+        try {
+            trackCount = commitPendingChunks(compilationAlbums, delta, false);
+            mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_PENDINGTRACKS + "`;");
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        Log.d(TAG, "Committed " + trackCount + " pending tracks in "
+                + (System.currentTimeMillis() - time) + "ms");
+        mInitialized = true;
+        if (trackCount > 0) {
+            long timeStamp = System.currentTimeMillis();
+            storeNewRevision(mDb, String.valueOf(timeStamp), ACTION_ADDTRACKS, timeStamp,
+                    delta.mAddedTrackCount, 0);
+            postRevisionChangedEvent();
+        }
+    }
 
-        for (ScriptResolverTrack track : tracks) {
-            ContentValues values = new ContentValues();
-            int albumArtistId;
-            if (albumArtists.get(track.album).size() == 1) {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(track.artist, track.artistDisambiguation));
+    /**
+     * Pages through the pending tracks by their id, so that we never have more than one chunk of
+     * them in memory, and adds them to the collection
+     *
+     * @param sync whether the pending tracks should be applied to the given {@link TrackDelta}
+     *             or simply be inserted
+     * @return the number of pending tracks
+     */
+    private int commitPendingChunks(Set<String> compilationAlbums, TrackDelta delta,
+            boolean sync) {
+        int trackCount = 0;
+        long lastId = -1;
+        List<ScriptResolverTrack> chunk = new ArrayList<>();
+        Cursor cursor = null;
+        do {
+            chunk.clear();
+            try {
+                cursor = mDb.query(TABLE_PENDINGTRACKS, PENDINGTRACKS_COLUMNS, ID + " > ?",
+                        new String[]{String.valueOf(lastId)}, null, null, ID,
+                        String.valueOf(PENDING_TRACKS_CHUNK_SIZE));
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    ScriptResolverTrack track = new ScriptResolverTrack();
+                    track.track = cursor.getString(1);
+                    track.album = cursor.getString(2);
+                    track.imagePath = cursor.getString(3);
+                    track.artist = cursor.getString(4);
+                    track.artistDisambiguation = cursor.getString(5);
+                    track.albumArtist = cursor.getString(6);
+                    track.albumArtistDisambiguation = cursor.getString(7);
+                    track.url = cursor.getString(8);
+                    track.duration = cursor.getFloat(9);
+                    track.linkUrl = cursor.getString(10);
+                    track.albumpos = cursor.getInt(11);
+                    track.lastModified = cursor.getLong(12);
+                    chunk.add(track);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            ScriptResolverTrack[] tracks = chunk.toArray(new ScriptResolverTrack[chunk.size()]);
+            if (sync) {
+                applyDelta(tracks, compilationAlbums, delta);
             } else {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(Artist.COMPILATION_ARTIST.getName(), ""));
-            }
-            int artistId = cachedArtists.get(concatKeys(track.artist, track.artistDisambiguation));
-            int albumId = cachedAlbums.get(concatKeys(track.album, albumArtistId));
-            values.put(ARTISTALBUMS_ARTISTID, artistId);
-            values.put(ARTISTALBUMS_ALBUMID, albumId);
-            mDb.insert(TABLE_ARTISTALBUMS, null, values);
-            values = new ContentValues();
-            values.put(TRACKS_TRACK, track.track);
-            values.put(TRACKS_ARTISTID, artistId);
-            values.put(TRACKS_ALBUMID, albumId);
-            values.put(TRACKS_URL, track.url);
-            values.put(TRACKS_DURATION, (int) track.duration);
-            values.put(TRACKS_LINKURL, track.linkUrl);
-            values.put(TRACKS_ALBUMPOS, track.albumpos);
-            values.put(TRACKS_LASTMODIFIED, track.lastModified);
-            mDb.insert(TABLE_TRACKS, null, values);
-        }
-
-        mDb.setTransactionSuccessful();
-        mDb.endTransaction();
-        mInitialized = true;
-        Log.d(TAG, "Added " + tracks.length + " tracks in " + (System.currentTimeMillis() - time)
-                + "ms");
-        if (tracks.length > 0) {
-            storeNewRevision(String.valueOf(System.currentTimeMillis()), ACTION_ADDTRACKS);
+                delta.mAddedTrackCount += insertTracks(tracks, compilationAlbums);
+            }
+            trackCount += chunk.size();
+        } while (chunk.size() == PENDING_TRACKS_CHUNK_SIZE);
+        return trackCount;
+    }
+
+    private static ScriptResolverTrack readTrack(JsonReader reader) throws IOException {
+        ScriptResolverTrack track = new ScriptResolverTrack();
+        track.track = "";
+        track.album = "";
+        track.artist = "";
+        track.artistDisambiguation = "";
+        track.albumArtist = "";
+        track.albumArtistDisambiguation = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (name.equals("track")) {
+                track.track = reader.nextString();
+            } else if (name.equals("album")) {
+                track.album = reader.nextString();
+            } else if (name.equals("imagePath")) {
+                track.imagePath = reader.nextString();
+            } else if (name.equals("artist")) {
+                track.artist = reader.nextString();
+            } else if (name.equals("artistDisambiguation")) {
+                track.artistDisambiguation = reader.nextString();
+            } else if (name.equals("albumArtist")) {
+                track.albumArtist = reader.nextString();
+            } else if (name.equals("albumArtistDisambiguation")) {
+                track.albumArtistDisambiguation = reader.nextString();
+            } else if (name.equals("url")) {
+                track.url = reader.nextString();
+            } else if (name.equals("duration")) {
+                track.duration = (float) reader.nextDouble();
+            } else if (name.equals("linkUrl")) {
+                track.linkUrl = reader.nextString();
+            } else if (name.equals("albumpos")) {
+                track.albumpos = (int) reader.nextDouble();
+            } else if (name.equals("lastModified")) {
+                track.lastModified = (long) reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return track;
+    }
+
+    /**
+     * Returns the id of the artist with the given name and disambiguation. The artist is being
+     * inserted if it doesn't exist yet.
+     */
+    private static long getOrInsertArtist(SQLiteStatement insertArtist,
+            SQLiteStatement selectArtistId, Map<String, Long> artistIds, String artist,
+            String artistDisambiguation, long lastModified) {
+        String key = concatKeys(artist, artistDisambiguation);
+        Long artistId = artistIds.get(key);
+        if (artistId == null) {
+            insertArtist.bindString(1, artist);
+            insertArtist.bindString(2, artistDisambiguation);
+            insertArtist.bindLong(3, lastModified);
+            insertArtist.bindLong(4, TYPE_DEFAULT);
+            artistId = insertArtist.executeInsert();
+            if (artistId < 0) {
+                // The artist has already been added before
+                selectArtistId.bindString(1, artist);
+                selectArtistId.bindString(2, artistDisambiguation);
+                selectArtistId.bindLong(3, TYPE_DEFAULT);
+                artistId = selectArtistId.simpleQueryForLong();
+            }
+            artistIds.put(key, artistId);
         }
+        return artistId;
     }
 
-    public synchronized void wipe() {
-        wipe(mDb);
+    private static void putMax(Map<String, Long> map, String key, long value) {
+        Long currentValue = map.get(key);
+        if (currentValue == null || currentValue < value) {
+            map.put(key, value);
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    public void wipe() {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mReplaceOnNextCommit = false;
+                // Readers keep seeing the old tables until the new ones have been committed
+                mDb.beginTransaction();
+                try {
+                    wipe(mDb);
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                }
+                postRevisionChangedEvent();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Executes the given write on the writer thread of this database and waits for it to finish.
+     * All writes are being serialized this way, while readers don't have to wait for them at all.
+     * Since write-ahead logging is enabled, readers are served by the connection pool and see the
+     * last committed state of the database.
+     *
+     * @return the result of the given write
+     */
+    protected <V> V write(Callable<V> write) {
+        try {
+            if (Thread.currentThread() == mWriteThread) {
+                // We're already on the writer thread, so we'd deadlock if we waited for ourselves
+                return write.call();
+            }
+            return mWriteExecutor.submit(write).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void postRevisionChangedEvent() {
+        RevisionChangedEvent event = new RevisionChangedEvent();
+        event.mCollectionId = mCollectionId;
+        EventBus.getDefault().post(event);
     }
 
     private void wipe(SQLiteDatabase db) {
@@ -454,20 +1312,24 @@ public class CollectionDb extends SQLiteOpenHelper {
         db.execSQL(CREATE_TABLE_ARTISTALBUMS);
         db.execSQL("DROP TABLE IF EXISTS `" + TABLE_TRACKS + "`;");
         db.execSQL(CREATE_TABLE_TRACKS);
+        db.execSQL("DROP TABLE IF EXISTS `" + TABLE_PENDINGTRACKS + "`;");
+        db.execSQL("DROP TABLE IF EXISTS `" + TABLE_REMOVEDTRACKS + "`;");
+        db.execSQL(CREATE_TABLE_REMOVEDTRACKS);
+        createIndexes(db);
         storeNewRevision(db, String.valueOf(System.currentTimeMillis()), ACTION_WIPE);
     }
 
     /**
      * Convenience method. Uses a default set of fields.
      */
-    public synchronized Cursor tracks(WhereInfo where, String[] orderBy) {
+    public Cursor tracks(WhereInfo where, String[] orderBy) {
         String[] fields = new String[]{ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION, ALBUMS_ALBUM,
                 TRACKS_TRACK, TRACKS_DURATION, TRACKS_URL, TRACKS_LINKURL, TRACKS_ALBUMPOS,
                 TRACKS_LASTMODIFIED, TRACKS_ALBUMID};
         return tracks(where, orderBy, fields);
     }
 
-    public synchronized Cursor tracks(WhereInfo where, String[] orderBy, String[] fields) {
+    public Cursor tracks(WhereInfo where, String[] orderBy, String[] fields) {
         List<JoinInfo> joinInfos = new ArrayList<>();
         JoinInfo joinInfo = new JoinInfo();
         joinInfo.table = TABLE_ARTISTS;
@@ -482,7 +1344,174 @@ public class CollectionDb extends SQLiteOpenHelper {
                 TRACKS_LASTMODIFIED, false);
     }
 
-    public synchronized long tracksCurrentRevision() {
+    /**
+     * Returns a page of at most limit tracks with the default set of fields plus the sort value and
+     * the track's id as the last two columns. Pages are being loaded via keyset pagination, so that
+     * loading a page doesn't get any slower the further down the list it is. Tracks with the same
+     * name, artist and album are only returned once, like in {@link #tracks(WhereInfo,
+     * String[])}.
+     *
+     * @param sortColumn the column to sort by. Ties are broken by the track's id.
+     * @param afterKey   the sort value and id of the last track of the previous page or null to
+     *                   load the page at the given offset instead
+     */
+    public Cursor tracksPage(String sortColumn, boolean descending,
+            String[] afterKey, int offset, int limit) {
+        String[] fields = new String[]{ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION, ALBUMS_ALBUM,
+                TRACKS_TRACK, TRACKS_DURATION, TRACKS_URL, TRACKS_LINKURL, TRACKS_ALBUMPOS,
+                TRACKS_LASTMODIFIED, TRACKS_ALBUMID, sortColumn, TABLE_TRACKS + "." + ID};
+        String order = descending ? " DESC" : "";
+        String sortExpression = getSortExpression(sortColumn);
+        StringBuilder statement = new StringBuilder("SELECT ")
+                .append(StringUtils.join(", ", fields))
+                .append(DEDUPLICATED_TRACKS);
+        String[] args = null;
+        if (afterKey != null) {
+            // The first condition allows an index on the sort column to be used for the range
+            String comparison = descending ? " < " : " > ";
+            String inclusiveComparison = descending ? " <= " : " >= ";
+            statement.append(" AND ").append(sortExpression).append(inclusiveComparison)
+                    .append("?")
+                    .append(" AND (").append(sortExpression).append(comparison).append("?")
+                    .append(" OR ").append(TABLE_TRACKS).append(".").append(ID)
+                    .append(comparison).append("?)");
+            args = new String[]{afterKey[0], afterKey[0], afterKey[1]};
+        }
+        statement.append(" ORDER BY ").append(sortExpression).append(order).append(", ")
+                .append(TABLE_TRACKS).append(".").append(ID).append(order)
+                .append(" LIMIT ").append(limit);
+        if (afterKey == null && offset > 0) {
+            statement.append(" OFFSET ").append(offset);
+        }
+        return rawQuery(statement.toString(), args);
+    }
+
+    /**
+     * @return the number of tracks that {@link #tracksPage(String, boolean, String[], int, int)}
+     * pages through
+     */
+    public int tracksCount() {
+        Cursor cursor = null;
+        try {
+            cursor = rawQuery("SELECT COUNT(*)" + DEDUPLICATED_TRACKS, null);
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the artist name of every track that {@link #tracksPage(String, boolean, String[],
+     * int, int)} pages through with one query, in the same order
+     */
+    public Cursor tracksArtistNames(String sortColumn, boolean descending) {
+        String order = descending ? " DESC" : "";
+        return rawQuery("SELECT " + ARTISTS_ARTIST + DEDUPLICATED_TRACKS
+                + " ORDER BY " + getSortExpression(sortColumn) + order + ", " + TABLE_TRACKS
+                + "." + ID + order, null);
+    }
+
+    /**
+     * @return the expression that tracks are being sorted by, if they are sorted by the given
+     * column. Track names are sorted case-insensitively, so that they can be sectioned by their
+     * first letter regardless of its case.
+     */
+    private static String getSortExpression(String sortColumn) {
+        if (TRACKS_TRACK.equals(sortColumn)) {
+            return sortColumn + " COLLATE NOCASE";
+        }
+        return sortColumn;
+    }
+
+    /**
+     * Computes the sections of the tracks that {@link #tracksPage(String, boolean, String[], int,
+     * int)} pages through with one aggregate query. Tracks sorted by artist are sectioned by
+     * their artist, all other tracks by the first letter of the sort column's value.
+     *
+     * @return the {@link SectionTable} or null if the given sort column can't be sectioned
+     */
+    public SectionTable trackSections(String sortColumn, boolean descending) {
+        int type;
+        String sectionKey;
+        if (ARTISTS_ARTIST.equals(sortColumn)) {
+            type = SectionTable.TYPE_ARTIST;
+            sectionKey = sortColumn;
+        } else if (TRACKS_TRACK.equals(sortColumn)) {
+            type = SectionTable.TYPE_LETTER;
+            // The lower-cased first character sorts the same way as the whole value with NOCASE
+            // collation, so the sections are in the same order as the tracks and there's only
+            // one section per letter
+            sectionKey = "LOWER(SUBSTR(" + sortColumn + ", 1, 1))";
+        } else {
+            return null;
+        }
+        String order = descending ? " DESC" : "";
+        String statement = "SELECT " + sectionKey + " AS sectionKey, COUNT(*)"
+                + DEDUPLICATED_TRACKS + " GROUP BY sectionKey ORDER BY sectionKey" + order;
+        Cursor cursor = null;
+        try {
+            cursor = rawQuery(statement, null);
+            return new SectionTable(type, cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the given fields of all tracks that have an id greater than the given one. Since
+     * track ids are auto-incremented and only reset when the tables are wiped, these are exactly
+     * the tracks that have been added after the track with the given id.
+     */
+    public Cursor tracksAddedAfter(int trackId, String[] fields) {
+        String statement = "SELECT " + StringUtils.join(", ", fields) + " FROM " + TABLE_TRACKS
+                + " INNER JOIN " + TABLE_ARTISTS + " ON "
+                + TABLE_TRACKS + "." + TRACKS_ARTISTID + " = " + TABLE_ARTISTS + "." + ID
+                + " INNER JOIN " + TABLE_ALBUMS + " ON "
+                + TABLE_TRACKS + "." + TRACKS_ALBUMID + " = " + TABLE_ALBUMS + "." + ID
+                + " WHERE " + TABLE_TRACKS + "." + ID + " > ?";
+        return rawQuery(statement, new String[]{String.valueOf(trackId)});
+    }
+
+    /**
+     * Returns the default set of fields plus the track's id as the last column for all tracks with
+     * the given ids. The ids are being queried in chunks of {@link #MAX_PARAMS_PER_STATEMENT}
+     * inside of an "IN (...)" clause, so that only a handful of statements is needed for any
+     * number of ids.
+     */
+    public Cursor tracksWithIds(List<Integer> ids) {
+        String[] fields = new String[]{ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION, ALBUMS_ALBUM,
+                TRACKS_TRACK, TRACKS_DURATION, TRACKS_URL, TRACKS_LINKURL, TRACKS_ALBUMPOS,
+                TRACKS_LASTMODIFIED, TRACKS_ALBUMID, TABLE_TRACKS + "." + ID};
+        String selectString = "SELECT " + StringUtils.join(", ", fields) + " FROM " + TABLE_TRACKS
+                + " INNER JOIN " + TABLE_ARTISTS + " ON "
+                + TABLE_TRACKS + "." + TRACKS_ARTISTID + " = " + TABLE_ARTISTS + "." + ID
+                + " INNER JOIN " + TABLE_ALBUMS + " ON "
+                + TABLE_TRACKS + "." + TRACKS_ALBUMID + " = " + TABLE_ALBUMS + "." + ID
+                + " WHERE " + TABLE_TRACKS + "." + ID + " IN (";
+        List<Cursor> cursors = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += MAX_PARAMS_PER_STATEMENT) {
+            List<Integer> chunk =
+                    ids.subList(i, Math.min(i + MAX_PARAMS_PER_STATEMENT, ids.size()));
+            String[] args = new String[chunk.size()];
+            StringBuilder statement = new StringBuilder(selectString);
+            for (int j = 0; j < args.length; j++) {
+                statement.append(j > 0 ? ",?" : "?");
+                args[j] = String.valueOf(chunk.get(j));
+            }
+            statement.append(")");
+            cursors.add(rawQuery(statement.toString(), args));
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+    }
+
+    public long tracksCurrentRevision() {
         String[] fields = new String[]{TRACKS_LASTMODIFIED};
         long currentRevision = -1;
         Cursor cursor = null;
@@ -503,7 +1532,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return currentRevision;
     }
 
-    public synchronized Cursor albums(String[] orderBy) {
+    public Cursor albums(String[] orderBy) {
         String[] fields = new String[]{ALBUMS_ALBUM, ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION,
                 ALBUMS_IMAGEPATH, ALBUMS_LASTMODIFIED};
         List<JoinInfo> joinInfos = new ArrayList<>();
@@ -521,7 +1550,7 @@ public class CollectionDb extends SQLiteOpenHelper {
                 ALBUMS_LASTMODIFIED, false);
     }
 
-    public synchronized Cursor artists(String[] orderBy) {
+    public Cursor artists(String[] orderBy) {
         String[] fields = new String[]{ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION,
                 ARTISTS_LASTMODIFIED};
         JoinInfo joinInfo = new JoinInfo();
@@ -535,7 +1564,7 @@ public class CollectionDb extends SQLiteOpenHelper {
                 ARTISTS_LASTMODIFIED, false);
     }
 
-    public synchronized Cursor albumArtists(String[] orderBy) {
+    public Cursor albumArtists(String[] orderBy) {
         String[] fields = new String[]{ALBUMARTISTS_ALBUMARTIST,
                 ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION, ALBUMARTISTS_LASTMODIFIED};
         String[] groupBy = new String[]{ALBUMARTISTS_ALBUMARTIST,
@@ -548,7 +1577,7 @@ public class CollectionDb extends SQLiteOpenHelper {
                 ALBUMARTISTS_LASTMODIFIED, false);
     }
 
-    public synchronized long artistCurrentRevision(String artist, String artistDisambiguation) {
+    public long artistCurrentRevision(String artist, String artistDisambiguation) {
         String[] fields = new String[]{ARTISTS_LASTMODIFIED};
         WhereInfo whereInfo = new WhereInfo();
         whereInfo.connection = "AND";
@@ -573,7 +1602,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return currentRevision;
     }
 
-    public synchronized Cursor artistAlbums(String artist, String artistDisambiguation) {
+    public Cursor artistAlbums(String artist, String artistDisambiguation) {
         String[] fields = new String[]{ID};
         WhereInfo whereInfo = new WhereInfo();
         whereInfo.connection = "AND";
@@ -615,7 +1644,7 @@ public class CollectionDb extends SQLiteOpenHelper {
                 new String[]{ALBUMS_ALBUM}, null, ALBUMS_TYPE, null, true);
     }
 
-    public synchronized long albumCurrentRevision(String album, String albumArtist,
+    public long albumCurrentRevision(String album, String albumArtist,
             String albumArtistDisambiguation) {
         String[] fields = new String[]{ID};
         WhereInfo whereInfo = new WhereInfo();
@@ -662,7 +1691,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return currentRevision;
     }
 
-    public synchronized Cursor albumTracks(String album, String albumArtist,
+    public Cursor albumTracks(String album, String albumArtist,
             String albumArtistDisambiguation) {
         String[] fields = new String[]{ID};
         WhereInfo whereInfo = new WhereInfo();
@@ -713,7 +1742,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return tracks(whereInfo, new String[]{TRACKS_ALBUMPOS});
     }
 
-    public synchronized Cursor artistTracks(String artist, String artistDisambiguation) {
+    public Cursor artistTracks(String artist, String artistDisambiguation) {
         String[] fields = new String[]{ID};
         WhereInfo whereInfo = new WhereInfo();
         whereInfo.connection = "AND";
@@ -745,96 +1774,203 @@ public class CollectionDb extends SQLiteOpenHelper {
     private Cursor sqlSelect(String table, String[] fields, WhereInfo where,
             List<JoinInfo> joinInfos, String[] orderBy, String[] groupBy, String typeColumn,
             String lastModifiedColumn, boolean filterAllLoved) {
-        String whereString = "";
+        String shapeKey = getShapeKey(table, fields, where, joinInfos, orderBy, groupBy,
+                typeColumn, lastModifiedColumn, filterAllLoved);
+        String statement = mStatements.get(shapeKey);
+        if (statement == null) {
+            mStatementMisses.incrementAndGet();
+            statement = buildStatement(table, fields, where, joinInfos, orderBy, groupBy,
+                    typeColumn, lastModifiedColumn, filterAllLoved);
+            mStatements.put(shapeKey, statement);
+            Log.d(TAG, "sqlSelect - new statement shape - shapes: " + mStatements.size()
+                    + ", hits: " + mStatementHits.get() + ", misses: " + mStatementMisses.get()
+                    + ", prepared: " + mPrepareCount.get() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(mPrepareTimeNanos.get()) + "ms");
+        } else {
+            mStatementHits.incrementAndGet();
+        }
+
+        // Only the bind values vary between statements of the same shape
         List<String> allWhereValues = new ArrayList<>();
         if (where != null) {
-            whereString = " WHERE ";
+            for (String whereKey : where.where.keySet()) {
+                Collections.addAll(allWhereValues, where.where.get(whereKey));
+            }
+        }
+        if (typeColumn != null) {
+            allWhereValues.add(String.valueOf(TYPE_HATCHET_IMPLICIT));
+        }
+        if (filterAllLoved) {
+            allWhereValues.add(String.valueOf(TYPE_HATCHET_EXPLICIT));
+        }
+        String[] allWhereValuesArray = null;
+        if (allWhereValues.size() > 0) {
+            allWhereValuesArray = allWhereValues.toArray(new String[allWhereValues.size()]);
+        }
+        return rawQuery(statement, allWhereValuesArray);
+    }
+
+    /**
+     * @return the canonical key of the shape of the statement that {@link #buildStatement} builds
+     * for the given parameters. Two statements have the same shape, if they only differ in their
+     * bind values.
+     */
+    private static String getShapeKey(String table, String[] fields, WhereInfo where,
+            List<JoinInfo> joinInfos, String[] orderBy, String[] groupBy, String typeColumn,
+            String lastModifiedColumn, boolean filterAllLoved) {
+        StringBuilder key = new StringBuilder(table);
+        key.append('|');
+        appendAll(key, fields);
+        key.append('|');
+        if (where != null) {
+            key.append(where.connection).append(where.equals ? '=' : '!');
+            for (String whereKey : where.where.keySet()) {
+                key.append(whereKey).append(':').append(where.where.get(whereKey).length)
+                        .append(',');
+            }
+        }
+        key.append('|');
+        if (joinInfos != null) {
+            for (JoinInfo joinInfo : joinInfos) {
+                key.append(joinInfo.table).append(':');
+                for (String joinKey : joinInfo.conditions.keySet()) {
+                    key.append(joinKey).append('=').append(joinInfo.conditions.get(joinKey))
+                            .append(',');
+                }
+            }
+        }
+        key.append('|');
+        appendAll(key, orderBy);
+        key.append('|');
+        appendAll(key, groupBy);
+        key.append('|').append(typeColumn).append('|').append(lastModifiedColumn).append('|')
+                .append(filterAllLoved);
+        return key.toString();
+    }
+
+    private static void appendAll(StringBuilder builder, String[] strings) {
+        if (strings != null) {
+            for (String string : strings) {
+                builder.append(string).append(',');
+            }
+        }
+    }
+
+    private static String buildStatement(String table, String[] fields, WhereInfo where,
+            List<JoinInfo> joinInfos, String[] orderBy, String[] groupBy, String typeColumn,
+            String lastModifiedColumn, boolean filterAllLoved) {
+        StringBuilder whereString = new StringBuilder();
+        if (where != null) {
             boolean notFirst = false;
             for (String whereKey : where.where.keySet()) {
                 String[] whereValues = where.where.get(whereKey);
-                for (String whereValue : whereValues) {
+                for (int i = 0; i < whereValues.length; i++) {
                     if (notFirst) {
-                        whereString += " " + where.connection + " ";
+                        whereString.append(" ").append(where.connection).append(" ");
                     }
                     notFirst = true;
-                    whereString += table + "." + whereKey + (where.equals ? " = " : " != ") + "?";
-                    allWhereValues.add(whereValue);
+                    whereString.append(table).append(".").append(whereKey)
+                            .append(where.equals ? " = " : " != ").append("?");
                 }
             }
         }
         if (typeColumn != null) {
-            if (whereString.isEmpty()) {
-                whereString = " WHERE ";
-            } else {
-                whereString += " AND ";
+            if (whereString.length() > 0) {
+                whereString.append(" AND ");
             }
             // filter out all implicitly added items
-            whereString += typeColumn + " != ?";
-            allWhereValues.add(String.valueOf(TYPE_HATCHET_IMPLICIT));
+            whereString.append(typeColumn).append(" != ?");
         }
         if (filterAllLoved) {
-            if (whereString.isEmpty()) {
-                whereString = " WHERE ";
-            } else {
-                whereString += " AND ";
+            if (whereString.length() > 0) {
+                whereString.append(" AND ");
             }
             // filter out all explicitly added items
-            whereString += typeColumn + " != ?";
-            allWhereValues.add(String.valueOf(TYPE_HATCHET_EXPLICIT));
+            whereString.append(typeColumn).append(" != ?");
         }
 
-        String joinString = "";
+        StringBuilder statement = new StringBuilder("SELECT * FROM ( SELECT ");
+        if (fields != null) {
+            statement.append(StringUtils.join(", ", fields));
+        } else {
+            statement.append("*");
+        }
+        statement.append(" FROM ").append(table);
         if (joinInfos != null) {
             for (JoinInfo joinInfo : joinInfos) {
-                joinString += " INNER JOIN " + joinInfo.table + " ON ";
+                statement.append(" INNER JOIN ").append(joinInfo.table).append(" ON ");
                 boolean notFirst = false;
                 for (String joinKey : joinInfo.conditions.keySet()) {
                     if (notFirst) {
-                        joinString += " AND ";
+                        statement.append(" AND ");
                     }
                     notFirst = true;
-                    joinString += joinKey + " = " + joinInfo.conditions.get(joinKey);
+                    statement.append(joinKey).append(" = ")
+                            .append(joinInfo.conditions.get(joinKey));
                 }
             }
         }
-
-        String orderString = StringUtils.join(" , ", orderBy);
-        if (orderBy != null) {
-            orderString = " ORDER BY " + orderString;
-        } else {
-            orderString = "";
+        if (whereString.length() > 0) {
+            statement.append(" WHERE ").append(whereString);
         }
-
-        String deduplicationOrderString = "";
-        String groupString = StringUtils.join(" , ", groupBy);
+        if (groupBy != null && lastModifiedColumn != null) {
+            statement.append(" ORDER BY ").append(lastModifiedColumn);
+        }
+        statement.append(" ) ");
         if (groupBy != null) {
-            groupString = " GROUP BY " + groupString;
-            if (lastModifiedColumn != null) {
-                deduplicationOrderString = " ORDER BY " + lastModifiedColumn;
-            }
-        } else {
-            groupString = "";
+            statement.append(" GROUP BY ").append(StringUtils.join(" , ", groupBy));
         }
-
-        String fieldsString = StringUtils.join(", ", fields);
-        if (fields == null) {
-            fieldsString = "*";
+        if (orderBy != null) {
+            statement.append(" ORDER BY ").append(StringUtils.join(" , ", orderBy));
         }
+        return statement.toString();
+    }
 
-        String statement = "SELECT * FROM ( SELECT " + fieldsString + " FROM " + table + joinString
-                + whereString + deduplicationOrderString + " ) " + groupString + orderString;
-        String[] allWhereValuesArray = null;
-        if (allWhereValues.size() > 0) {
-            allWhereValuesArray = allWhereValues.toArray(new String[allWhereValues.size()]);
+    private Cursor rawQuery(String statement, String[] selectionArgs) {
+        if (EXPLAIN_QUERY_PLANS) {
+            explainQueryPlan(statement, selectionArgs);
         }
-        return mDb.rawQuery(statement, allWhereValuesArray);
+        // The statement is being prepared right away, but only executed once the cursor is filled
+        long start = System.nanoTime();
+        Cursor cursor = mDb.rawQuery(statement, selectionArgs);
+        mPrepareTimeNanos.addAndGet(System.nanoTime() - start);
+        mPrepareCount.incrementAndGet();
+        return cursor;
     }
 
-    private void storeNewRevision(String revision, int action) {
-        storeNewRevision(mDb, revision, action);
+    /**
+     * Runs "EXPLAIN QUERY PLAN" for the given statement and logs the plan. Every step that scans
+     * a whole table without using an index is being logged as a warning.
+     */
+    private void explainQueryPlan(String statement, String[] selectionArgs) {
+        Cursor cursor = null;
+        try {
+            cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + statement, selectionArgs);
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                // e.g. "SCAN TABLE tracks", newer SQLite versions omit the "TABLE"
+                if (detail.startsWith("SCAN ") && !detail.contains(" USING ")
+                        && !detail.toUpperCase().contains("SUBQUERY")) {
+                    Log.w(TAG, "explainQueryPlan - full table scan: " + detail
+                            + " - statement: " + statement);
+                } else {
+                    Log.d(TAG, "explainQueryPlan - " + detail);
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 
     private static void storeNewRevision(SQLiteDatabase db, String revision, int action) {
+        storeNewRevision(db, revision, action, System.currentTimeMillis(), 0, 0);
+    }
+
+    private static void storeNewRevision(SQLiteDatabase db, String revision, int action,
+            long timeStamp, int addedCount, int removedCount) {
         Cursor cursor = db.query(TABLE_TRACKS, new String[]{ID}, null, null, null, null, null);
         int trackCount = cursor.getCount();
         cursor.close();
@@ -844,7 +1980,9 @@ public class CollectionDb extends SQLiteOpenHelper {
         values.put(REVISIONHISTORY_ACTION, action);
         values.put(REVISIONHISTORY_TRACKCOUNT, trackCount);
         values.put(REVISIONHISTORY_REVISION, revision);
-        values.put(REVISIONHISTORY_TIMESTAMP, System.currentTimeMillis());
+        values.put(REVISIONHISTORY_TIMESTAMP, timeStamp);
+        values.put(REVISIONHISTORY_ADDEDCOUNT, addedCount);
+        values.put(REVISIONHISTORY_REMOVEDCOUNT, removedCount);
         db.insert(TABLE_REVISIONHISTORY, null, values);
         db.setTransactionSuccessful();
         db.endTransaction();
@@ -882,6 +2020,47 @@ public class CollectionDb extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * @return whether or not this collection has been wiped after the given timestamp. If it has
+     * been wiped, all track ids that have been handed out before are invalid.
+     */
+    public boolean wipedSince(long timeStamp) {
+        Cursor cursor = null;
+        try {
+            cursor = mDb.query(TABLE_REVISIONHISTORY, new String[]{ID},
+                    REVISIONHISTORY_ACTION + " = ? AND " + REVISIONHISTORY_TIMESTAMP + " > ?",
+                    new String[]{String.valueOf(ACTION_WIPE), String.valueOf(timeStamp)},
+                    null, null, null, "1");
+            return cursor.getCount() > 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @return the ids of all tracks that have been removed by a differential sync after the given
+     * timestamp
+     */
+    public List<Integer> tracksRemovedSince(long timeStamp) {
+        List<Integer> trackIds = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = mDb.query(TABLE_REMOVEDTRACKS, new String[]{REMOVEDTRACKS_TRACKID},
+                    REMOVEDTRACKS_TIMESTAMP + " > ?", new String[]{String.valueOf(timeStamp)},
+                    null, null, null);
+            while (cursor.moveToNext()) {
+                trackIds.add(cursor.getInt(0));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return trackIds;
+    }
+
     private static String concatKeys(Object... keys) {
         String result = "";
         for (int i = 0; i < keys.length; i++) {
@@ -24,6 +24,7 @@ import org.tomahawk.libtomahawk.collection.Track;
 import org.tomahawk.libtomahawk.infosystem.InfoRequestData;
 import org.tomahawk.libtomahawk.infosystem.QueryParams;
 import org.tomahawk.libtomahawk.resolver.Query;
+import org.tomahawk.libtomahawk.resolver.Result;
 import org.tomahawk.libtomahawk.utils.GsonHelper;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
@@ -41,9 +42,16 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import de.greenrobot.event.EventBus;
 
@@ -63,6 +71,12 @@ public class DatabaseHelper {
 
     public static final int CHUNK_SIZE = 50;
 
+    /**
+     * Mutations are being collected for this long before they are written together in
+     * one transaction
+     */
+    private static final long WRITE_BEHIND_DELAY = 200;
+
     private static class Holder {
 
         private static final DatabaseHelper instance = new DatabaseHelper();
@@ -74,19 +88,249 @@ public class DatabaseHelper {
         public String mPlaylistId;
     }
 
+    /**
+     * A mutation of a playlist or of the resolution cache, which is being written behind. All
+     * values that it writes have to be captured when it is being created, since the objects
+     * they're taken from might change before it is written.
+     */
+    abstract static class PendingWrite {
+
+        /**
+         * The id of the mutated playlist or null if this doesn't mutate a playlist
+         */
+        private final String mPlaylistId;
+
+        PendingWrite(String playlistId) {
+            mPlaylistId = playlistId;
+        }
+
+        /**
+         * Writes this mutation. Always called on the writer thread inside of a transaction.
+         */
+        abstract void write();
+    }
+
+    /**
+     * A mutation that loves or unloves a single track, so that {@link #isItemLoved(Query)} can be
+     * answered from it until it has been written
+     */
+    private abstract static class LovedItemWrite extends PendingWrite {
+
+        private final String mTrackName;
+
+        private final String mArtistName;
+
+        private final boolean mIsLoved;
+
+        LovedItemWrite(Query query, boolean isLoved) {
+            super(LOVEDITEMS_PLAYLIST_ID);
+            mTrackName = query.getName();
+            mArtistName = query.getArtist().getName();
+            mIsLoved = isLoved;
+        }
+
+        boolean isWriteOf(String trackName, String artistName) {
+            return mTrackName.equalsIgnoreCase(trackName)
+                    && mArtistName.equalsIgnoreCase(artistName);
+        }
+    }
+
     // Database fields
     private final SQLiteDatabase mDatabase;
 
+    /**
+     * Mutations that have been enqueued, but not yet taken by the writer thread
+     */
+    private final List<PendingWrite> mPendingWrites = new ArrayList<>();
+
+    /**
+     * Mutations that are currently being written by the writer thread. Guarded by the lock on
+     * {@link #mPendingWrites}.
+     */
+    private List<PendingWrite> mWritingWrites = Collections.emptyList();
+
+    private boolean mWriteScheduled;
+
+    private volatile Thread mWriteThread;
+
+    private final ScheduledExecutorService mWriteExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    mWriteThread = new Thread(r, "DatabaseHelper writer");
+                    return mWriteThread;
+                }
+            });
+
+    private final Runnable mWritePendingWritesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingWrites();
+        }
+    };
+
     private DatabaseHelper() {
         TomahawkSQLiteHelper dbHelper = new TomahawkSQLiteHelper(TomahawkApp.getContext());
         dbHelper.close();
         mDatabase = dbHelper.getWritableDatabase();
+        // Allows readers to use their own connections while a write transaction is running
+        mDatabase.enableWriteAheadLogging();
     }
 
     public static DatabaseHelper get() {
         return Holder.instance;
     }
 
+    /**
+     * Enqueues the given mutation. All mutations that are being enqueued within {@link
+     * #WRITE_BEHIND_DELAY} are written in the order of their enqueueing in one transaction.
+     */
+    void enqueueWrite(PendingWrite write) {
+        synchronized (mPendingWrites) {
+            mPendingWrites.add(write);
+            if (!mWriteScheduled) {
+                mWriteScheduled = true;
+                mWriteExecutor.schedule(mWritePendingWritesRunnable, WRITE_BEHIND_DELAY,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void writePendingWrites() {
+        List<PendingWrite> writes;
+        synchronized (mPendingWrites) {
+            writes = new ArrayList<>(mPendingWrites);
+            mPendingWrites.clear();
+            mWriteScheduled = false;
+            mWritingWrites = writes;
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+        Set<String> updatedPlaylistIds = new LinkedHashSet<>();
+        try {
+            if (!writeInTransaction(writes, updatedPlaylistIds)) {
+                // A failing mutation has rolled back all others. Write them one at a time, so
+                // that only the failing one is being dropped.
+                for (PendingWrite write : writes) {
+                    writeInTransaction(Collections.singletonList(write), updatedPlaylistIds);
+                }
+            }
+        } finally {
+            synchronized (mPendingWrites) {
+                mWritingWrites = Collections.emptyList();
+            }
+        }
+        for (String playlistId : updatedPlaylistIds) {
+            PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
+            event.mPlaylistId = playlistId;
+            EventBus.getDefault().post(event);
+        }
+    }
+
+    /**
+     * Writes the given mutations in one transaction
+     *
+     * @param updatedPlaylistIds the ids of the playlists, that have been updated, are being added
+     *                           to this {@link Set}, if the transaction has been committed
+     * @return whether or not the transaction has been committed
+     */
+    private boolean writeInTransaction(List<PendingWrite> writes,
+            Set<String> updatedPlaylistIds) {
+        mDatabase.beginTransaction();
+        try {
+            for (PendingWrite write : writes) {
+                write.write();
+            }
+            mDatabase.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "writeInTransaction - " + e.getClass() + ": " + e.getLocalizedMessage());
+            return false;
+        } finally {
+            mDatabase.endTransaction();
+        }
+        for (PendingWrite write : writes) {
+            if (write.mPlaylistId != null) {
+                updatedPlaylistIds.add(write.mPlaylistId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param playlistId the id of the playlist to check, or null to check every playlist
+     * @return whether or not there are mutations of the given playlist, that haven't been
+     * committed yet
+     */
+    private boolean hasUncommittedWrites(String playlistId) {
+        synchronized (mPendingWrites) {
+            for (PendingWrite write : mWritingWrites) {
+                if (isWriteOf(write, playlistId)) {
+                    return true;
+                }
+            }
+            for (PendingWrite write : mPendingWrites) {
+                if (isWriteOf(write, playlistId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static boolean isWriteOf(PendingWrite write, String playlistId) {
+        if (playlistId == null) {
+            return write.mPlaylistId != null;
+        }
+        return playlistId.equals(write.mPlaylistId);
+    }
+
+    /**
+     * Writes all pending mutations right away and waits until they have been committed. Called
+     * when the app is being shut down.
+     */
+    public void flushPendingWrites() {
+        boolean hasPendingWrites;
+        synchronized (mPendingWrites) {
+            hasPendingWrites = !mPendingWrites.isEmpty() || !mWritingWrites.isEmpty();
+        }
+        if (hasPendingWrites) {
+            waitForPendingWrites();
+        }
+    }
+
+    /**
+     * Writes all pending playlist mutations right away and waits until they have been committed,
+     * if the playlist with the given id has any of them. Called before a playlist is being read,
+     * so that the read sees all preceding writes. Doesn't block at all, if there's nothing to
+     * wait for.
+     *
+     * @param playlistId the id of the playlist that is going to be read, or null if every
+     *                   playlist is going to be read
+     */
+    private void flushPendingWrites(String playlistId) {
+        if (hasUncommittedWrites(playlistId)) {
+            waitForPendingWrites();
+        }
+    }
+
+    private void waitForPendingWrites() {
+        if (Thread.currentThread() == mWriteThread) {
+            // Mutations on the writer thread already see the pending writes of their transaction
+            return;
+        }
+        try {
+            mWriteExecutor.submit(mWritePendingWritesRunnable).get();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "waitForPendingWrites - " + e.getClass() + ": "
+                    + e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "waitForPendingWrites - " + e.getClass() + ": "
+                    + e.getLocalizedMessage());
+        }
+    }
+
     /**
      * Store the given {@link Playlist}
      *
@@ -121,7 +365,7 @@ public class DatabaseHelper {
             final boolean reverseEntries) {
         List<PlaylistEntry> entries = playlist.getEntries();
 
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
         values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME, playlist.getName());
         if (playlist.isFilled()) {
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_CURRENTREVISION,
@@ -132,17 +376,8 @@ public class DatabaseHelper {
                 playlist.getHatchetId());
         values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TRACKCOUNT, entries.size());
 
-        mDatabase.beginTransaction();
-        mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
-                values,
-                SQLiteDatabase.CONFLICT_REPLACE);
-        // Delete every already associated Track entry
-        mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
-                TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ?",
-                new String[]{playlistId});
-
-        // Store every single Track in the database and store the relationship
-        // by storing the playlists's id with it
+        // Snapshot every single Track now, since the Playlist might change until it is written
+        final List<ContentValues> tracks = new ArrayList<>();
         for (int i = 0; i < entries.size(); i++) {
             PlaylistEntry entry;
             if (reverseEntries) {
@@ -150,33 +385,54 @@ public class DatabaseHelper {
             } else {
                 entry = entries.get(i);
             }
-            values.clear();
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID, playlistId);
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_TRACKNAME,
-                    entry.getQuery().getBasicTrack().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ARTISTNAME,
-                    entry.getQuery().getBasicTrack().getArtist().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ALBUMNAME,
-                    entry.getQuery().getBasicTrack().getAlbum().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_RESULTHINT,
-                    entry.getQuery().getTopTrackResultKey());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYINDEX, i);
-            if (entry.getQuery().isFetchedViaHatchet()) {
-                values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET,
-                        TRUE);
-            } else {
-                values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET,
-                        FALSE);
-            }
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYID,
+            ContentValues trackValues = getTrackValues(playlistId, entry.getQuery());
+            trackValues.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYINDEX, i);
+            trackValues.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYID,
                     entry.getId());
-            mDatabase.insert(TomahawkSQLiteHelper.TABLE_TRACKS, null, values);
+            tracks.add(trackValues);
         }
-        mDatabase.setTransactionSuccessful();
-        mDatabase.endTransaction();
-        PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-        event.mPlaylistId = playlistId;
-        EventBus.getDefault().post(event);
+
+        enqueueWrite(new PendingWrite(playlistId) {
+            @Override
+            void write() {
+                mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
+                        values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                // Delete every already associated Track entry
+                mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
+                        TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ?",
+                        new String[]{playlistId});
+
+                // Store every single Track in the database and store the relationship
+                // by storing the playlists's id with it
+                for (ContentValues trackValues : tracks) {
+                    mDatabase.insert(TomahawkSQLiteHelper.TABLE_TRACKS, null, trackValues);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the values of a row in the tracks table, which stores the given {@link Query} in the
+     * playlist with the given id. The entry's index and id aren't included.
+     */
+    private static ContentValues getTrackValues(String playlistId, Query query) {
+        ContentValues values = new ContentValues();
+        values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID, playlistId);
+        values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_TRACKNAME,
+                query.getBasicTrack().getName());
+        values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ARTISTNAME,
+                query.getBasicTrack().getArtist().getName());
+        values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ALBUMNAME,
+                query.getBasicTrack().getAlbum().getName());
+        values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_RESULTHINT,
+                query.getTopTrackResultKey());
+        if (query.isFetchedViaHatchet()) {
+            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET, TRUE);
+        } else {
+            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET, FALSE);
+        }
+        return values;
     }
 
     /**
@@ -192,7 +448,7 @@ public class DatabaseHelper {
                 topArtistsString += s + "\t\t";
             }
 
-            ContentValues values = new ContentValues();
+            final ContentValues values = new ContentValues();
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME, newName);
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID, playlist.getId());
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME, playlist.getName());
@@ -205,14 +461,13 @@ public class DatabaseHelper {
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TOPARTISTS,
                     topArtistsString);
 
-            mDatabase.beginTransaction();
-            mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
-                    values, SQLiteDatabase.CONFLICT_REPLACE);
-            mDatabase.setTransactionSuccessful();
-            mDatabase.endTransaction();
-            PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-            event.mPlaylistId = playlist.getId();
-            EventBus.getDefault().post(event);
+            enqueueWrite(new PendingWrite(playlist.getId()) {
+                @Override
+                void write() {
+                    mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
+                            values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            });
         } else {
             Log.e(TAG, "renamePlaylist: playlist is null");
         }
@@ -230,7 +485,7 @@ public class DatabaseHelper {
                 topArtistsString += s + "\t\t";
             }
 
-            ContentValues values = new ContentValues();
+            final ContentValues values = new ContentValues();
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID, playlist.getId());
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME, playlist.getName());
             if (playlist.isFilled()) {
@@ -242,14 +497,13 @@ public class DatabaseHelper {
             values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TOPARTISTS,
                     topArtistsString);
 
-            mDatabase.beginTransaction();
-            mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
-                    values, SQLiteDatabase.CONFLICT_REPLACE);
-            mDatabase.setTransactionSuccessful();
-            mDatabase.endTransaction();
-            PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-            event.mPlaylistId = playlist.getId();
-            EventBus.getDefault().post(event);
+            enqueueWrite(new PendingWrite(playlist.getId()) {
+                @Override
+                void write() {
+                    mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
+                            values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            });
         } else {
             Log.e(TAG, "updatePlaylist: playlist is null");
         }
@@ -263,43 +517,43 @@ public class DatabaseHelper {
      */
     public void updatePlaylistHatchetId(final String playlistId,
             final String hatchetId) {
-        Playlist playlist = getEmptyPlaylist(playlistId);
-        if (playlist != null) {
-            String topArtistsString = "";
-            if (playlist.getTopArtistNames() != null) {
-                for (String s : playlist.getTopArtistNames()) {
-                    topArtistsString += s + "\t\t";
-                }
-            }
+        enqueueWrite(new PendingWrite(playlistId) {
+            @Override
+            void write() {
+                Playlist playlist = getEmptyPlaylist(playlistId);
+                if (playlist != null) {
+                    String topArtistsString = "";
+                    if (playlist.getTopArtistNames() != null) {
+                        for (String s : playlist.getTopArtistNames()) {
+                            topArtistsString += s + "\t\t";
+                        }
+                    }
 
-            ContentValues values = new ContentValues();
-            values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID, playlist.getId());
-            values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME, playlist.getName());
-            if (playlist.isFilled()) {
-                values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_CURRENTREVISION,
-                        playlist.getCurrentRevision());
-            }
-            values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_HATCHETID, hatchetId);
-            values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TOPARTISTS,
-                    topArtistsString);
+                    ContentValues values = new ContentValues();
+                    values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID, playlist.getId());
+                    values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME, playlist.getName());
+                    if (playlist.isFilled()) {
+                        values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_CURRENTREVISION,
+                                playlist.getCurrentRevision());
+                    }
+                    values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_HATCHETID, hatchetId);
+                    values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TOPARTISTS,
+                            topArtistsString);
 
-            mDatabase.beginTransaction();
-            mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
-                    values, SQLiteDatabase.CONFLICT_REPLACE);
-            mDatabase.setTransactionSuccessful();
-            mDatabase.endTransaction();
-            PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-            event.mPlaylistId = playlist.getId();
-            EventBus.getDefault().post(event);
-        } else {
-            Log.e(TAG, "updatePlaylistHatchetId: playlist is null, id: " + playlistId);
-        }
+                    mDatabase.insertWithOnConflict(TomahawkSQLiteHelper.TABLE_PLAYLISTS, null,
+                            values, SQLiteDatabase.CONFLICT_REPLACE);
+                } else {
+                    Log.e(TAG, "updatePlaylistHatchetId: playlist is null, id: " + playlistId);
+                }
+            }
+        });
     }
 
     /**
      * @return every stored {@link org.tomahawk.libtomahawk.collection.Playlist} in the database
      */
     public List<Playlist> getPlaylists() {
+        flushPendingWrites();
         final List<Playlist> playListList = new ArrayList<>();
         String[] columns = new String[]{TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID};
 
@@ -327,6 +581,7 @@ public class DatabaseHelper {
         if (playlistId == null) {
             return null;
         }
+        flushPendingWrites(playlistId);
         String[] columns = new String[]{TomahawkSQLiteHelper.PLAYLISTS_COLUMN_HATCHETID};
         Cursor playlistsCursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_PLAYLISTS,
                 columns, TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID + " = ?",
@@ -344,6 +599,7 @@ public class DatabaseHelper {
      * @return the playlist's local id, null if playlist not found
      */
     public String getPlaylistLocalId(String hatchetId) {
+        flushPendingWrites();
         String[] columns = new String[]{TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID};
 
         Cursor playlistsCursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_PLAYLISTS,
@@ -362,6 +618,7 @@ public class DatabaseHelper {
      * @return the playlist's name, null if playlist not found
      */
     public String getPlaylistName(String playlistId) {
+        flushPendingWrites(playlistId);
         String[] columns = new String[]{TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME};
 
         Cursor playlistsCursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_PLAYLISTS,
@@ -381,6 +638,7 @@ public class DatabaseHelper {
      * its id
      */
     public Playlist getEmptyPlaylist(String playlistId) {
+        flushPendingWrites(playlistId);
         String[] columns = new String[]{TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME,
                 TomahawkSQLiteHelper.PLAYLISTS_COLUMN_CURRENTREVISION,
                 TomahawkSQLiteHelper.PLAYLISTS_COLUMN_HATCHETID,
@@ -425,6 +683,7 @@ public class DatabaseHelper {
      * its id
      */
     private Playlist getPlaylist(String playlistId, boolean reverseEntries) {
+        flushPendingWrites(playlistId);
         String[] columns = new String[]{TomahawkSQLiteHelper.PLAYLISTS_COLUMN_NAME,
                 TomahawkSQLiteHelper.PLAYLISTS_COLUMN_CURRENTREVISION,
                 TomahawkSQLiteHelper.PLAYLISTS_COLUMN_HATCHETID,
@@ -487,6 +746,7 @@ public class DatabaseHelper {
      * its id
      */
     public long getPlaylistTrackCount(String playlistId) {
+        flushPendingWrites(playlistId);
         long trackCount = -1;
         String[] columns = new String[]{TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TRACKCOUNT};
         Cursor playlistsCursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_PLAYLISTS,
@@ -522,18 +782,17 @@ public class DatabaseHelper {
      *                   to be deleted
      */
     public void deletePlaylist(final String playlistId) {
-        mDatabase.beginTransaction();
-        mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
-                TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ?",
-                new String[]{playlistId});
-        mDatabase.delete(TomahawkSQLiteHelper.TABLE_PLAYLISTS,
-                TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID + " = ?",
-                new String[]{playlistId});
-        mDatabase.setTransactionSuccessful();
-        mDatabase.endTransaction();
-        PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-        event.mPlaylistId = playlistId;
-        EventBus.getDefault().post(event);
+        enqueueWrite(new PendingWrite(playlistId) {
+            @Override
+            void write() {
+                mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
+                        TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ?",
+                        new String[]{playlistId});
+                mDatabase.delete(TomahawkSQLiteHelper.TABLE_PLAYLISTS,
+                        TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID + " = ?",
+                        new String[]{playlistId});
+            }
+        });
     }
 
     /**
@@ -541,22 +800,21 @@ public class DatabaseHelper {
      * the {@link org.tomahawk.libtomahawk.collection.Playlist} with the given playlistId
      */
     public void deleteEntryInPlaylist(final String playlistId, final String entryId) {
-        long trackCount = getPlaylistTrackCount(playlistId);
-        mDatabase.beginTransaction();
-        trackCount -= mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
-                TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ? AND "
-                        + TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYID
-                        + " = ?", new String[]{playlistId, entryId});
-        ContentValues values = new ContentValues();
-        values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TRACKCOUNT, trackCount);
-        mDatabase.update(TomahawkSQLiteHelper.TABLE_PLAYLISTS, values,
-                TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID + " = ?",
-                new String[]{playlistId});
-        mDatabase.setTransactionSuccessful();
-        mDatabase.endTransaction();
-        PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-        event.mPlaylistId = playlistId;
-        EventBus.getDefault().post(event);
+        enqueueWrite(new PendingWrite(playlistId) {
+            @Override
+            void write() {
+                long trackCount = getPlaylistTrackCount(playlistId);
+                trackCount -= mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
+                        TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ? AND "
+                                + TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYID
+                                + " = ?", new String[]{playlistId, entryId});
+                ContentValues values = new ContentValues();
+                values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TRACKCOUNT, trackCount);
+                mDatabase.update(TomahawkSQLiteHelper.TABLE_PLAYLISTS, values,
+                        TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID + " = ?",
+                        new String[]{playlistId});
+            }
+        });
     }
 
     /**
@@ -564,46 +822,11 @@ public class DatabaseHelper {
      * org.tomahawk.libtomahawk.collection.Playlist} with the given playlistId
      */
     public void addQueriesToPlaylist(final String playlistId, final ArrayList<Query> queries) {
-        long trackCount = getPlaylistTrackCount(playlistId);
-
-        mDatabase.beginTransaction();
-        // Store every single Track in the database and store the relationship
-        // by storing the playlists's id with it
+        List<ContentValues> tracks = new ArrayList<>();
         for (Query query : queries) {
-            ContentValues values = new ContentValues();
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID,
-                    playlistId);
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_TRACKNAME,
-                    query.getBasicTrack().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ARTISTNAME,
-                    query.getBasicTrack().getArtist().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ALBUMNAME,
-                    query.getBasicTrack().getAlbum().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_RESULTHINT,
-                    query.getTopTrackResultKey());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYINDEX,
-                    trackCount);
-            if (query.isFetchedViaHatchet()) {
-                values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET,
-                        TRUE);
-            } else {
-                values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET,
-                        FALSE);
-            }
-            if (mDatabase.insert(TomahawkSQLiteHelper.TABLE_TRACKS, null, values) != -1) {
-                trackCount++;
-            }
+            tracks.add(getTrackValues(playlistId, query));
         }
-        ContentValues values = new ContentValues();
-        values.put(TomahawkSQLiteHelper.PLAYLISTS_COLUMN_TRACKCOUNT, trackCount);
-        mDatabase.update(TomahawkSQLiteHelper.TABLE_PLAYLISTS, values,
-                TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID + " = ?",
-                new String[]{playlistId});
-        mDatabase.setTransactionSuccessful();
-        mDatabase.endTransaction();
-        PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-        event.mPlaylistId = playlistId;
-        EventBus.getDefault().post(event);
+        appendTracksToPlaylist(playlistId, tracks);
     }
 
     /**
@@ -612,34 +835,39 @@ public class DatabaseHelper {
      */
     public void addEntriesToPlaylist(final String playlistId,
             final ArrayList<PlaylistEntry> entries) {
-        long trackCount = getPlaylistTrackCount(playlistId);
+        List<ContentValues> tracks = new ArrayList<>();
+        for (PlaylistEntry entry : entries) {
+            ContentValues values = getTrackValues(playlistId, entry.getQuery());
+            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYID, entry.getId());
+            tracks.add(values);
+        }
+        appendTracksToPlaylist(playlistId, tracks);
+    }
 
-        mDatabase.beginTransaction();
+    /**
+     * Appends the given rows to the tracks of the playlist with the given id and updates its track
+     * count
+     */
+    private void appendTracksToPlaylist(final String playlistId,
+            final List<ContentValues> tracks) {
+        enqueueWrite(new PendingWrite(playlistId) {
+            @Override
+            void write() {
+                appendTracks(playlistId, tracks);
+            }
+        });
+    }
+
+    /**
+     * Appends the given rows to the tracks of the playlist with the given id and updates its track
+     * count. Must be called on the writer thread.
+     */
+    private void appendTracks(String playlistId, List<ContentValues> tracks) {
+        long trackCount = getPlaylistTrackCount(playlistId);
         // Store every single Track in the database and store the relationship
         // by storing the playlists's id with it
-        for (PlaylistEntry entry : entries) {
-            ContentValues values = new ContentValues();
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID,
-                    playlistId);
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_TRACKNAME,
-                    entry.getQuery().getBasicTrack().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ARTISTNAME,
-                    entry.getQuery().getBasicTrack().getArtist().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ALBUMNAME,
-                    entry.getQuery().getBasicTrack().getAlbum().getName());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_RESULTHINT,
-                    entry.getQuery().getTopTrackResultKey());
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYINDEX,
-                    trackCount);
-            if (entry.getQuery().isFetchedViaHatchet()) {
-                values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET,
-                        TRUE);
-            } else {
-                values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_ISFETCHEDVIAHATCHET,
-                        FALSE);
-            }
-            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYID,
-                    entry.getId());
+        for (ContentValues values : tracks) {
+            values.put(TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTENTRYINDEX, trackCount);
             if (mDatabase.insert(TomahawkSQLiteHelper.TABLE_TRACKS, null, values) != -1) {
                 trackCount++;
             }
@@ -649,11 +877,6 @@ public class DatabaseHelper {
         mDatabase.update(TomahawkSQLiteHelper.TABLE_PLAYLISTS, values,
                 TomahawkSQLiteHelper.PLAYLISTS_COLUMN_ID + " = ?",
                 new String[]{playlistId});
-        mDatabase.setTransactionSuccessful();
-        mDatabase.endTransaction();
-        PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-        event.mPlaylistId = playlistId;
-        EventBus.getDefault().post(event);
     }
 
     /**
@@ -663,6 +886,31 @@ public class DatabaseHelper {
      * @return whether or not the given query is loved
      */
     public boolean isItemLoved(Query query) {
+        String queryTrackName = query.getName();
+        String queryArtistName = query.getArtist().getName();
+        boolean flush = false;
+        synchronized (mPendingWrites) {
+            // The latest uncommitted mutation of the given query decides, so that this doesn't
+            // have to wait for it
+            List<PendingWrite> writes = new ArrayList<>(mWritingWrites);
+            writes.addAll(mPendingWrites);
+            for (int i = writes.size() - 1; i >= 0; i--) {
+                PendingWrite write = writes.get(i);
+                if (write instanceof LovedItemWrite) {
+                    LovedItemWrite lovedItemWrite = (LovedItemWrite) write;
+                    if (lovedItemWrite.isWriteOf(queryTrackName, queryArtistName)) {
+                        return lovedItemWrite.mIsLoved;
+                    }
+                } else if (LOVEDITEMS_PLAYLIST_ID.equals(write.mPlaylistId)) {
+                    // The whole lovedItems Playlist is being rewritten
+                    flush = true;
+                    break;
+                }
+            }
+        }
+        if (flush) {
+            flushPendingWrites(LOVEDITEMS_PLAYLIST_ID);
+        }
         String[] columns = new String[]{TomahawkSQLiteHelper.TRACKS_COLUMN_TRACKNAME,
                 TomahawkSQLiteHelper.TRACKS_COLUMN_ARTISTNAME};
 
@@ -674,8 +922,8 @@ public class DatabaseHelper {
         while (!tracksCursor.isAfterLast()) {
             String trackName = tracksCursor.getString(0);
             String artistName = tracksCursor.getString(1);
-            if (query.getName().equalsIgnoreCase(trackName)
-                    && query.getArtist().getName().equalsIgnoreCase(artistName)) {
+            if (queryTrackName.equalsIgnoreCase(trackName)
+                    && queryArtistName.equalsIgnoreCase(artistName)) {
                 tracksCursor.close();
                 return true;
             }
@@ -691,22 +939,27 @@ public class DatabaseHelper {
      */
     public void setLovedItem(Query query, boolean isLoved) {
         if (isLoved) {
-            ArrayList<Query> queries = new ArrayList<>();
-            queries.add(query);
-            addQueriesToPlaylist(LOVEDITEMS_PLAYLIST_ID, queries);
+            final List<ContentValues> tracks = new ArrayList<>();
+            tracks.add(getTrackValues(LOVEDITEMS_PLAYLIST_ID, query));
+            enqueueWrite(new LovedItemWrite(query, true) {
+                @Override
+                void write() {
+                    appendTracks(LOVEDITEMS_PLAYLIST_ID, tracks);
+                }
+            });
         } else {
-            mDatabase.beginTransaction();
-            mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
-                    TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ? AND "
-                            + TomahawkSQLiteHelper.TRACKS_COLUMN_TRACKNAME + " = ? AND "
-                            + TomahawkSQLiteHelper.TRACKS_COLUMN_ARTISTNAME + " = ?",
-                    new String[]{LOVEDITEMS_PLAYLIST_ID, query.getName(),
-                            query.getArtist().getName()});
-            mDatabase.setTransactionSuccessful();
-            mDatabase.endTransaction();
-            PlaylistsUpdatedEvent event = new PlaylistsUpdatedEvent();
-            event.mPlaylistId = LOVEDITEMS_PLAYLIST_ID;
-            EventBus.getDefault().post(event);
+            final String[] whereArgs = new String[]{LOVEDITEMS_PLAYLIST_ID, query.getName(),
+                    query.getArtist().getName()};
+            enqueueWrite(new LovedItemWrite(query, false) {
+                @Override
+                void write() {
+                    mDatabase.delete(TomahawkSQLiteHelper.TABLE_TRACKS,
+                            TomahawkSQLiteHelper.TRACKS_COLUMN_PLAYLISTID + " = ? AND "
+                                    + TomahawkSQLiteHelper.TRACKS_COLUMN_TRACKNAME + " = ? AND "
+                                    + TomahawkSQLiteHelper.TRACKS_COLUMN_ARTISTNAME + " = ?",
+                            whereArgs);
+                }
+            });
         }
     }
 
@@ -859,6 +1112,122 @@ public class DatabaseHelper {
         return logCount;
     }
 
+    /**
+     * Replace the cached {@link Result}s that the {@link org.tomahawk.libtomahawk.resolver.Resolver}
+     * with the given id has reported for the {@link Query} with the given key. An empty map is
+     * being stored as a single row without a url, so that we also remember that nothing has been
+     * found. The rows are being written behind together with all other pending mutations.
+     *
+     * @param queryKey      the cache key of the resolved {@link Query}
+     * @param resolverId    the id of the {@link org.tomahawk.libtomahawk.resolver.Resolver} that
+     *                      reported the {@link Result}s
+     * @param scoredResults the reported {@link Result}s mapped to their score
+     */
+    public void storeResolvedResults(final String queryKey, final String resolverId,
+            Map<Result, Float> scoredResults) {
+        long timeStamp = System.currentTimeMillis();
+        final List<ContentValues> rows = new ArrayList<>();
+        if (scoredResults.isEmpty()) {
+            ContentValues values = new ContentValues();
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_QUERYKEY, queryKey);
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_RESOLVERID, resolverId);
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TIMESTAMP, timeStamp);
+            rows.add(values);
+        }
+        for (Map.Entry<Result, Float> entry : scoredResults.entrySet()) {
+            Result result = entry.getKey();
+            Track track = result.getTrack();
+            ContentValues values = new ContentValues();
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_QUERYKEY, queryKey);
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_RESOLVERID, resolverId);
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TIMESTAMP, timeStamp);
+            safePut(values, TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_URL, result.getPath());
+            safePut(values, TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TRACKNAME,
+                    track.getName());
+            safePut(values, TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ALBUMNAME,
+                    track.getAlbum().getName());
+            safePut(values, TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ARTISTNAME,
+                    track.getArtist().getName());
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_DURATION,
+                    track.getDuration());
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ALBUMPOS,
+                    track.getAlbumPos());
+            safePut(values, TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_LINKURL,
+                    result.getLinkUrl());
+            safePut(values, TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_PURCHASEURL,
+                    result.getPurchaseUrl());
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_BITRATE,
+                    result.getBitrate());
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_SIZE, result.getSize());
+            values.put(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_SCORE, entry.getValue());
+            rows.add(values);
+        }
+
+        enqueueWrite(new PendingWrite(null) {
+            @Override
+            void write() {
+                mDatabase.delete(TomahawkSQLiteHelper.TABLE_RESOLUTIONCACHE,
+                        TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_QUERYKEY + " = ? AND "
+                                + TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_RESOLVERID
+                                + " = ?",
+                        new String[]{queryKey, resolverId});
+                for (ContentValues values : rows) {
+                    mDatabase.insert(TomahawkSQLiteHelper.TABLE_RESOLUTIONCACHE, null, values);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param queryKeys the keys of the {@link Query}s to look up. SQLite limits the number of
+     *                  bound arguments, so there mustn't be more than a few hundred of them.
+     * @return a {@link Cursor} containing all cached {@link Result}s of the {@link Query}s with the
+     * given keys, ordered by query key and resolver id. The query key is in the last column. Rows
+     * without a url mark that a resolver has found nothing.
+     */
+    public Cursor getResolvedResultsCursor(List<String> queryKeys) {
+        String[] columns = new String[]{TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_RESOLVERID,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TIMESTAMP,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_URL,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TRACKNAME,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ALBUMNAME,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ARTISTNAME,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_DURATION,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ALBUMPOS,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_LINKURL,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_PURCHASEURL,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_BITRATE,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_SIZE,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_SCORE,
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_QUERYKEY};
+        StringBuilder selection = new StringBuilder(
+                TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_QUERYKEY).append(" IN (");
+        for (int i = 0; i < queryKeys.size(); i++) {
+            selection.append(i > 0 ? ", ?" : "?");
+        }
+        selection.append(")");
+        return mDatabase.query(TomahawkSQLiteHelper.TABLE_RESOLUTIONCACHE, columns,
+                selection.toString(), queryKeys.toArray(new String[queryKeys.size()]), null,
+                null, TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_QUERYKEY + ", "
+                        + TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_RESOLVERID);
+    }
+
+    /**
+     * Remove all cached {@link Result}s that have been stored before the given timestamp. The
+     * rows are being removed behind together with all other pending mutations.
+     */
+    public void removeResolvedResults(long olderThan) {
+        final String[] whereArgs = new String[]{String.valueOf(olderThan)};
+        enqueueWrite(new PendingWrite(null) {
+            @Override
+            void write() {
+                mDatabase.delete(TomahawkSQLiteHelper.TABLE_RESOLUTIONCACHE,
+                        TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TIMESTAMP + " < ?",
+                        whereArgs);
+            }
+        });
+    }
+
     private static void safePut(ContentValues values, String key, String value) {
         if (value == null) {
             values.putNull(key);
@@ -901,7 +1270,7 @@ public class DatabaseHelper {
 
     }
 
-    public synchronized HashMap<String, MediaWrapper> getMedias() {
+    public HashMap<String, MediaWrapper> getMedias() {
         Cursor cursor;
         HashMap<String, MediaWrapper> medias = new HashMap<>();
         int chunk_count = 0;
@@ -994,7 +1363,7 @@ public class DatabaseHelper {
         }
     }
 
-    public synchronized boolean isMediaDirComplete(String path) {
+    public boolean isMediaDirComplete(String path) {
         Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIADIRS,
                 new String[]{TomahawkSQLiteHelper.MEDIADIRS_PATH},
                 TomahawkSQLiteHelper.MEDIADIRS_PATH + " LIKE ? || '_%'",
@@ -1004,7 +1373,7 @@ public class DatabaseHelper {
         return !exists;
     }
 
-    public synchronized boolean isMediaDirWhiteListed(String path) {
+    public boolean isMediaDirWhiteListed(String path) {
         Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIADIRS,
                 new String[]{TomahawkSQLiteHelper.MEDIADIRS_PATH},
                 TomahawkSQLiteHelper.MEDIADIRS_PATH + "= ? AND "
@@ -1103,7 +1472,7 @@ public class DatabaseHelper {
         mDatabase.endTransaction();
     }
 
-    public synchronized List<File> getMediaDirs(boolean blacklisted) {
+    public List<File> getMediaDirs(boolean blacklisted) {
         Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIADIRS,
                 new String[]{TomahawkSQLiteHelper.MEDIADIRS_PATH},
                 TomahawkSQLiteHelper.MEDIADIRS_BLACKLISTED + "= ?",
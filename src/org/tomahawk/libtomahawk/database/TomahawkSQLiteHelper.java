@@ -158,11 +158,41 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
     public static final String MEDIADIRS_BLACKLISTED = "blacklisted";
 
 
+    public static final String TABLE_RESOLUTIONCACHE = "resolutioncache";
+
+    public static final String RESOLUTIONCACHE_COLUMN_QUERYKEY = "querykey";
+
+    public static final String RESOLUTIONCACHE_COLUMN_RESOLVERID = "resolverid";
+
+    public static final String RESOLUTIONCACHE_COLUMN_URL = "url";
+
+    public static final String RESOLUTIONCACHE_COLUMN_TRACKNAME = "trackname";
+
+    public static final String RESOLUTIONCACHE_COLUMN_ALBUMNAME = "albumname";
+
+    public static final String RESOLUTIONCACHE_COLUMN_ARTISTNAME = "artistname";
+
+    public static final String RESOLUTIONCACHE_COLUMN_DURATION = "duration";
+
+    public static final String RESOLUTIONCACHE_COLUMN_ALBUMPOS = "albumpos";
+
+    public static final String RESOLUTIONCACHE_COLUMN_LINKURL = "linkurl";
+
+    public static final String RESOLUTIONCACHE_COLUMN_PURCHASEURL = "purchaseurl";
+
+    public static final String RESOLUTIONCACHE_COLUMN_BITRATE = "bitrate";
+
+    public static final String RESOLUTIONCACHE_COLUMN_SIZE = "size";
+
+    public static final String RESOLUTIONCACHE_COLUMN_SCORE = "score";
+
+    public static final String RESOLUTIONCACHE_COLUMN_TIMESTAMP = "timestamp";
+
     public static final String TABLE_ALBUMS = "albums"; //Legacy
 
     private static final String DATABASE_NAME = "userplaylists.db";
 
-    private static final int DATABASE_VERSION = 19;
+    private static final int DATABASE_VERSION = 20;
 
     // Database creation sql statements
     private static final String CREATE_TABLE_PLAYLISTS =
@@ -247,6 +277,29 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
             + MEDIADIRS_BLACKLISTED + " INTEGER "
             + ");";
 
+    private static final String CREATE_TABLE_RESOLUTIONCACHE =
+            "CREATE TABLE `" + TABLE_RESOLUTIONCACHE + "` (  `"
+                    + RESOLUTIONCACHE_COLUMN_QUERYKEY + "` TEXT NOT NULL, `"
+                    + RESOLUTIONCACHE_COLUMN_RESOLVERID + "` TEXT NOT NULL, `"
+                    + RESOLUTIONCACHE_COLUMN_URL + "` TEXT, `"
+                    + RESOLUTIONCACHE_COLUMN_TRACKNAME + "` TEXT, `"
+                    + RESOLUTIONCACHE_COLUMN_ALBUMNAME + "` TEXT, `"
+                    + RESOLUTIONCACHE_COLUMN_ARTISTNAME + "` TEXT, `"
+                    + RESOLUTIONCACHE_COLUMN_DURATION + "` INTEGER, `"
+                    + RESOLUTIONCACHE_COLUMN_ALBUMPOS + "` INTEGER, `"
+                    + RESOLUTIONCACHE_COLUMN_LINKURL + "` TEXT, `"
+                    + RESOLUTIONCACHE_COLUMN_PURCHASEURL + "` TEXT, `"
+                    + RESOLUTIONCACHE_COLUMN_BITRATE + "` INTEGER, `"
+                    + RESOLUTIONCACHE_COLUMN_SIZE + "` INTEGER, `"
+                    + RESOLUTIONCACHE_COLUMN_SCORE + "` REAL, `"
+                    + RESOLUTIONCACHE_COLUMN_TIMESTAMP + "` INTEGER);";
+
+    private static final String CREATE_INDEX_RESOLUTIONCACHE =
+            "CREATE INDEX `" + TABLE_RESOLUTIONCACHE + "_" + RESOLUTIONCACHE_COLUMN_QUERYKEY
+                    + "` ON `" + TABLE_RESOLUTIONCACHE + "` (`"
+                    + RESOLUTIONCACHE_COLUMN_QUERYKEY + "`, `"
+                    + RESOLUTIONCACHE_COLUMN_RESOLVERID + "`);";
+
     public TomahawkSQLiteHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -265,6 +318,8 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
         database.execSQL(CREATE_TABLE_LOVED_ARTISTS);
         database.execSQL(CREATE_TABLE_MEDIA);
         database.execSQL(CREATE_TABLE_MEDIADIRS);
+        database.execSQL(CREATE_TABLE_RESOLUTIONCACHE);
+        database.execSQL(CREATE_INDEX_RESOLUTIONCACHE);
     }
 
     @Override
@@ -282,6 +337,7 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE IF EXISTS `" + TABLE_LOVED_ARTISTS + "`;");
             db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIA + "`;");
             db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIADIRS + "`;");
+            db.execSQL("DROP TABLE IF EXISTS `" + TABLE_RESOLUTIONCACHE + "`;");
             onCreate(db);
         } else {
             if (oldVersion < 13) {
@@ -302,6 +358,10 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
                 db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIA + "`;");
                 db.execSQL(CREATE_TABLE_MEDIA);
             }
+            if (oldVersion < 20) {
+                db.execSQL(CREATE_TABLE_RESOLUTIONCACHE);
+                db.execSQL(CREATE_INDEX_RESOLUTIONCACHE);
+            }
         }
     }
 
@@ -25,6 +25,7 @@ import android.content.Context;
 import android.database.Cursor;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 public class UserCollectionDb extends CollectionDb {
 
@@ -34,33 +35,45 @@ public class UserCollectionDb extends CollectionDb {
         super(context, collectionId);
     }
 
-    public void addArtists(List<Artist> artists, List<Long> lastModifieds) {
-        mDb.beginTransaction();
-        for (int i = 0, artistsSize = artists.size(); i < artistsSize; i++) {
-            Artist artist = artists.get(i);
-            ContentValues values = new ContentValues();
-            values.put(ARTISTS_ARTIST, artist.getName());
-            values.put(ARTISTS_ARTISTDISAMBIGUATION, "");
-            values.put(ARTISTS_TYPE, TYPE_HATCHET_EXPLICIT);
-            long lastModified;
-            if (lastModifieds != null && i < lastModifieds.size()) {
-                lastModified = lastModifieds.get(i);
-            } else {
-                lastModified = Long.MAX_VALUE;
+    public void addArtists(final List<Artist> artists, final List<Long> lastModifieds) {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mDb.beginTransaction();
+                for (int i = 0, artistsSize = artists.size(); i < artistsSize; i++) {
+                    Artist artist = artists.get(i);
+                    ContentValues values = new ContentValues();
+                    values.put(ARTISTS_ARTIST, artist.getName());
+                    values.put(ARTISTS_ARTISTDISAMBIGUATION, "");
+                    values.put(ARTISTS_TYPE, TYPE_HATCHET_EXPLICIT);
+                    long lastModified;
+                    if (lastModifieds != null && i < lastModifieds.size()) {
+                        lastModified = lastModifieds.get(i);
+                    } else {
+                        lastModified = Long.MAX_VALUE;
+                    }
+                    values.put(ARTISTS_LASTMODIFIED, lastModified);
+                    mDb.insert(TABLE_ARTISTS, null, values);
+                }
+                mDb.setTransactionSuccessful();
+                mDb.endTransaction();
+                return null;
             }
-            values.put(ARTISTS_LASTMODIFIED, lastModified);
-            mDb.insert(TABLE_ARTISTS, null, values);
-        }
-        mDb.setTransactionSuccessful();
-        mDb.endTransaction();
+        });
     }
 
-    public void remove(Artist artist) {
-        mDb.beginTransaction();
-        mDb.delete(TABLE_ARTISTS, ARTISTS_ARTIST + " = ? AND " + ARTISTS_TYPE + " = ?",
-                new String[]{artist.getName(), String.valueOf(TYPE_HATCHET_EXPLICIT)});
-        mDb.setTransactionSuccessful();
-        mDb.endTransaction();
+    public void remove(final Artist artist) {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mDb.beginTransaction();
+                mDb.delete(TABLE_ARTISTS, ARTISTS_ARTIST + " = ? AND " + ARTISTS_TYPE + " = ?",
+                        new String[]{artist.getName(), String.valueOf(TYPE_HATCHET_EXPLICIT)});
+                mDb.setTransactionSuccessful();
+                mDb.endTransaction();
+                return null;
+            }
+        });
     }
 
     /**
@@ -79,54 +92,66 @@ public class UserCollectionDb extends CollectionDb {
         return isLoved;
     }
 
-    public void addAlbums(List<Album> albums, List<Long> lastModifieds) {
-        // Add the album's artist as an implicitly loved entry
-        mDb.beginTransaction();
-        for (Album album : albums) {
-            ContentValues values = new ContentValues();
-            values.put(ARTISTS_ARTIST, album.getArtist().getName());
-            values.put(ARTISTS_ARTISTDISAMBIGUATION, "");
-            values.put(ARTISTS_TYPE, TYPE_HATCHET_IMPLICIT);
-            values.put(ARTISTS_LASTMODIFIED, Long.MAX_VALUE);
-            mDb.insert(TABLE_ARTISTS, null, values);
-        }
-        mDb.setTransactionSuccessful();
-        mDb.endTransaction();
+    public void addAlbums(final List<Album> albums, final List<Long> lastModifieds) {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                // Add the album's artist as an implicitly loved entry
+                mDb.beginTransaction();
+                for (Album album : albums) {
+                    ContentValues values = new ContentValues();
+                    values.put(ARTISTS_ARTIST, album.getArtist().getName());
+                    values.put(ARTISTS_ARTISTDISAMBIGUATION, "");
+                    values.put(ARTISTS_TYPE, TYPE_HATCHET_IMPLICIT);
+                    values.put(ARTISTS_LASTMODIFIED, Long.MAX_VALUE);
+                    mDb.insert(TABLE_ARTISTS, null, values);
+                }
+                mDb.setTransactionSuccessful();
+                mDb.endTransaction();
 
-        // Add the album as an explicitly loved entry
-        mDb.beginTransaction();
-        for (int i = 0, albumsSize = albums.size(); i < albumsSize; i++) {
-            Album album = albums.get(i);
-            ContentValues values = new ContentValues();
-            values.put(ALBUMS_ALBUM, album.getName());
-            values.put(ALBUMS_ALBUMARTISTID,
-                    getArtistId(album.getArtist().getName(), TYPE_HATCHET_IMPLICIT));
-            values.put(ALBUMS_TYPE, TYPE_HATCHET_EXPLICIT);
-            long lastModified;
-            if (lastModifieds != null && i < lastModifieds.size()) {
-                lastModified = lastModifieds.get(i);
-            } else {
-                lastModified = Long.MAX_VALUE;
+                // Add the album as an explicitly loved entry
+                mDb.beginTransaction();
+                for (int i = 0, albumsSize = albums.size(); i < albumsSize; i++) {
+                    Album album = albums.get(i);
+                    ContentValues values = new ContentValues();
+                    values.put(ALBUMS_ALBUM, album.getName());
+                    values.put(ALBUMS_ALBUMARTISTID,
+                            getArtistId(album.getArtist().getName(), TYPE_HATCHET_IMPLICIT));
+                    values.put(ALBUMS_TYPE, TYPE_HATCHET_EXPLICIT);
+                    long lastModified;
+                    if (lastModifieds != null && i < lastModifieds.size()) {
+                        lastModified = lastModifieds.get(i);
+                    } else {
+                        lastModified = Long.MAX_VALUE;
+                    }
+                    values.put(ALBUMS_LASTMODIFIED, lastModified);
+                    mDb.insert(TABLE_ALBUMS, null, values);
+                }
+                mDb.setTransactionSuccessful();
+                mDb.endTransaction();
+                return null;
             }
-            values.put(ALBUMS_LASTMODIFIED, lastModified);
-            mDb.insert(TABLE_ALBUMS, null, values);
-        }
-        mDb.setTransactionSuccessful();
-        mDb.endTransaction();
+        });
     }
 
-    public void remove(Album album) {
-        mDb.beginTransaction();
-        int albumArtistId = getArtistId(album.getArtist().getName(), TYPE_HATCHET_IMPLICIT);
-        mDb.delete(TABLE_ARTISTS, ARTISTS_ARTIST + " = ? AND " + ARTISTS_TYPE + " = ?",
-                new String[]{album.getArtist().getName(),
-                        String.valueOf(TYPE_HATCHET_IMPLICIT)});
-        mDb.delete(TABLE_ALBUMS, ALBUMS_ALBUM + " = ? AND " + ALBUMS_ALBUMARTISTID + " = ? AND "
-                        + ALBUMS_TYPE + " = ?",
-                new String[]{album.getName(), String.valueOf(albumArtistId),
-                        String.valueOf(TYPE_HATCHET_EXPLICIT)});
-        mDb.setTransactionSuccessful();
-        mDb.endTransaction();
+    public void remove(final Album album) {
+        write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mDb.beginTransaction();
+                int albumArtistId = getArtistId(album.getArtist().getName(), TYPE_HATCHET_IMPLICIT);
+                mDb.delete(TABLE_ARTISTS, ARTISTS_ARTIST + " = ? AND " + ARTISTS_TYPE + " = ?",
+                        new String[]{album.getArtist().getName(),
+                                String.valueOf(TYPE_HATCHET_IMPLICIT)});
+                mDb.delete(TABLE_ALBUMS, ALBUMS_ALBUM + " = ? AND " + ALBUMS_ALBUMARTISTID
+                                + " = ? AND " + ALBUMS_TYPE + " = ?",
+                        new String[]{album.getName(), String.valueOf(albumArtistId),
+                                String.valueOf(TYPE_HATCHET_EXPLICIT)});
+                mDb.setTransactionSuccessful();
+                mDb.endTransaction();
+                return null;
+            }
+        });
     }
 
     /**
@@ -26,6 +26,7 @@ import org.tomahawk.libtomahawk.collection.Album;
 import org.tomahawk.libtomahawk.collection.AlphaComparable;
 import org.tomahawk.libtomahawk.collection.Artist;
 import org.tomahawk.libtomahawk.collection.Cacheable;
+import org.tomahawk.libtomahawk.collection.CacheableRegistry;
 import org.tomahawk.libtomahawk.collection.Image;
 import org.tomahawk.libtomahawk.collection.Playlist;
 import org.tomahawk.libtomahawk.collection.PlaylistEntry;
@@ -47,6 +48,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class User extends Cacheable implements AlphaComparable {
 
+    static {
+        // Users are few and hold the state of the logged in user, so we never evict them
+        setCapacity(User.class, CacheableRegistry.UNBOUNDED);
+    }
+
     private static User mSelf = new User("self");
 
     static {
@@ -32,59 +32,156 @@ public class Bitap {
     }
 
     /**
-     * Locate the best instance of 'pattern' in 'text' near 'loc' using the Bitap algorithm. Returns
-     * -1 if no match found.
-     *
-     * @param text    The text to search.
-     * @param pattern The pattern to search for.
-     * @return Best match index or -1.
+     * A pattern that has been compiled once and can be matched against any number of texts. The
+     * char to bitmask table is a primitive array and the bit arrays are being reused between runs,
+     * so matching doesn't allocate anything. Instances are not thread-safe.
      */
-    public static Result indexOf(String text, String pattern, int tolerance) {
-        Result result = new Result();
+    public static class Matcher {
 
-        // Is there an exact match? (speedup)
-        int exactIndex = text.indexOf(pattern);
-        if (exactIndex != -1) {
-            result.index = exactIndex;
-            result.errors = 0;
-            return result;
-        }
+        private final String mPattern;
+
+        private final int[] mAsciiMasks = new int[128];
+
+        private final char[] mOtherChars;
 
-        // Initialise the alphabet.
-        Map<Character, Integer> alphabet = initAlphabet(pattern);
+        private final int[] mOtherMasks;
 
-        // Initialise the bit arrays.
-        int matchmask = 1 << (pattern.length() - 1);
+        private int[] mRd = new int[0];
 
-        int[] last_rd = new int[0];
-        for (int d = 0; d <= tolerance; d++) {
+        private int[] mLastRd = new int[0];
 
-            int[] rd = new int[text.length() + pattern.length() + 2];
-            rd[text.length() + pattern.length() + 1] = (1 << d) - 1;
-            for (int j = text.length() + pattern.length(); j > 0; j--) {
-                int charMatch;
-                if (text.length() <= j - 1 || !alphabet.containsKey(text.charAt(j - 1))) {
-                    // Out of range.
-                    charMatch = 0;
+        private int mErrors = -1;
+
+        private Matcher(String pattern) {
+            mPattern = pattern;
+            int otherCount = 0;
+            char[] otherChars = new char[pattern.length()];
+            int[] otherMasks = new int[pattern.length()];
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int mask = 1 << (pattern.length() - i - 1);
+                if (c < mAsciiMasks.length) {
+                    mAsciiMasks[c] |= mask;
                 } else {
-                    charMatch = alphabet.get(text.charAt(j - 1));
+                    int j = 0;
+                    while (j < otherCount && otherChars[j] != c) {
+                        j++;
+                    }
+                    if (j == otherCount) {
+                        otherChars[otherCount++] = c;
+                    }
+                    otherMasks[j] |= mask;
                 }
-                if (d == 0) {
-                    // First pass: exact match.
-                    rd[j] = ((rd[j + 1] << 1) | 1) & charMatch;
-                } else {
-                    // Subsequent passes: fuzzy match.
-                    rd[j] = (((rd[j + 1] << 1) | 1) & charMatch)
-                            | (((last_rd[j + 1] | last_rd[j]) << 1) | 1) | last_rd[j + 1];
+            }
+            mOtherChars = new char[otherCount];
+            mOtherMasks = new int[otherCount];
+            System.arraycopy(otherChars, 0, mOtherChars, 0, otherCount);
+            System.arraycopy(otherMasks, 0, mOtherMasks, 0, otherCount);
+        }
+
+        public String getPattern() {
+            return mPattern;
+        }
+
+        /**
+         * @return the number of errors of the last successful {@link #indexOf} call, -1 if the
+         * pattern hasn't been found
+         */
+        public int getErrors() {
+            return mErrors;
+        }
+
+        /**
+         * Locate the best instance of this pattern in the part of 'text' that starts at
+         * 'fromIndex' using the Bitap algorithm.
+         *
+         * @param text      The text to search.
+         * @param fromIndex The index at which the part of the text to search starts.
+         * @param tolerance The maximum number of errors.
+         * @return Best match index relative to fromIndex or -1.
+         */
+        public int indexOf(String text, int fromIndex, int tolerance) {
+            // Is there an exact match? (speedup)
+            int exactIndex = text.indexOf(mPattern, fromIndex);
+            if (exactIndex != -1) {
+                mErrors = 0;
+                return exactIndex - fromIndex;
+            }
+
+            int textLength = text.length() - fromIndex;
+            int patternLength = mPattern.length();
+            int matchmask = 1 << (patternLength - 1);
+            if (mRd.length < textLength + patternLength + 2) {
+                mRd = new int[textLength + patternLength + 2];
+                mLastRd = new int[textLength + patternLength + 2];
+            }
+            int[] rd = mRd;
+            int[] lastRd = mLastRd;
+            for (int d = 0; d <= tolerance; d++) {
+                rd[textLength + patternLength + 1] = (1 << d) - 1;
+                for (int j = textLength + patternLength; j > 0; j--) {
+                    int charMatch;
+                    if (textLength <= j - 1) {
+                        // Out of range.
+                        charMatch = 0;
+                    } else {
+                        charMatch = getMask(text.charAt(fromIndex + j - 1));
+                    }
+                    if (d == 0) {
+                        // First pass: exact match.
+                        rd[j] = ((rd[j + 1] << 1) | 1) & charMatch;
+                    } else {
+                        // Subsequent passes: fuzzy match.
+                        rd[j] = (((rd[j + 1] << 1) | 1) & charMatch)
+                                | (((lastRd[j + 1] | lastRd[j]) << 1) | 1) | lastRd[j + 1];
+                    }
+                    if ((rd[j] & matchmask) != 0) {
+                        mErrors = d;
+                        return j - 1;
+                    }
                 }
-                if ((rd[j] & matchmask) != 0) {
-                    result.index = j - 1;
-                    result.errors = d;
-                    return result;
+                int[] tmp = lastRd;
+                lastRd = rd;
+                rd = tmp;
+            }
+            mErrors = -1;
+            return -1;
+        }
+
+        private int getMask(char c) {
+            if (c < mAsciiMasks.length) {
+                return mAsciiMasks[c];
+            }
+            for (int i = 0; i < mOtherChars.length; i++) {
+                if (mOtherChars[i] == c) {
+                    return mOtherMasks[i];
                 }
             }
-            last_rd = rd;
+            return 0;
         }
+    }
+
+    /**
+     * Compile the given pattern, so that it can be matched against multiple texts efficiently.
+     * Bitap only supports patterns of up to 32 chars.
+     */
+    public static Matcher compile(String pattern) {
+        return new Matcher(pattern);
+    }
+
+    /**
+     * Locate the best instance of 'pattern' in 'text' near 'loc' using the Bitap algorithm. Returns
+     * -1 if no match found.
+     *
+     * @param text    The text to search.
+     * @param pattern The pattern to search for.
+     * @return Best match index or -1.
+     */
+    public static Result indexOf(String text, String pattern, int tolerance) {
+        Matcher matcher = compile(pattern);
+        Result result = new Result();
+        result.index = matcher.indexOf(text, 0, tolerance);
+        result.errors = matcher.getErrors();
         return result;
     }
 
@@ -17,23 +17,22 @@
  */
 package org.tomahawk.libtomahawk.resolver;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -49,7 +48,17 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class FuzzyIndex {
 
@@ -59,17 +68,61 @@ public class FuzzyIndex {
             TomahawkApp.getContext().getFilesDir().getAbsolutePath() + File.separator + "lucene"
                     + File.separator;
 
-    private static final String LAST_FUZZY_INDEX_UPDATE_SUFFIX = "_last_fuzzy_index_update";
+    private static final String LAST_FUZZY_INDEX_UPDATE_SUFFIX = "_last_fuzzy_index_update_v3";
+
+    private static final String LAST_INDEXED_TRACK_ID_SUFFIX = "_last_indexed_track_id";
+
+    // The amount of documents after which added tracks are being made searchable
+    private static final int REFRESH_BATCH_SIZE = 1000;
+
+    private static final long REFRESH_DELAY_MS = 200;
+
+    private static final ScheduledExecutorService sRefreshExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private static final String FIELD_ID = "id";
+
+    private static final String FIELD_ARTIST = "artist";
+
+    private static final String FIELD_ALBUM = "album";
+
+    private static final String FIELD_TRACK = "track";
+
+    private static final String FIELD_FULLTEXT = "fulltext";
+
+    private static final float EXACT_TERM_BOOST = 4f;
+
+    private static final float PREFIX_TERM_BOOST = 2f;
+
+    private static final String[] INDEX_FIELDS = new String[]{
+            CollectionDb.TABLE_TRACKS + "." + CollectionDb.ID, CollectionDb.ARTISTS_ARTIST,
+            CollectionDb.ALBUMS_ALBUM, CollectionDb.TRACKS_TRACK};
 
     private final String mLastUpdateStorageKey;
 
+    private final String mLastIndexedTrackIdStorageKey;
+
     private String mCollectionId;
 
     private String mLucenePath;
 
-    private IndexWriter mLuceneWriter;
+    private final FuzzyIndexAnalyzer mAnalyzer = new FuzzyIndexAnalyzer();
+
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+
+    private volatile IndexWriter mLuceneWriter;
 
-    private SearcherManager mSearcherManager;
+    private volatile SearcherManager mSearcherManager;
+
+    private boolean mIndexExisted;
+
+    private final AtomicBoolean mRefreshScheduled = new AtomicBoolean(false);
+
+    private final AtomicLong mSearchCount = new AtomicLong();
+
+    private final AtomicLong mSearchWaitNanos = new AtomicLong();
+
+    private final AtomicLong mWriteWaitNanos = new AtomicLong();
 
     public static class IndexResult {
 
@@ -81,176 +134,357 @@ public class FuzzyIndex {
     public FuzzyIndex(String collectionId) {
         mCollectionId = collectionId;
         mLucenePath = LUCENE_ROOT_FOLDER + collectionId;
+        mLastUpdateStorageKey = mCollectionId + LAST_FUZZY_INDEX_UPDATE_SUFFIX;
+        mLastIndexedTrackIdStorageKey = mCollectionId + LAST_INDEXED_TRACK_ID_SUFFIX;
 
-        CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(mCollectionId);
+        if (open()) {
+            update();
+        }
+    }
 
-        mLastUpdateStorageKey = mCollectionId + LAST_FUZZY_INDEX_UPDATE_SUFFIX;
-        SharedPreferences preferences =
-                PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
-        long lastDbUpdate = collectionDb.getLastUpdated();
-        long lastIndexUpdate = preferences.getLong(mLastUpdateStorageKey, -2);
-        create(lastDbUpdate > lastIndexUpdate);
+    /**
+     * Opens the IndexWriter and the near-real-time SearcherManager on top of it. Both are being
+     * kept open for the whole lifetime of this FuzzyIndex and are reopened after a failed update.
+     *
+     * @return whether or not the index could be opened
+     */
+    private boolean open() {
+        Log.d(TAG, "open");
+        lockForWriting();
+        try {
+            Directory dir = FSDirectory.open(new File(mLucenePath));
+            mIndexExisted = DirectoryReader.indexExists(dir);
+            IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_47, mAnalyzer);
+            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            mLuceneWriter = new IndexWriter(dir, iwc);
+            mSearcherManager = new SearcherManager(mLuceneWriter, true, new SearcherFactory());
+        } catch (IOException e) {
+            Log.e(TAG, "open - " + e.getClass() + ": " + e.getLocalizedMessage());
+            close();
+            return false;
+        } finally {
+            mWriteLock.unlock();
+        }
+        return true;
     }
 
     /**
-     * Tries to create a new fuzzy index
+     * Brings the fuzzy index up to date with the {@link CollectionDb}. Only the tracks that have
+     * been added or removed since the last indexed revision are being written to or deleted from
+     * the index. The index is only rebuilt from scratch if the delta can't be determined, e.g.
+     * because the collection has been wiped or because there's no usable revision information.
+     * The search and write lock wait times accumulated so far are being logged on every update.
      *
-     * @param recreate whether or not to wipe any previously existing index
+     * @return whether or not the update has been successful
+     */
+    public boolean update() {
+        lockForWriting();
+        try {
+            Log.d(TAG, "update - searches: " + mSearchCount.get() + ", search wait: "
+                    + TimeUnit.NANOSECONDS.toMillis(mSearchWaitNanos.get()) + "ms, write wait: "
+                    + TimeUnit.NANOSECONDS.toMillis(mWriteWaitNanos.get()) + "ms");
+            if (mLuceneWriter == null && !open()) {
+                // A previous failure has closed the index, so try to reopen it first
+                Log.e(TAG, "update - index could not be opened");
+                return false;
+            }
+            CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(mCollectionId);
+            SharedPreferences preferences =
+                    PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
+            long lastDbUpdate = collectionDb.getLastUpdated();
+            long lastIndexUpdate = preferences.getLong(mLastUpdateStorageKey, -2);
+            int lastIndexedTrackId = preferences.getInt(mLastIndexedTrackIdStorageKey, -1);
+            boolean recreate = !mIndexExisted || lastDbUpdate < 0 || lastIndexUpdate < 0
+                    || lastIndexedTrackId < 0 || collectionDb.wipedSince(lastIndexUpdate);
+            if (!recreate && lastDbUpdate <= lastIndexUpdate) {
+                Log.d(TAG, "update - index is up to date");
+                return true;
+            }
+            return create(recreate, lastIndexedTrackId, lastIndexUpdate, lastDbUpdate);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Tries to create a new fuzzy index or to add the missing tracks to the existing one. Searches
+     * keep using the previously opened reader until all tracks have been written. When adding to an
+     * existing index, the added tracks become searchable in the background every {@link
+     * #REFRESH_BATCH_SIZE} documents.
+     *
+     * @param recreate           whether or not to wipe any previously existing index
+     * @param lastIndexedTrackId the id of the last track that has been added to the existing index.
+     *                           Only used if recreate is false.
+     * @param lastIndexUpdate    the timestamp of the CollectionDb revision that has been indexed
+     *                           last. Tracks that have been removed since then are being deleted
+     *                           from the existing index. Only used if recreate is false.
+     * @param dbRevision         the timestamp of the CollectionDb revision that is being indexed
      * @return whether or not the creation has been successful
      */
-    public synchronized boolean create(boolean recreate) {
+    private boolean create(boolean recreate, int lastIndexedTrackId, long lastIndexUpdate,
+            long dbRevision) {
         CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(mCollectionId);
-        String[] fields = new String[]{CollectionDb.TABLE_TRACKS + "." + CollectionDb.ID,
-                CollectionDb.ARTISTS_ARTIST, CollectionDb.ALBUMS_ALBUM, CollectionDb.TRACKS_TRACK};
-        Cursor cursor = collectionDb.tracks(null, null, fields);
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
+        Cursor cursor;
+        if (recreate) {
+            cursor = collectionDb.tracks(null, null, INDEX_FIELDS);
+        } else {
+            cursor = collectionDb.tracksAddedAfter(lastIndexedTrackId, INDEX_FIELDS);
+        }
+        int maxTrackId = recreate ? 0 : lastIndexedTrackId;
         try {
             Log.d(TAG, "create - recreate:" + recreate);
-            beginIndexing(recreate);
             if (recreate) {
-                Log.d(TAG, "Adding tracks to index - count: " + cursor.getCount());
-                cursor.moveToFirst();
-                if (!cursor.isAfterLast()) {
-                    do {
-                        Document document = new Document();
-                        document.add(new IntField("id", cursor.getInt(0),
-                                Field.Store.YES));
-                        document.add(new StringField("artist", cursor.getString(1),
-                                Field.Store.YES));
-                        document.add(new StringField("album", cursor.getString(2),
-                                Field.Store.YES));
-                        document.add(new StringField("track", cursor.getString(3),
-                                Field.Store.YES));
-                        mLuceneWriter.addDocument(document);
-                    } while (cursor.moveToNext());
+                preferences.edit().putLong(mLastUpdateStorageKey, -2).commit();
+                mLuceneWriter.deleteAll();
+            } else {
+                List<Integer> removedTrackIds = collectionDb.tracksRemovedSince(lastIndexUpdate);
+                Log.d(TAG, "Removing tracks from index - count: " + removedTrackIds.size());
+                for (Integer trackId : removedTrackIds) {
+                    mLuceneWriter.deleteDocuments(new Term(FIELD_ID, String.valueOf(trackId)));
                 }
-                SharedPreferences preferences =
-                        PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
-                preferences.edit().putLong(mLastUpdateStorageKey, System.currentTimeMillis())
-                        .commit();
             }
+            Log.d(TAG, "Adding tracks to index - count: " + cursor.getCount());
+            int count = 0;
+            cursor.moveToFirst();
+            if (!cursor.isAfterLast()) {
+                do {
+                    int trackId = cursor.getInt(0);
+                    String id = String.valueOf(trackId);
+                    Document document = buildDocument(id, cursor.getString(1),
+                            cursor.getString(2), cursor.getString(3));
+                    mLuceneWriter.updateDocument(new Term(FIELD_ID, id), document);
+                    maxTrackId = Math.max(maxTrackId, trackId);
+                    if (!recreate && ++count % REFRESH_BATCH_SIZE == 0) {
+                        scheduleRefresh();
+                    }
+                } while (cursor.moveToNext());
+            }
+            mSearcherManager.maybeRefreshBlocking();
+            mLuceneWriter.commit();
+            preferences.edit()
+                    .putLong(mLastUpdateStorageKey, dbRevision)
+                    .putInt(mLastIndexedTrackIdStorageKey, maxTrackId)
+                    .commit();
+            mIndexExisted = true;
         } catch (IOException e) {
             Log.e(TAG, "create - " + e.getClass() + ": " + e.getLocalizedMessage());
+            try {
+                mLuceneWriter.rollback();
+            } catch (IOException e1) {
+                Log.e(TAG, "create - " + e1.getClass() + ": " + e1.getLocalizedMessage());
+            }
+            // The rollback has closed the writer. Reopen the index at its last commit, so that it
+            // can still be searched and the next update can try again.
             close();
+            open();
             return false;
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
-            endIndexing();
-            updateSearcherManager();
         }
         return true;
     }
 
-    private void updateSearcherManager() {
-        Log.d(TAG, "updateSearcherManager");
-        try {
-            if (mSearcherManager != null) {
-                mSearcherManager.close();
-            }
-            File indexDirFile = new File(mLucenePath);
-            Directory dir = FSDirectory.open(indexDirFile);
-            mSearcherManager = new SearcherManager(dir, new SearcherFactory());
-        } catch (IOException e) {
-            Log.e(TAG, "updateSearcherManager - " + e.getClass() + ": " + e.getLocalizedMessage());
+    /**
+     * Schedules a refresh of the SearcherManager on the background refresh thread, so that recently
+     * added documents become searchable without blocking the thread that's writing to the index.
+     * Multiple calls before the refresh has been executed are being coalesced into one refresh.
+     */
+    private void scheduleRefresh() {
+        if (mRefreshScheduled.compareAndSet(false, true)) {
+            sRefreshExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mRefreshScheduled.set(false);
+                    SearcherManager searcherManager = mSearcherManager;
+                    if (searcherManager != null) {
+                        try {
+                            searcherManager.maybeRefresh();
+                        } catch (IOException e) {
+                            Log.e(TAG, "scheduleRefresh - " + e.getClass() + ": "
+                                    + e.getLocalizedMessage());
+                        } catch (AlreadyClosedException e) {
+                            Log.d(TAG, "scheduleRefresh - index has already been closed");
+                        }
+                    }
+                }
+            }, REFRESH_DELAY_MS, TimeUnit.MILLISECONDS);
         }
     }
 
     public void close() {
         Log.d(TAG, "close");
-        endIndexing();
-        if (mSearcherManager != null) {
-            try {
-                mSearcherManager.close();
-            } catch (IOException e) {
-                Log.e(TAG, "close - " + e.getClass() + ": " + e.getLocalizedMessage());
+        lockForWriting();
+        try {
+            if (mSearcherManager != null) {
+                try {
+                    mSearcherManager.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "close - " + e.getClass() + ": " + e.getLocalizedMessage());
+                }
+                mSearcherManager = null;
+            }
+            if (mLuceneWriter != null) {
+                try {
+                    mLuceneWriter.close(true);
+                } catch (IOException e) {
+                    Log.e(TAG, "close - " + e.getClass() + ": " + e.getLocalizedMessage());
+                }
+                mLuceneWriter = null;
             }
-            mSearcherManager = null;
+        } finally {
+            mWriteLock.unlock();
         }
     }
 
-    public synchronized List<IndexResult> searchIndex(Query query) {
-        List<IndexResult> indexResults = new ArrayList<>();
+    /**
+     * Searches the index for the given {@link Query}. This method doesn't take any lock. Lucene's
+     * IndexSearcher is thread-safe, so any number of searches can run concurrently, even while the
+     * index is being updated.
+     */
+    public List<IndexResult> searchIndex(Query query) {
+        return searchIndex(Collections.singletonList(query)).get(query);
+    }
+
+    /**
+     * Searches the index for all of the given {@link Query}s with one acquired IndexSearcher. Like
+     * {@link #searchIndex(Query)} this method doesn't take any lock.
+     *
+     * @return a Map containing the list of {@link IndexResult}s for every given {@link Query}
+     */
+    public Map<Query, List<IndexResult>> searchIndex(Collection<Query> queries) {
+        Map<Query, List<IndexResult>> indexResultsMap = new HashMap<>();
+        for (Query query : queries) {
+            indexResultsMap.put(query, new ArrayList<IndexResult>());
+        }
+        SearcherManager searcherManager = mSearcherManager;
+        if (searcherManager == null) {
+            Log.e(TAG, "searchIndex - index has not been opened");
+            return indexResultsMap;
+        }
+        long waitTime = System.nanoTime();
+        IndexSearcher searcher;
+        try {
+            searcher = searcherManager.acquire();
+        } catch (AlreadyClosedException e) {
+            Log.e(TAG, "searchIndex - index has already been closed");
+            return indexResultsMap;
+        }
+        mSearchWaitNanos.addAndGet(System.nanoTime() - waitTime);
+        mSearchCount.addAndGet(queries.size());
         try {
-            BooleanQuery qry = new BooleanQuery();
-            if (query.isFullTextQuery()) {
-                String escapedQuery = MultiFieldQueryParser.escape(query.getFullTextQuery());
-                Term term = new Term("track", escapedQuery);
-                org.apache.lucene.search.Query fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.SHOULD);
-                term = new Term("artist", escapedQuery);
-                fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.SHOULD);
-                term = new Term("fulltext", escapedQuery);
-                fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.SHOULD);
-                Log.d(TAG, "searchIndex - fulltext: " + escapedQuery);
-            } else {
-                String escapedTrackName = MultiFieldQueryParser
-                        .escape(query.getBasicTrack().getName());
-                String escapedArtistName = MultiFieldQueryParser
-                        .escape(query.getArtist().getName());
-                Term term = new Term("track", escapedTrackName);
-                org.apache.lucene.search.Query fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.MUST);
-                term = new Term("artist", escapedArtistName);
-                fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.MUST);
-                Log.d(TAG, "searchIndex - non-fulltext: " + escapedArtistName + ", "
-                        + escapedTrackName);
-            }
-            IndexSearcher searcher = mSearcherManager.acquire();
             long time = System.currentTimeMillis();
-            ScoreDoc[] hits = searcher.search(qry, 50).scoreDocs;
-            Log.d(TAG,
-                    "searchIndex - searching took " + (System.currentTimeMillis() - time) + "ms");
-            for (ScoreDoc doc : hits) {
-                Document document = searcher.doc(doc.doc);
-                IndexResult indexResult = new IndexResult();
-                indexResult.id = document.getField("id").numericValue().intValue();
-                indexResult.score = doc.score;
-                indexResults.add(indexResult);
+            for (Query query : queries) {
+                BooleanQuery qry = buildQuery(query);
+                if (qry.clauses().size() == 0) {
+                    continue;
+                }
+                List<IndexResult> indexResults = indexResultsMap.get(query);
+                ScoreDoc[] hits = searcher.search(qry, 50).scoreDocs;
+                for (ScoreDoc doc : hits) {
+                    Document document = searcher.doc(doc.doc);
+                    IndexResult indexResult = new IndexResult();
+                    indexResult.id = Integer.parseInt(document.get(FIELD_ID));
+                    indexResult.score = doc.score;
+                    indexResults.add(indexResult);
+                }
             }
-            mSearcherManager.release(searcher);
+            Log.d(TAG, "searchIndex - searching for " + queries.size() + " queries took "
+                    + (System.currentTimeMillis() - time) + "ms");
         } catch (IOException e) {
             Log.e(TAG, "searchIndex - " + e.getClass() + ": " + e.getLocalizedMessage());
+        } finally {
+            try {
+                searcherManager.release(searcher);
+            } catch (IOException e) {
+                Log.e(TAG, "searchIndex - " + e.getClass() + ": " + e.getLocalizedMessage());
+            }
         }
-        return indexResults;
+        return indexResultsMap;
     }
 
-    /**
-     * Initializes the IndexWriter to be able to add entries to the index.
-     *
-     * @param recreate whether or not to wipe any previously existing index
-     */
-    private void beginIndexing(boolean recreate) throws IOException {
-        Log.d(TAG, "beginIndexing - recreate: " + recreate);
-        endIndexing();
-        File indexDirFile = new File(mLucenePath);
-        Directory dir = FSDirectory.open(indexDirFile);
-        Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_47);
-        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_47, analyzer);
-        if (recreate) {
-            SharedPreferences preferences =
-                    PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
-            preferences.edit().putLong(mLastUpdateStorageKey, -2).commit();
-            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    private BooleanQuery buildQuery(Query query) {
+        BooleanQuery qry;
+        if (query.isFullTextQuery()) {
+            qry = buildFieldQuery(FIELD_FULLTEXT, query.getFullTextQuery(), true);
+            Log.d(TAG, "searchIndex - fulltext: " + query.getFullTextQuery());
         } else {
-            iwc.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+            String trackName = query.getBasicTrack().getName();
+            String artistName = query.getArtist().getName();
+            qry = new BooleanQuery();
+            BooleanQuery trackQuery = buildFieldQuery(FIELD_TRACK, trackName, false);
+            if (trackQuery.clauses().size() > 0) {
+                qry.add(trackQuery, BooleanClause.Occur.MUST);
+            }
+            BooleanQuery artistQuery = buildFieldQuery(FIELD_ARTIST, artistName, false);
+            if (artistQuery.clauses().size() > 0) {
+                qry.add(artistQuery, BooleanClause.Occur.MUST);
+            }
+            Log.d(TAG, "searchIndex - non-fulltext: " + artistName + ", " + trackName);
         }
-        mLuceneWriter = new IndexWriter(dir, iwc);
+        return qry;
     }
 
-    private void endIndexing() {
-        Log.d(TAG, "endIndexing");
-        if (mLuceneWriter != null) {
-            try {
-                mLuceneWriter.commit();
-                mLuceneWriter.close(true);
-                mLuceneWriter = null;
-            } catch (IOException e) {
-                Log.e(TAG, "endIndexing - " + e.getClass() + ": " + e.getLocalizedMessage());
+    private Document buildDocument(String id, String artist, String album, String track) {
+        Document document = new Document();
+        document.add(new StringField(FIELD_ID, id, Field.Store.YES));
+        document.add(new TextField(FIELD_ARTIST, artist, Field.Store.YES));
+        document.add(new TextField(FIELD_ARTIST + FuzzyIndexAnalyzer.NGRAM_SUFFIX, artist,
+                Field.Store.NO));
+        document.add(new TextField(FIELD_ALBUM, album, Field.Store.YES));
+        document.add(new TextField(FIELD_TRACK, track, Field.Store.YES));
+        document.add(new TextField(FIELD_TRACK + FuzzyIndexAnalyzer.NGRAM_SUFFIX, track,
+                Field.Store.NO));
+        // Every value is added separately so that the leading article of each one is removed
+        for (String value : new String[]{artist, album, track}) {
+            document.add(new TextField(FIELD_FULLTEXT, value, Field.Store.NO));
+            document.add(new TextField(FIELD_FULLTEXT + FuzzyIndexAnalyzer.NGRAM_SUFFIX, value,
+                    Field.Store.NO));
+            document.add(new TextField(FIELD_FULLTEXT + FuzzyIndexAnalyzer.EDGE_SUFFIX, value,
+                    Field.Store.NO));
+        }
+        return document;
+    }
+
+    /**
+     * Builds a query that only consists of term lookups. Exact matches of the analyzed words score
+     * highest. Matching trigrams make the query tolerant to typos. If matchPrefixes is true,
+     * partially typed words are being matched via the edge n-gram field as well.
+     */
+    private BooleanQuery buildFieldQuery(String field, String text, boolean matchPrefixes) {
+        BooleanQuery fieldQuery = new BooleanQuery();
+        List<String> terms = mAnalyzer.analyze(field, text);
+        for (String term : terms) {
+            TermQuery termQuery = new TermQuery(new Term(field, term));
+            termQuery.setBoost(EXACT_TERM_BOOST);
+            fieldQuery.add(termQuery, BooleanClause.Occur.SHOULD);
+            if (matchPrefixes) {
+                termQuery = new TermQuery(
+                        new Term(field + FuzzyIndexAnalyzer.EDGE_SUFFIX, term));
+                termQuery.setBoost(PREFIX_TERM_BOOST);
+                fieldQuery.add(termQuery, BooleanClause.Occur.SHOULD);
+            }
+        }
+        if (terms.size() > 0) {
+            String ngramField = field + FuzzyIndexAnalyzer.NGRAM_SUFFIX;
+            for (String ngram : mAnalyzer.analyze(ngramField, text)) {
+                fieldQuery.add(new TermQuery(new Term(ngramField, ngram)),
+                        BooleanClause.Occur.SHOULD);
             }
         }
+        return fieldQuery;
+    }
+
+    /**
+     * Acquires the lock that makes sure that only one thread at a time is writing to or closing
+     * the index. Searches never take this lock.
+     */
+    private void lockForWriting() {
+        long time = System.nanoTime();
+        mWriteLock.lock();
+        mWriteWaitNanos.addAndGet(System.nanoTime() - time);
     }
 }
@@ -0,0 +1,148 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.resolver;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.ngram.NGramTokenFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.Version;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link Analyzer} used by the {@link FuzzyIndex}. Every value is tokenized, lowercased and
+ * folded to ASCII. A leading article is removed the same way {@link ResultScoring#cleanUpString}
+ * does. Fields ending with {@link #NGRAM_SUFFIX} additionally split every token into trigrams to
+ * tolerate typos, fields ending with {@link #EDGE_SUFFIX} into prefixes to match partially typed
+ * words.
+ */
+public class FuzzyIndexAnalyzer extends Analyzer {
+
+    private final static String TAG = FuzzyIndexAnalyzer.class.getSimpleName();
+
+    public static final String NGRAM_SUFFIX = "_ngram";
+
+    public static final String EDGE_SUFFIX = "_edge";
+
+    private static final int NGRAM_SIZE = 3;
+
+    private static final int EDGE_MIN_SIZE = 2;
+
+    private static final int EDGE_MAX_SIZE = 15;
+
+    private static final String ARTICLE = "the";
+
+    public FuzzyIndexAnalyzer() {
+        super(PER_FIELD_REUSE_STRATEGY);
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+        Tokenizer source = new StandardTokenizer(Version.LUCENE_47, reader);
+        TokenStream result = new LowerCaseFilter(Version.LUCENE_47, source);
+        result = new ASCIIFoldingFilter(result);
+        result = new LeadingArticleFilter(result);
+        if (fieldName.endsWith(NGRAM_SUFFIX)) {
+            result = new NGramTokenFilter(Version.LUCENE_47, result, NGRAM_SIZE, NGRAM_SIZE);
+        } else if (fieldName.endsWith(EDGE_SUFFIX)) {
+            result = new EdgeNGramTokenFilter(Version.LUCENE_47, result, EDGE_MIN_SIZE,
+                    EDGE_MAX_SIZE);
+        }
+        return new TokenStreamComponents(source, result);
+    }
+
+    /**
+     * Runs the given text through the analyzer chain of the given field.
+     *
+     * @return the resulting terms
+     */
+    public List<String> analyze(String fieldName, String text) {
+        List<String> terms = new ArrayList<>();
+        TokenStream stream = null;
+        try {
+            stream = tokenStream(fieldName, text);
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(termAttribute.toString());
+            }
+            stream.end();
+        } catch (IOException e) {
+            Log.e(TAG, "analyze - " + e.getClass() + ": " + e.getLocalizedMessage());
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "analyze - " + e.getClass() + ": " + e.getLocalizedMessage());
+                }
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Removes the first token if it is the article "the" and followed by at least one other token.
+     */
+    private static final class LeadingArticleFilter extends TokenFilter {
+
+        private final CharTermAttribute mTermAttribute = addAttribute(CharTermAttribute.class);
+
+        private boolean mFirstToken = true;
+
+        public LeadingArticleFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            if (mFirstToken) {
+                mFirstToken = false;
+                if (ARTICLE.contentEquals(mTermAttribute)) {
+                    State article = captureState();
+                    if (!input.incrementToken()) {
+                        // The article is the only token, so we keep it
+                        restoreState(article);
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            mFirstToken = true;
+        }
+    }
+}
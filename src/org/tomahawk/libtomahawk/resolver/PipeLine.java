@@ -22,6 +22,7 @@ import org.tomahawk.libtomahawk.collection.CollectionManager;
 import org.tomahawk.libtomahawk.collection.DbCollection;
 import org.tomahawk.libtomahawk.resolver.models.ScriptResolverUrlResult;
 import org.tomahawk.tomahawk_android.TomahawkApp;
+import org.tomahawk.tomahawk_android.utils.QueryBatchRunnable;
 import org.tomahawk.tomahawk_android.utils.ThreadManager;
 import org.tomahawk.tomahawk_android.utils.TomahawkRunnable;
 
@@ -32,7 +33,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -61,6 +65,11 @@ public class PipeLine {
 
     private static final float FULLTEXT_MINSCORE = 0f;
 
+    /**
+     * Returned by {@link #getConfidentWeight(Query)} if there's no confident {@link Result} yet
+     */
+    private static final int NOT_CONFIDENT = -1;
+
     private static class Holder {
 
         private static final PipeLine instance = new PipeLine();
@@ -99,8 +108,10 @@ public class PipeLine {
     private final Set<String> mWaitingUrlLookups =
             Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    private final Set<Query> mWaitingQueries = Collections
-            .newSetFromMap(new ConcurrentHashMap<Query, Boolean>());
+    /**
+     * The queries that are waiting for all plugins to be loaded, mapped to their priority
+     */
+    private final Map<Query, Integer> mWaitingQueries = new ConcurrentHashMap<>();
 
     private final Set<ScriptAccount> mLoadingPlugins = Collections
             .newSetFromMap(new ConcurrentHashMap<ScriptAccount, Boolean>());
@@ -157,10 +168,19 @@ public class PipeLine {
             Log.d(TAG, "All plugins loaded. All resolvers initialized. Resolving "
                     + mWaitingQueries.size() + " waiting queries. Looking up "
                     + mWaitingUrlLookups.size() + " waiting URLs.");
-            for (Query query : mWaitingQueries) {
-                resolve(query);
+            Map<Integer, Set<Query>> queriesByPriority = new HashMap<>();
+            for (Map.Entry<Query, Integer> entry : mWaitingQueries.entrySet()) {
+                Set<Query> queries = queriesByPriority.get(entry.getValue());
+                if (queries == null) {
+                    queries = new HashSet<>();
+                    queriesByPriority.put(entry.getValue(), queries);
+                }
+                queries.add(entry.getKey());
             }
             mWaitingQueries.clear();
+            for (Map.Entry<Integer, Set<Query>> entry : queriesByPriority.entrySet()) {
+                resolve(entry.getValue(), false, entry.getKey());
+            }
             for (String url : mWaitingUrlLookups) {
                 lookupUrl(url);
             }
@@ -242,22 +262,26 @@ public class PipeLine {
     /**
      * This will invoke every {@link Resolver} to resolve the given {@link Query}.
      */
-    public Query resolve(final Query q, final boolean forceOnlyLocal) {
+    public Query resolve(Query q, boolean forceOnlyLocal) {
+        return resolve(q, forceOnlyLocal, ResolverScheduler.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * This will invoke every {@link Resolver} to resolve the given {@link Query}.
+     *
+     * @param priority the priority with which the {@link ScriptResolver}s resolve the {@link
+     *                 Query} (see {@link ResolverScheduler})
+     */
+    public Query resolve(final Query q, final boolean forceOnlyLocal, final int priority) {
         final TomahawkRunnable r = new TomahawkRunnable(TomahawkRunnable.PRIORITY_IS_RESOLVING) {
             @Override
             public void run() {
-                if (!mLoadingPlugins.isEmpty() || !mInitializingResolvers.isEmpty()) {
-                    mWaitingQueries.add(q);
-                } else {
-                    for (Resolver resolver : mResolvers) {
-                        if (shouldResolve(resolver, q, forceOnlyLocal)) {
-                            resolver.resolve(q);
-                        }
-                    }
-                }
+                Set<String> cachedSourceIds = applyCachedResults(q);
+                resolveWithResolvers(q, forceOnlyLocal, cachedSourceIds, priority);
                 if (!forceOnlyLocal && !q.isOnlyLocal()) {
                     for (Collection collection : CollectionManager.get().getCollections()) {
-                        if (collection instanceof DbCollection) {
+                        if (collection instanceof DbCollection && !cachedSourceIds.contains(
+                                ResolutionCache.getCollectionSourceId(collection.getId()))) {
                             ((DbCollection) collection).resolve(q);
                         }
                     }
@@ -268,6 +292,108 @@ public class PipeLine {
         return q;
     }
 
+    /**
+     * Adds the still valid {@link Result}s of the {@link ResolutionCache} to the given {@link
+     * Query} and reports them.
+     *
+     * @return the ids of all sources that don't have to resolve the given {@link Query} again
+     */
+    private Set<String> applyCachedResults(Query q) {
+        return applyCachedResults(Collections.singletonList(q)).get(q);
+    }
+
+    /**
+     * Adds the still valid {@link Result}s of the {@link ResolutionCache} to the given {@link
+     * Query}s with one lookup and reports them.
+     *
+     * @return the ids of all sources that don't have to resolve a {@link Query} again mapped to
+     * the {@link Query}
+     */
+    private Map<Query, Set<String>> applyCachedResults(List<Query> queries) {
+        Map<Query, Set<String>> cachedSourceIds =
+                ResolutionCache.get().applyCachedResults(queries);
+        for (Map.Entry<Query, Set<String>> entry : cachedSourceIds.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                ResultsEvent event = new ResultsEvent();
+                event.mQuery = entry.getKey();
+                EventBus.getDefault().post(event);
+            }
+        }
+        return cachedSourceIds;
+    }
+
+    /**
+     * Invokes every {@link Resolver} that should resolve the given {@link Query} and whose {@link
+     * Result}s haven't been served from the {@link ResolutionCache}. {@link ScriptResolver}s are
+     * being invoked through the {@link ResolverScheduler}. If not all plugins are loaded and
+     * initialized yet, the {@link Query} is being put into the waiting queue.
+     */
+    private void resolveWithResolvers(Query q, boolean forceOnlyLocal,
+            Set<String> cachedSourceIds, int priority) {
+        if (!mLoadingPlugins.isEmpty() || !mInitializingResolvers.isEmpty()) {
+            Integer waitingPriority = mWaitingQueries.get(q);
+            if (waitingPriority == null || waitingPriority < priority) {
+                mWaitingQueries.put(q, priority);
+            }
+        } else {
+            int confidentWeight = getConfidentWeight(q);
+            for (Resolver resolver : mResolvers) {
+                if (!cachedSourceIds.contains(resolver.getId())
+                        && shouldResolve(resolver, q, forceOnlyLocal)) {
+                    if (resolver instanceof ScriptResolver) {
+                        if (resolver.getWeight() < confidentWeight) {
+                            // The cached Results already contain one that it can't beat
+                            continue;
+                        }
+                        ResolverScheduler.get().schedule((ScriptResolver) resolver, q, priority);
+                    } else {
+                        resolver.resolve(q);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the weight below which {@link Resolver}s can't outrank the preferred {@link Result}
+     * of the given {@link Query} anymore, because it already has a confident score. Local {@link
+     * Result}s can only be outranked by other local {@link Result}s. {@link #NOT_CONFIDENT} if
+     * there's no such {@link Result}.
+     */
+    private int getConfidentWeight(Query q) {
+        if (q.isFullTextQuery()) {
+            // All Results of a fulltext query are being shown, so none of them is enough
+            return NOT_CONFIDENT;
+        }
+        Result result = q.getPreferredTrackResult();
+        if (result == null || q.getTrackResultScore(result) < ResultScoring.CONFIDENT_SCORE) {
+            return NOT_CONFIDENT;
+        }
+        return getConfidenceWeight(result);
+    }
+
+    private static int getConfidenceWeight(Result result) {
+        if (result.isLocal()) {
+            return Integer.MAX_VALUE;
+        }
+        return result.getResolvedBy() != null ? result.getResolvedBy().getWeight() : 0;
+    }
+
+    /**
+     * Cancels the resolving of the given {@link Query} by all {@link ScriptResolver}s, e.g.
+     * because it isn't being shown anymore. The {@link Query} keeps being resolved if it has been
+     * requested with a priority above {@link ResolverScheduler#PRIORITY_VISIBLE}.
+     *
+     * @return whether or not any {@link ScriptResolver} has still been resolving it
+     */
+    public boolean cancel(Query q) {
+        Integer waitingPriority = mWaitingQueries.get(q);
+        if (waitingPriority != null && waitingPriority <= ResolverScheduler.PRIORITY_VISIBLE) {
+            mWaitingQueries.remove(q);
+        }
+        return ResolverScheduler.get().cancel(q, ResolverScheduler.PRIORITY_VISIBLE);
+    }
+
     /**
      * Method to determine if a given Resolver should resolve the query or not
      */
@@ -298,11 +424,55 @@ public class PipeLine {
      * HashSet containing all query keys
      */
     public HashSet<Query> resolve(Set<Query> queries, boolean forceOnlyLocal) {
+        return resolve(queries, forceOnlyLocal, ResolverScheduler.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Resolve the given ArrayList of {@link org.tomahawk.libtomahawk.resolver.Query}s and return a
+     * HashSet containing all query keys
+     *
+     * @param priority the priority with which the {@link ScriptResolver}s resolve the {@link
+     *                 Query}s (see {@link ResolverScheduler})
+     */
+    public HashSet<Query> resolve(final Set<Query> queries, final boolean forceOnlyLocal,
+            final int priority) {
         HashSet<Query> queryKeys = new HashSet<>();
-        if (queries != null) {
-            for (Query query : queries) {
-                queryKeys.add(resolve(query, forceOnlyLocal));
-            }
+        if (queries != null && !queries.isEmpty()) {
+            queryKeys.addAll(queries);
+            QueryBatchRunnable r = new QueryBatchRunnable(
+                    TomahawkRunnable.PRIORITY_IS_RESOLVING, queries) {
+                @Override
+                public void run(List<Query> queries) {
+                    Map<Query, Set<String>> dbQueries = new HashMap<>();
+                    Map<Query, Set<String>> allCachedSourceIds = applyCachedResults(queries);
+                    for (Query q : queries) {
+                        Set<String> cachedSourceIds = allCachedSourceIds.get(q);
+                        resolveWithResolvers(q, forceOnlyLocal, cachedSourceIds, priority);
+                        if (!forceOnlyLocal && !q.isOnlyLocal()) {
+                            dbQueries.put(q, cachedSourceIds);
+                        }
+                    }
+                    if (!dbQueries.isEmpty()) {
+                        // Every DbCollection resolves all its uncached queries in one batch
+                        for (Collection collection : CollectionManager.get().getCollections()) {
+                            if (collection instanceof DbCollection) {
+                                String sourceId =
+                                        ResolutionCache.getCollectionSourceId(collection.getId());
+                                List<Query> uncachedQueries = new ArrayList<>();
+                                for (Map.Entry<Query, Set<String>> entry : dbQueries.entrySet()) {
+                                    if (!entry.getValue().contains(sourceId)) {
+                                        uncachedQueries.add(entry.getKey());
+                                    }
+                                }
+                                if (!uncachedQueries.isEmpty()) {
+                                    ((DbCollection) collection).resolve(uncachedQueries);
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+            ThreadManager.get().executeBatch(r);
         }
         return queryKeys;
     }
@@ -317,6 +487,21 @@ public class PipeLine {
      */
     public void reportResults(final Query query, final ArrayList<Result> results,
             final String resolverId) {
+        reportResults(query, results, resolverId, resolverId);
+    }
+
+    /**
+     * If the {@link ScriptResolver} or a {@link DbCollection} has resolved the {@link Query}, this
+     * method will be called. This method will then calculate a score and assign it to every {@link
+     * Result}. If the score is higher than MINSCORE the {@link Result} is added to the output
+     * resultList. The scored {@link Result}s are being stored in the {@link ResolutionCache}.
+     *
+     * @param query    the {@link Query} that results are being reported for
+     * @param results  the unfiltered {@link ArrayList} of {@link Result}s
+     * @param sourceId the id under which the {@link Result}s are being cached
+     */
+    public void reportResults(final Query query, final ArrayList<Result> results,
+            final String resolverId, final String sourceId) {
         int priority;
         if (TomahawkApp.PLUGINNAME_USERCOLLECTION.equals(resolverId)) {
             priority = TomahawkRunnable.PRIORITY_IS_REPORTING_LOCALSOURCE;
@@ -332,15 +517,35 @@ public class PipeLine {
                     @Override
                     public void run() {
                         if (query != null) {
+                            int confidentWeight = getConfidentWeight(query);
+                            boolean outweighed = false;
+                            Map<Result, Float> scoredResults = new HashMap<>();
                             for (Result r : results) {
                                 if (r != null) {
+                                    if (getConfidenceWeight(r) < confidentWeight) {
+                                        // Can't outrank the confident Result, so don't bother
+                                        // scoring it
+                                        outweighed = true;
+                                        continue;
+                                    }
                                     float trackScore = query.howSimilar(r);
                                     if (trackScore > (query.isFullTextQuery() ? FULLTEXT_MINSCORE
                                             : MINSCORE)) {
                                         query.addTrackResult(r, trackScore);
+                                        scoredResults.put(r, trackScore);
                                     }
                                 }
                             }
+                            // An incomplete set of Results mustn't be cached
+                            if (!outweighed) {
+                                ResolutionCache.get().store(query, sourceId, scoredResults);
+                            }
+                            int newConfidentWeight = getConfidentWeight(query);
+                            if (newConfidentWeight > confidentWeight) {
+                                // Stop all resolvers that can't outrank the new confident Result
+                                ResolverScheduler.get()
+                                        .cancelOutweighed(query, newConfidentWeight);
+                            }
                             ResultsEvent event = new ResultsEvent();
                             event.mQuery = query;
                             EventBus.getDefault().post(event);
@@ -54,6 +54,8 @@ public class Query extends Cacheable implements AlphaComparable, ArtistAlphaComp
 
     private String mFullTextQuery;
 
+    private String mNormalizedFullTextQuery;
+
     private final boolean mIsFullTextQuery;
 
     private final boolean mIsOnlyLocal;
@@ -286,6 +288,14 @@ public class Query extends Cacheable implements AlphaComparable, ArtistAlphaComp
         }
     }
 
+    /**
+     * @return the trackScore of the given {@link Result} or 0 if it hasn't been added
+     */
+    public float getTrackResultScore(Result result) {
+        Float score = mTrackResultScores.get(result);
+        return score != null ? score : 0f;
+    }
+
     public void blacklistTrackResult(Result result) {
         sBlacklistedResults.add(result.getCacheKey());
         if (result.getCacheKey().equals(mResultHint)) {
@@ -336,50 +346,41 @@ public class Query extends Cacheable implements AlphaComparable, ArtistAlphaComp
      * This method determines how similar the given result is to the search string.
      */
     public float howSimilar(Result r) {
-        String resultArtistName = ResultScoring.cleanUpString(r.getArtist().getName(), false);
-        String resultAlbumName = ResultScoring.cleanUpString(r.getAlbum().getName(), false);
-        String resultTrackName = ResultScoring.cleanUpString(r.getTrack().getName(), false);
         if (isFullTextQuery()) {
-            String fullTextQuery = ResultScoring.cleanUpString(mFullTextQuery, true);
+            String fullTextQuery = getNormalizedFullTextQuery();
             float maxResult = 0f;
-            maxResult = Math.max(maxResult, ResultScoring.calculateScore(
-                    resultTrackName + " " + resultAlbumName + " " + resultArtistName,
-                    fullTextQuery));
-            maxResult = Math.max(maxResult, ResultScoring.calculateScore(
-                    resultTrackName + " " + resultArtistName + " " + resultAlbumName,
-                    fullTextQuery));
-            maxResult = Math.max(maxResult, ResultScoring.calculateScore(
-                    resultArtistName + " " + resultTrackName + " " + resultAlbumName,
-                    fullTextQuery));
-            maxResult = Math.max(maxResult, ResultScoring.calculateScore(
-                    resultArtistName + " " + resultAlbumName + " " + resultTrackName,
-                    fullTextQuery));
-            maxResult = Math.max(maxResult, ResultScoring.calculateScore(
-                    resultAlbumName + " " + resultArtistName + " " + resultTrackName,
-                    fullTextQuery));
-            maxResult = Math.max(maxResult, ResultScoring.calculateScore(
-                    resultAlbumName + " " + resultTrackName + " " + resultArtistName,
-                    fullTextQuery));
+            for (String permutation : r.getFullTextPermutations()) {
+                maxResult = Math.max(maxResult,
+                        ResultScoring.calculateScore(permutation, fullTextQuery));
+            }
             return maxResult;
         } else {
-            String queryArtistName =
-                    ResultScoring.cleanUpString(mBasicTrack.getArtist().getName(), false);
-            float artistScore = ResultScoring.calculateScore(resultArtistName, queryArtistName);
-            String queryTrackName =
-                    ResultScoring.cleanUpString(mBasicTrack.getName(), false);
-            float trackScore = ResultScoring.calculateScore(resultTrackName, queryTrackName);
-            String queryAlbumName =
-                    ResultScoring.cleanUpString(mBasicTrack.getAlbum().getName(), false);
+            float artistScore = ResultScoring.calculateScore(r.getArtist().getNormalizedName(),
+                    mBasicTrack.getArtist().getNormalizedName());
+            float trackScore = ResultScoring.calculateScore(r.getTrack().getNormalizedName(),
+                    mBasicTrack.getNormalizedName());
+            String queryAlbumName = mBasicTrack.getAlbum().getNormalizedName();
             float albumScore;
             if (queryAlbumName.isEmpty()) {
                 return (artistScore + trackScore) / 2;
             } else {
-                albumScore = ResultScoring.calculateScore(resultAlbumName, queryAlbumName);
+                albumScore = ResultScoring.calculateScore(r.getAlbum().getNormalizedName(),
+                        queryAlbumName);
                 return (artistScore * 3 + albumScore + trackScore * 4) / 8;
             }
         }
     }
 
+    /**
+     * @return the fulltext query cleaned up by {@link ResultScoring#cleanUpString}
+     */
+    private String getNormalizedFullTextQuery() {
+        if (mNormalizedFullTextQuery == null) {
+            mNormalizedFullTextQuery = ResultScoring.cleanUpString(mFullTextQuery, true);
+        }
+        return mNormalizedFullTextQuery;
+    }
+
     public String getName() {
         if (isFullTextQuery()) {
             return mFullTextQuery;
@@ -0,0 +1,354 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.resolver;
+
+import org.tomahawk.libtomahawk.collection.Album;
+import org.tomahawk.libtomahawk.collection.Artist;
+import org.tomahawk.libtomahawk.collection.CollectionManager;
+import org.tomahawk.libtomahawk.collection.DbCollection;
+import org.tomahawk.libtomahawk.collection.Track;
+import org.tomahawk.libtomahawk.database.CollectionDbManager;
+import org.tomahawk.libtomahawk.database.DatabaseHelper;
+import org.tomahawk.libtomahawk.database.TomahawkSQLiteHelper;
+import org.tomahawk.tomahawk_android.TomahawkApp;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persists the scored {@link Result}s of every source per {@link Query} cache key, so that already
+ * resolved {@link Query}s are playable right after a cold start without having to invoke the
+ * {@link Resolver}s again. A source is either a {@link Resolver} or a {@link DbCollection} (see
+ * {@link #getCollectionSourceId(String)}). Cached {@link Result}s expire after a {@link Resolver}
+ * specific time to live. {@link Result}s of a {@link DbCollection} are additionally invalidated as
+ * soon as the collection's database has been updated after they have been stored.
+ */
+public class ResolutionCache {
+
+    private final static String TAG = ResolutionCache.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 60L * 60L * 1000L;
+
+    private static final long DEFAULT_TTL = 24L * HOUR_IN_MILLIS;
+
+    private static final long SUBSCRIPTION_TTL = 7L * 24L * HOUR_IN_MILLIS;
+
+    /**
+     * Results of the local collection never expire, they are only invalidated by collection updates
+     */
+    private static final long USERCOLLECTION_TTL = Long.MAX_VALUE;
+
+    /**
+     * The time to live of the information that a resolver hasn't found anything
+     */
+    private static final long EMPTY_RESULTS_TTL = 6L * HOUR_IN_MILLIS;
+
+    private static final long MAX_AGE = 30L * 24L * HOUR_IN_MILLIS;
+
+    /**
+     * Rows older than {@link #MAX_AGE} are being removed at most this often
+     */
+    private static final long PRUNE_INTERVAL = HOUR_IN_MILLIS;
+
+    /**
+     * The number of {@link Query}s that are being looked up with one statement
+     */
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+
+    private static final String COLLECTION_SOURCE_PREFIX = "collection:";
+
+    private static final Map<String, Long> sTtls = new HashMap<>();
+
+    static {
+        sTtls.put(TomahawkApp.PLUGINNAME_USERCOLLECTION, USERCOLLECTION_TTL);
+        sTtls.put(TomahawkApp.PLUGINNAME_SPOTIFY, SUBSCRIPTION_TTL);
+        sTtls.put(TomahawkApp.PLUGINNAME_DEEZER, SUBSCRIPTION_TTL);
+        sTtls.put(TomahawkApp.PLUGINNAME_BEATSMUSIC, SUBSCRIPTION_TTL);
+    }
+
+    private static class Holder {
+
+        private static final ResolutionCache instance = new ResolutionCache();
+
+    }
+
+    /**
+     * The indexes of the columns of a cursor returned by {@link
+     * DatabaseHelper#getResolvedResultsCursor(List)}. Looked up once per cursor.
+     */
+    private static class ColumnIndexes {
+
+        final int mResolverId;
+
+        final int mTimeStamp;
+
+        final int mUrl;
+
+        final int mTrackName;
+
+        final int mAlbumName;
+
+        final int mArtistName;
+
+        final int mDuration;
+
+        final int mAlbumPos;
+
+        final int mLinkUrl;
+
+        final int mPurchaseUrl;
+
+        final int mBitrate;
+
+        final int mSize;
+
+        final int mScore;
+
+        final int mQueryKey;
+
+        ColumnIndexes(Cursor cursor) {
+            mResolverId = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_RESOLVERID);
+            mTimeStamp = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TIMESTAMP);
+            mUrl = cursor.getColumnIndexOrThrow(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_URL);
+            mTrackName = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_TRACKNAME);
+            mAlbumName = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ALBUMNAME);
+            mArtistName = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ARTISTNAME);
+            mDuration = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_DURATION);
+            mAlbumPos = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_ALBUMPOS);
+            mLinkUrl = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_LINKURL);
+            mPurchaseUrl = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_PURCHASEURL);
+            mBitrate = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_BITRATE);
+            mSize = cursor.getColumnIndexOrThrow(TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_SIZE);
+            mScore = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_SCORE);
+            mQueryKey = cursor.getColumnIndexOrThrow(
+                    TomahawkSQLiteHelper.RESOLUTIONCACHE_COLUMN_QUERYKEY);
+        }
+    }
+
+    private final AtomicLong mLastPruneTime = new AtomicLong();
+
+    private ResolutionCache() {
+        pruneIfNeeded(System.currentTimeMillis());
+    }
+
+    public static ResolutionCache get() {
+        return Holder.instance;
+    }
+
+    /**
+     * @return whether or not {@link Result}s for the given {@link Query} should be cached
+     */
+    public boolean isCacheable(Query query) {
+        // Fulltext queries are typed in by the user and are very unlikely to be repeated
+        return !query.isFullTextQuery();
+    }
+
+    /**
+     * @return the source id under which the {@link Result}s of the {@link DbCollection} with the
+     * given id are being cached
+     */
+    public static String getCollectionSourceId(String collectionId) {
+        return COLLECTION_SOURCE_PREFIX + collectionId;
+    }
+
+    /**
+     * Store the given scored {@link Result}s which the source with the given id has reported for
+     * the given {@link Query}.
+     */
+    public void store(Query query, String sourceId, Map<Result, Float> scoredResults) {
+        if (isCacheable(query)) {
+            DatabaseHelper.get().storeResolvedResults(query.getCacheKey(), sourceId,
+                    scoredResults);
+            pruneIfNeeded(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Removes all rows that are older than {@link #MAX_AGE}, unless that has already been done
+     * within the last {@link #PRUNE_INTERVAL}
+     */
+    private void pruneIfNeeded(long now) {
+        long lastPruneTime = mLastPruneTime.get();
+        if (now - lastPruneTime >= PRUNE_INTERVAL
+                && mLastPruneTime.compareAndSet(lastPruneTime, now)) {
+            DatabaseHelper.get().removeResolvedResults(now - MAX_AGE);
+        }
+    }
+
+    /**
+     * Adds all cached {@link Result}s which are still valid to the given {@link Query}.
+     *
+     * @return the ids of all sources whose {@link Result}s have been served from the cache. Those
+     * don't have to resolve the given {@link Query} again.
+     */
+    public Set<String> applyCachedResults(Query query) {
+        return applyCachedResults(Collections.singletonList(query)).get(query);
+    }
+
+    /**
+     * Adds all cached {@link Result}s which are still valid to the given {@link Query}s. The
+     * {@link Result}s of all {@link Query}s are being looked up together.
+     *
+     * @return the ids of all sources whose {@link Result}s have been served from the cache mapped
+     * to their {@link Query}. Those don't have to resolve the {@link Query} again.
+     */
+    public Map<Query, Set<String>> applyCachedResults(List<Query> queries) {
+        Map<Query, Set<String>> sourceIds = new HashMap<>();
+        Map<String, Query> cacheableQueries = new HashMap<>();
+        for (Query query : queries) {
+            sourceIds.put(query, new HashSet<String>());
+            if (isCacheable(query)) {
+                cacheableQueries.put(query.getCacheKey(), query);
+            }
+        }
+        List<String> queryKeys = new ArrayList<>(cacheableQueries.keySet());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < queryKeys.size(); i += LOOKUP_CHUNK_SIZE) {
+            List<String> chunk =
+                    queryKeys.subList(i, Math.min(i + LOOKUP_CHUNK_SIZE, queryKeys.size()));
+            applyCachedResults(chunk, cacheableQueries, sourceIds, now);
+        }
+        return sourceIds;
+    }
+
+    private void applyCachedResults(List<String> queryKeys, Map<String, Query> queries,
+            Map<Query, Set<String>> sourceIds, long now) {
+        String currentQueryKey = null;
+        Map<String, Resolver> validSources = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = DatabaseHelper.get().getResolvedResultsCursor(queryKeys);
+            ColumnIndexes columns = new ColumnIndexes(cursor);
+            while (cursor.moveToNext()) {
+                String queryKey = cursor.getString(columns.mQueryKey);
+                if (!queryKey.equals(currentQueryKey)) {
+                    // The rows are ordered by query key, so all rows of a Query are consecutive
+                    currentQueryKey = queryKey;
+                    validSources.clear();
+                }
+                Query query = queries.get(queryKey);
+                String sourceId = cursor.getString(columns.mResolverId);
+                Resolver resolver;
+                if (validSources.containsKey(sourceId)) {
+                    resolver = validSources.get(sourceId);
+                } else {
+                    resolver = null;
+                    if (isValid(sourceId, cursor.getLong(columns.mTimeStamp),
+                            cursor.isNull(columns.mUrl), now)) {
+                        resolver = getResolver(sourceId);
+                    }
+                    // Every row of a source has been stored at once, so checking the first one
+                    // is enough
+                    validSources.put(sourceId, resolver);
+                    if (resolver != null) {
+                        sourceIds.get(query).add(sourceId);
+                    }
+                }
+                if (resolver != null && !cursor.isNull(columns.mUrl)) {
+                    Artist artist = Artist.get(cursor.getString(columns.mArtistName));
+                    Album album = Album.get(cursor.getString(columns.mAlbumName), artist);
+                    Track track = Track.get(cursor.getString(columns.mTrackName), album, artist);
+                    track.setDuration(cursor.getLong(columns.mDuration));
+                    track.setAlbumPos(cursor.getInt(columns.mAlbumPos));
+                    Result result = Result.get(cursor.getString(columns.mUrl), track, resolver);
+                    result.setLinkUrl(cursor.getString(columns.mLinkUrl));
+                    result.setPurchaseUrl(cursor.getString(columns.mPurchaseUrl));
+                    result.setBitrate(cursor.getInt(columns.mBitrate));
+                    result.setSize(cursor.getInt(columns.mSize));
+                    query.addTrackResult(result, cursor.getFloat(columns.mScore));
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @return the time to live of {@link Result}s reported by the {@link Resolver} with the given
+     * id
+     */
+    public long getTtl(String resolverId) {
+        Long ttl = sTtls.get(resolverId);
+        return ttl != null ? ttl : DEFAULT_TTL;
+    }
+
+    private boolean isValid(String sourceId, long timeStamp, boolean isEmpty, long now) {
+        String resolverId = getResolverId(sourceId);
+        long ttl = getTtl(resolverId);
+        if (isEmpty) {
+            ttl = Math.min(ttl, EMPTY_RESULTS_TTL);
+        }
+        if (now - timeStamp > ttl) {
+            return false;
+        }
+        if (sourceId.startsWith(COLLECTION_SOURCE_PREFIX)) {
+            if (!(CollectionManager.get().getCollection(resolverId) instanceof DbCollection)) {
+                return false;
+            }
+            // Invalid, if the collection's content has changed since we've stored its results
+            long lastUpdated = CollectionDbManager.get().getCollectionDb(resolverId)
+                    .getLastUpdated();
+            return timeStamp >= lastUpdated;
+        }
+        return true;
+    }
+
+    private static String getResolverId(String sourceId) {
+        if (sourceId.startsWith(COLLECTION_SOURCE_PREFIX)) {
+            return sourceId.substring(COLLECTION_SOURCE_PREFIX.length());
+        }
+        return sourceId;
+    }
+
+    /**
+     * @return the enabled {@link Resolver} associated with the source with the given id or null if
+     * it isn't available (yet)
+     */
+    private Resolver getResolver(String sourceId) {
+        String resolverId = getResolverId(sourceId);
+        if (TomahawkApp.PLUGINNAME_USERCOLLECTION.equals(resolverId)) {
+            return UserCollectionStubResolver.get();
+        }
+        Resolver resolver = PipeLine.get().getResolver(resolverId);
+        if (resolver != null && resolver.isEnabled()) {
+            return resolver;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,435 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.resolver;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Schedules the resolving of {@link Query}s with {@link ScriptResolver}s. Every {@link
+ * ScriptResolver} only gets a limited number of {@link Query}s at the same time, the others are
+ * queued up by their priority. Jobs that exceed their deadline or whose {@link Query} isn't needed
+ * anymore are being cancelled, which frees their slot for the next one.
+ */
+public class ResolverScheduler {
+
+    private final static String TAG = ResolverScheduler.class.getSimpleName();
+
+    /**
+     * There is no queued or in-flight job for the {@link Query}
+     */
+    public static final int PRIORITY_NONE = -1;
+
+    /**
+     * The {@link Query} might be needed soon, e.g. because it is close to the visible list rows
+     */
+    public static final int PRIORITY_PREFETCH = 0;
+
+    /**
+     * The {@link Query} is being shown in a visible list row
+     */
+    public static final int PRIORITY_VISIBLE = 1;
+
+    /**
+     * The {@link Query} is going to be played next
+     */
+    public static final int PRIORITY_NEXT_UP = 2;
+
+    /**
+     * The {@link Query} is currently being played
+     */
+    public static final int PRIORITY_PLAYING = 3;
+
+    /**
+     * The number of {@link Query}s a {@link ScriptResolver} is resolving at the same time, if it
+     * doesn't provide its own limit. Big enough to fill a batch of jobs with a screen of rows.
+     */
+    private static final int DEFAULT_MAX_IN_FLIGHT_JOBS = 16;
+
+    /**
+     * The deadline of a job, if its {@link ScriptResolver} doesn't provide a timeout
+     */
+    private static final long DEFAULT_DEADLINE = 15000;
+
+    /**
+     * The job counters are being logged every this many finished or expired jobs
+     */
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    /**
+     * A resolver whose jobs are being scheduled, e.g. a {@link ScriptResolver}
+     */
+    public interface SchedulableResolver {
+
+        String getId();
+
+        int getWeight();
+
+        /**
+         * @return the deadline of a job in ms. 0 to use the default deadline.
+         */
+        int getTimeout();
+
+        /**
+         * @return the number of jobs that can be in flight at the same time. 0 to use the default
+         * limit.
+         */
+        int getMaxConcurrentQueries();
+
+        /**
+         * @param finishedRunnable has to be called once the job has finished
+         * @return the started job or null if the resolver isn't ready to resolve
+         */
+        CancellableJob resolve(Query query, Runnable finishedRunnable);
+
+        /**
+         * Hand the jobs that have been started, but are still waiting to be batched, over right
+         * away
+         */
+        void invokePendingJobs();
+    }
+
+    /**
+     * A job that has been started by a {@link SchedulableResolver}, e.g. a {@link ScriptJob}
+     */
+    public interface CancellableJob {
+
+        boolean cancel();
+    }
+
+    private static class Holder {
+
+        private static final ResolverScheduler instance = new ResolverScheduler();
+
+    }
+
+    private class Job implements Comparable<Job> {
+
+        private final SchedulableResolver mResolver;
+
+        private final Query mQuery;
+
+        private final long mSequence;
+
+        private int mPriority;
+
+        private CancellableJob mStartedJob;
+
+        private boolean mCancelled;
+
+        private final Runnable mFinishedRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onJobFinished(Job.this, false);
+            }
+        };
+
+        private final Runnable mDeadlineRunnable = new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Deadline exceeded - resolver: " + mResolver.getId() + ", query: "
+                        + mQuery.getCacheKey());
+                onJobFinished(Job.this, true);
+            }
+        };
+
+        private Job(SchedulableResolver resolver, Query query, int priority, long sequence) {
+            mResolver = resolver;
+            mQuery = query;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (mPriority != other.mPriority) {
+                return other.mPriority - mPriority;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    private final Map<SchedulableResolver, PriorityQueue<Job>> mQueuedJobs = new HashMap<>();
+
+    private final Map<SchedulableResolver, Set<Job>> mInFlightJobs = new HashMap<>();
+
+    private final Map<Query, List<Job>> mQueryJobs = new HashMap<>();
+
+    private final Handler mDeadlineHandler = new Handler(Looper.getMainLooper());
+
+    private long mSequence;
+
+    private long mFinishedJobCount;
+
+    private long mCancelledJobCount;
+
+    private long mExpiredJobCount;
+
+    private ResolverScheduler() {
+    }
+
+    public static ResolverScheduler get() {
+        return Holder.instance;
+    }
+
+    /**
+     * Schedule the resolving of the given {@link Query} with the given {@link ScriptResolver}. If
+     * the {@link Query} is already queued or in flight for the {@link ScriptResolver}, only its
+     * priority is being raised if necessary.
+     */
+    public void schedule(SchedulableResolver resolver, Query query, int priority) {
+        List<Job> jobsToStart;
+        synchronized (this) {
+            List<Job> queryJobs = mQueryJobs.get(query);
+            if (queryJobs == null) {
+                queryJobs = new ArrayList<>();
+                mQueryJobs.put(query, queryJobs);
+            }
+            for (Job job : queryJobs) {
+                if (job.mResolver == resolver) {
+                    if (priority > job.mPriority) {
+                        // Re-insert queued jobs, so that they are sorted by their new priority
+                        PriorityQueue<Job> queue = mQueuedJobs.get(resolver);
+                        boolean queued = queue != null && queue.remove(job);
+                        job.mPriority = priority;
+                        if (queued) {
+                            queue.add(job);
+                        }
+                    }
+                    return;
+                }
+            }
+            Job job = new Job(resolver, query, priority, mSequence++);
+            queryJobs.add(job);
+            PriorityQueue<Job> queue = mQueuedJobs.get(resolver);
+            if (queue == null) {
+                queue = new PriorityQueue<>();
+                mQueuedJobs.put(resolver, queue);
+            }
+            queue.add(job);
+            jobsToStart = pollStartableJobs(resolver);
+        }
+        start(jobsToStart);
+    }
+
+    /**
+     * @return the highest priority of the queued and in-flight jobs of the given {@link Query} or
+     * {@link #PRIORITY_NONE} if there are none
+     */
+    public synchronized int getPriority(Query query) {
+        int priority = PRIORITY_NONE;
+        List<Job> queryJobs = mQueryJobs.get(query);
+        if (queryJobs != null) {
+            for (Job job : queryJobs) {
+                priority = Math.max(priority, job.mPriority);
+            }
+        }
+        return priority;
+    }
+
+    /**
+     * Cancel the queued and in-flight jobs of the given {@link Query}, whose priority isn't higher
+     * than the given one. Jobs with a higher priority are still needed by somebody else.
+     *
+     * @return whether or not there has been any job to cancel
+     */
+    public boolean cancel(Query query, int maxPriority) {
+        return cancel(query, maxPriority, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Cancel the queued and in-flight jobs of the given {@link Query}, whose {@link
+     * ScriptResolver}'s weight is lower than the given one, e.g. because they can't beat the
+     * {@link Result} that has already been found anymore. Resolvers with the same weight might
+     * still find a {@link Result} with a better score.
+     *
+     * @return whether or not there has been any job to cancel
+     */
+    public boolean cancelOutweighed(Query query, int weight) {
+        return cancel(query, Integer.MAX_VALUE, weight - 1);
+    }
+
+    private boolean cancel(Query query, int maxPriority, int maxWeight) {
+        List<Job> jobsToCancel = new ArrayList<>();
+        List<Job> jobsToStart = new ArrayList<>();
+        boolean cancelled = false;
+        synchronized (this) {
+            List<Job> queryJobs = mQueryJobs.get(query);
+            if (queryJobs == null) {
+                return false;
+            }
+            Set<SchedulableResolver> resolvers = new HashSet<>();
+            for (Job job : new ArrayList<>(queryJobs)) {
+                if (job.mPriority > maxPriority || job.mResolver.getWeight() > maxWeight) {
+                    continue;
+                }
+                queryJobs.remove(job);
+                cancelled = true;
+                PriorityQueue<Job> queue = mQueuedJobs.get(job.mResolver);
+                Set<Job> inFlightJobs = mInFlightJobs.get(job.mResolver);
+                if (queue != null && queue.remove(job)) {
+                    mCancelledJobCount++;
+                } else if (inFlightJobs != null && inFlightJobs.remove(job)) {
+                    job.mCancelled = true;
+                    jobsToCancel.add(job);
+                    resolvers.add(job.mResolver);
+                    mCancelledJobCount++;
+                }
+            }
+            if (queryJobs.isEmpty()) {
+                mQueryJobs.remove(query);
+            }
+            for (SchedulableResolver resolver : resolvers) {
+                jobsToStart.addAll(pollStartableJobs(resolver));
+            }
+        }
+        for (Job job : jobsToCancel) {
+            cancelStartedJob(job);
+        }
+        start(jobsToStart);
+        return cancelled;
+    }
+
+    /**
+     * Moves as many queued jobs of the given {@link ScriptResolver} in flight as it is allowed to
+     * have. Must be called while holding the lock.
+     *
+     * @return the jobs that have to be started
+     */
+    private List<Job> pollStartableJobs(SchedulableResolver resolver) {
+        List<Job> jobs = new ArrayList<>();
+        PriorityQueue<Job> queue = mQueuedJobs.get(resolver);
+        Set<Job> inFlightJobs = mInFlightJobs.get(resolver);
+        if (inFlightJobs == null) {
+            inFlightJobs = new HashSet<>();
+            mInFlightJobs.put(resolver, inFlightJobs);
+        }
+        int maxInFlightJobs = resolver.getMaxConcurrentQueries() > 0
+                ? resolver.getMaxConcurrentQueries() : DEFAULT_MAX_IN_FLIGHT_JOBS;
+        while (queue != null && !queue.isEmpty() && inFlightJobs.size() < maxInFlightJobs) {
+            Job job = queue.poll();
+            inFlightJobs.add(job);
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * Starts the given jobs. Must be called without holding the lock, because the {@link
+     * ScriptResolver}s might report back synchronously.
+     */
+    private void start(List<Job> jobs) {
+        for (Job job : jobs) {
+            long deadline = job.mResolver.getTimeout() > 0
+                    ? job.mResolver.getTimeout() : DEFAULT_DEADLINE;
+            mDeadlineHandler.postAtTime(job.mDeadlineRunnable, job,
+                    SystemClock.uptimeMillis() + deadline);
+            CancellableJob startedJob = job.mResolver.resolve(job.mQuery, job.mFinishedRunnable);
+            boolean cancelled;
+            synchronized (this) {
+                job.mStartedJob = startedJob;
+                cancelled = job.mCancelled;
+            }
+            if (startedJob == null) {
+                // The resolver isn't ready, so there's nothing to wait for
+                onJobFinished(job, false);
+            } else if (cancelled) {
+                // The job has been cancelled while it was being started
+                startedJob.cancel();
+            }
+        }
+    }
+
+    private void onJobFinished(Job job, boolean expired) {
+        List<Job> jobsToStart;
+        synchronized (this) {
+            Set<Job> inFlightJobs = mInFlightJobs.get(job.mResolver);
+            if (inFlightJobs == null || !inFlightJobs.remove(job)) {
+                // Already finished or cancelled
+                return;
+            }
+            List<Job> queryJobs = mQueryJobs.get(job.mQuery);
+            if (queryJobs != null) {
+                queryJobs.remove(job);
+                if (queryJobs.isEmpty()) {
+                    mQueryJobs.remove(job.mQuery);
+                }
+            }
+            if (expired) {
+                job.mCancelled = true;
+                mExpiredJobCount++;
+            } else {
+                mFinishedJobCount++;
+            }
+            if ((mFinishedJobCount + mExpiredJobCount) % STATS_LOG_INTERVAL == 0) {
+                logStats();
+            }
+            jobsToStart = pollStartableJobs(job.mResolver);
+        }
+        if (expired) {
+            cancelStartedJob(job);
+        } else {
+            mDeadlineHandler.removeCallbacksAndMessages(job);
+        }
+        start(jobsToStart);
+        if (!jobsToStart.isEmpty()) {
+            // The slot has been freed by a finished job, so there's no reason to wait for more
+            // jobs to be batched with the refill
+            job.mResolver.invokePendingJobs();
+        }
+    }
+
+    /**
+     * Logs the job counters. Must be called while holding the lock.
+     */
+    private void logStats() {
+        int queuedJobCount = 0;
+        for (PriorityQueue<Job> queue : mQueuedJobs.values()) {
+            queuedJobCount += queue.size();
+        }
+        int inFlightJobCount = 0;
+        for (Set<Job> inFlightJobs : mInFlightJobs.values()) {
+            inFlightJobCount += inFlightJobs.size();
+        }
+        Log.d(TAG, "logStats - queued: " + queuedJobCount + ", in flight: " + inFlightJobCount
+                + ", finished: " + mFinishedJobCount + ", cancelled: " + mCancelledJobCount
+                + ", expired: " + mExpiredJobCount);
+    }
+
+    private void cancelStartedJob(Job job) {
+        mDeadlineHandler.removeCallbacksAndMessages(job);
+        CancellableJob startedJob;
+        synchronized (this) {
+            startedJob = job.mStartedJob;
+        }
+        // If the started job hasn't been set yet, it's being cancelled right after it has started
+        if (startedJob != null) {
+            startedJob.cancel();
+        }
+    }
+}
@@ -59,6 +59,8 @@ public class Result extends Cacheable {
 
     private boolean isResolved;
 
+    private String[] mFullTextPermutations;
+
     /**
      * Construct a new {@link Result} with the given {@link Track}
      */
@@ -139,6 +141,7 @@ public class Result extends Cacheable {
      */
     public void setTrack(Track mTrack) {
         this.mTrack = mTrack;
+        mFullTextPermutations = null;
     }
 
     /**
@@ -153,6 +156,7 @@ public class Result extends Cacheable {
      */
     public void setArtist(Artist mArtist) {
         this.mArtist = mArtist;
+        mFullTextPermutations = null;
     }
 
     /**
@@ -167,6 +171,29 @@ public class Result extends Cacheable {
      */
     public void setAlbum(Album mAlbum) {
         this.mAlbum = mAlbum;
+        mFullTextPermutations = null;
+    }
+
+    /**
+     * @return every permutation of the normalized track, album and artist names, each joined with
+     * a space. Those are being used to score this {@link Result} against fulltext {@link Query}s.
+     */
+    public String[] getFullTextPermutations() {
+        String[] permutations = mFullTextPermutations;
+        if (permutations == null) {
+            String track = mTrack.getNormalizedName();
+            String album = mAlbum.getNormalizedName();
+            String artist = mArtist.getNormalizedName();
+            permutations = new String[]{
+                    track + " " + album + " " + artist,
+                    track + " " + artist + " " + album,
+                    artist + " " + track + " " + album,
+                    artist + " " + album + " " + track,
+                    album + " " + artist + " " + track,
+                    album + " " + track + " " + artist};
+            mFullTextPermutations = permutations;
+        }
+        return permutations;
     }
 
     /**
@@ -18,44 +18,71 @@
 package org.tomahawk.libtomahawk.resolver;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ResultScoring {
 
+    /**
+     * A {@link Result} with at least this score is considered to be the right one, so that there's
+     * no need to look for a better one
+     */
+    public static final float CONFIDENT_SCORE = 0.95f;
+
     private static final int ERROR_TOLERANCE_RATIO = 5;
 
     private static final char[] sDelimiters =
             new char[]{'(', '[', '{', ' ', '\n', '-', '/', '\\', ' ', ')', '[', '}'};
 
+    /**
+     * The compiled query parts of the most recently scored queries. Every thread has its own
+     * cache, because the compiled {@link Bitap.Matcher}s are not thread-safe.
+     */
+    private static final ThreadLocal<LinkedHashMap<String, List<Bitap.Matcher>>> sMatchers =
+            new ThreadLocal<LinkedHashMap<String, List<Bitap.Matcher>>>() {
+                @Override
+                protected LinkedHashMap<String, List<Bitap.Matcher>> initialValue() {
+                    return new LinkedHashMap<String, List<Bitap.Matcher>>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(
+                                Map.Entry<String, List<Bitap.Matcher>> eldest) {
+                            return size() > MATCHER_CACHE_SIZE;
+                        }
+                    };
+                }
+            };
+
+    private static final int MATCHER_CACHE_SIZE = 16;
+
     /**
      * This method determines how similar the given result is to the search string.
      */
     public static float calculateScore(String result, String query) {
         float totalScore = 0f;
         int lastIndex = 0;
-        List<String> queryParts = splitUp(query, 32); // bitap only allows a max of 32 chars per run
-        for (String queryPart : queryParts) {
+        for (Bitap.Matcher matcher : getMatchers(query)) {
+            int queryPartLength = matcher.getPattern().length();
             // how many errors do we allow
-            int tolerance = queryPart.length() / ERROR_TOLERANCE_RATIO;
-            String partialResult = result.substring(lastIndex, result.length());
-            Bitap.Result r = Bitap.indexOf(partialResult, queryPart, tolerance);
-            if (r.index >= 0) {
+            int tolerance = queryPartLength / ERROR_TOLERANCE_RATIO;
+            int index = matcher.indexOf(result, lastIndex, tolerance);
+            if (index >= 0) {
                 float errorPenalty = 0f;
                 if (tolerance > 0) {
                     // worst case 30% score penalty
-                    errorPenalty = (float) r.errors / tolerance * .3f;
+                    errorPenalty = (float) matcher.getErrors() / tolerance * .3f;
                 }
                 float patternRatio;
-                float denominator = (float) Math.max(result.length(), queryPart.length());
+                float denominator = (float) Math.max(result.length(), queryPartLength);
                 if (denominator > 0) {
                     patternRatio =
-                            (float) Math.min(result.length(), queryPart.length()) / denominator;
+                            (float) Math.min(result.length(), queryPartLength) / denominator;
                 } else {
                     // both query and result are empty Strings
                     patternRatio = 1f;
                 }
                 totalScore += patternRatio * (1f - errorPenalty); // apply the error penalty
-                lastIndex = r.index + queryPart.length();
+                lastIndex = index + queryPartLength;
                 if (lastIndex >= result.length()) {
                     // nothing to search for anymore
                     break;
@@ -65,6 +92,23 @@ public class ResultScoring {
         return totalScore;
     }
 
+    /**
+     * @return the compiled {@link Bitap.Matcher}s of all parts of the given query
+     */
+    private static List<Bitap.Matcher> getMatchers(String query) {
+        LinkedHashMap<String, List<Bitap.Matcher>> cache = sMatchers.get();
+        List<Bitap.Matcher> matchers = cache.get(query);
+        if (matchers == null) {
+            matchers = new ArrayList<>();
+            // bitap only allows a max of 32 chars per run
+            for (String queryPart : splitUp(query, 32)) {
+                matchers.add(Bitap.compile(queryPart));
+            }
+            cache.put(query, matchers);
+        }
+        return matchers;
+    }
+
     private static List<String> splitUp(String s, int maxLength) {
         List<String> parts = new ArrayList<>();
         if (s.length() <= maxLength) {
@@ -112,11 +156,48 @@ public class ResultScoring {
      * @return the clean String
      */
     public static String cleanUpString(String in, boolean replaceArticle) {
-        String out = in.toLowerCase().trim().replaceAll("[\\s]{2,}", " ");
+        String out = collapseWhitespace(in.toLowerCase().trim());
         if (replaceArticle && out.startsWith("the ")) {
             out = out.substring(4);
         }
         return out;
     }
 
+    /**
+     * Replaces every run of two or more whitespace characters with a single space. Does the same
+     * as replaceAll("[\\s]{2,}", " ") without having to compile a regular expression each time.
+     */
+    private static String collapseWhitespace(String in) {
+        StringBuilder out = null;
+        int length = in.length();
+        int i = 0;
+        while (i < length) {
+            int runEnd = i;
+            while (runEnd < length && isRegexWhitespace(in.charAt(runEnd))) {
+                runEnd++;
+            }
+            if (runEnd - i >= 2) {
+                if (out == null) {
+                    out = new StringBuilder(length);
+                    out.append(in, 0, i);
+                }
+                out.append(' ');
+                i = runEnd;
+            } else {
+                if (out != null) {
+                    out.append(in.charAt(i));
+                }
+                i++;
+            }
+        }
+        return out != null ? out.toString() : in;
+    }
+
+    /**
+     * @return whether or not the given char is matched by the regex character class \s
+     */
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
 }
@@ -17,8 +17,12 @@
  */
 package org.tomahawk.libtomahawk.resolver;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.IOUtils;
@@ -30,7 +34,6 @@ import org.tomahawk.libtomahawk.resolver.plugins.ScriptCollectionPluginFactory;
 import org.tomahawk.libtomahawk.resolver.plugins.ScriptInfoPluginFactory;
 import org.tomahawk.libtomahawk.resolver.plugins.ScriptResolverPluginFactory;
 import org.tomahawk.libtomahawk.utils.GsonHelper;
-import org.tomahawk.libtomahawk.utils.StringUtils;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
 
@@ -38,6 +41,7 @@ import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.webkit.WebSettings;
@@ -47,9 +51,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyListener {
 
@@ -69,7 +77,82 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
 
     private WebView mWebView;
 
-    private HashMap<String, ScriptJob> mJobs = new HashMap<>();
+    /**
+     * Jobs that are being started within this many milliseconds are invoked together in one batch
+     */
+    private static final long JOB_BATCH_DELAY = 16;
+
+    /**
+     * The job queue counters are being logged every this many batches
+     */
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    /**
+     * Response texts of native async requests that haven't been pulled by the JS side within this
+     * many milliseconds are dropped, e.g. because the request has been abandoned
+     */
+    private static final long NATIVE_RESPONSE_TEXT_TTL = 60000;
+
+    private static class PendingJob {
+
+        private final String mRequestId;
+
+        private final ScriptJob mJob;
+
+        private final long mStartTime;
+
+        private PendingJob(String requestId, ScriptJob job, long startTime) {
+            mRequestId = requestId;
+            mJob = job;
+            mStartTime = startTime;
+        }
+    }
+
+    private static class NativeResponseText {
+
+        private final String mText;
+
+        private final long mTime;
+
+        private NativeResponseText(String text, long time) {
+            mText = text;
+            mTime = time;
+        }
+    }
+
+    private final Map<String, ScriptJob> mJobs = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> mJobStartTimes = new ConcurrentHashMap<>();
+
+    private final Map<Integer, NativeResponseText> mNativeResponseTexts =
+            new ConcurrentHashMap<>();
+
+    private final List<PendingJob> mPendingJobs = new ArrayList<>();
+
+    private boolean mBatchScheduled;
+
+    private int mMaxQueueDepth;
+
+    private final AtomicLong mBatchCount = new AtomicLong();
+
+    private final AtomicLong mInvokedJobCount = new AtomicLong();
+
+    private final AtomicLong mTotalQueueLatency = new AtomicLong();
+
+    private final AtomicLong mReportedJobCount = new AtomicLong();
+
+    private final AtomicLong mTotalRoundTripLatency = new AtomicLong();
+
+    private final AtomicLong mCancelledJobCount = new AtomicLong();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mInvokeBatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            invokeBatch();
+        }
+    };
 
     private HashMap<String, ScriptObject> mObjects = new HashMap<>();
 
@@ -86,6 +169,8 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
 
     private ScriptResolver mScriptResolver;
 
+    private ScriptInterface mScriptInterface;
+
     private ScriptResolverMetaData mMetaData;
 
     private Map<String, FuzzyIndex> mFuzzyIndexMap = new HashMap<>();
@@ -186,8 +271,8 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
                         + "\" type=\"text/javascript\"></script>"
                         + "</body></html>";
                 mWebView.setWebViewClient(new ScriptWebViewClient(ScriptAccount.this));
-                mWebView.addJavascriptInterface(new ScriptInterface(ScriptAccount.this),
-                        SCRIPT_INTERFACE_NAME);
+                mScriptInterface = new ScriptInterface(ScriptAccount.this);
+                mWebView.addJavascriptInterface(mScriptInterface, SCRIPT_INTERFACE_NAME);
                 mWebView.loadDataWithBaseURL("file:///android_asset/test.html", data,
                         "text/html", null, null);
             }
@@ -272,22 +357,121 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
         }
     }
 
-    public void startJob(final ScriptJob job) {
-        final String requestId = TomahawkMainActivity.getSessionUniqueStringId();
+    /**
+     * Releases everything this {@link ScriptAccount} holds on to for its JS side. Called when the
+     * {@link ScriptAccount} is being removed.
+     */
+    public void unload() {
+        if (mScriptInterface != null) {
+            mScriptInterface.shutdown();
+        }
+        mNativeResponseTexts.clear();
+    }
+
+    /**
+     * Enqueues the given job. All jobs that are being started within {@link #JOB_BATCH_DELAY} are
+     * handed over to the JS side together with one call of Tomahawk.PluginManager.invokeBatch.
+     */
+    public void startJob(ScriptJob job) {
+        String requestId = TomahawkMainActivity.getSessionUniqueStringId();
+        long startTime = SystemClock.elapsedRealtime();
+        job.setRequestId(requestId);
         mJobs.put(requestId, job);
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                String serializedArgs = GsonHelper.get().toJson(job.getArguments());
-                serializedArgs = "JSON.parse('" + StringUtils
-                        .escapeJavaScript(serializedArgs) + "')";
-                evaluateJavaScript("Tomahawk.PluginManager.invoke("
-                        + "'" + requestId + "',"
-                        + "'" + job.getScriptObject().getId() + "',"
-                        + "'" + job.getMethodName() + "',"
-                        + serializedArgs + ")");
+        mJobStartTimes.put(requestId, startTime);
+        synchronized (mPendingJobs) {
+            mPendingJobs.add(new PendingJob(requestId, job, startTime));
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mPendingJobs.size());
+            if (!mBatchScheduled) {
+                mBatchScheduled = true;
+                mMainHandler.postDelayed(mInvokeBatchRunnable, JOB_BATCH_DELAY);
             }
-        });
+        }
+    }
+
+    /**
+     * Invokes all pending jobs right away instead of waiting for {@link #JOB_BATCH_DELAY}, e.g.
+     * because they take the place of jobs that have just finished.
+     */
+    public void invokePendingJobs() {
+        synchronized (mPendingJobs) {
+            if (!mBatchScheduled) {
+                return;
+            }
+        }
+        mMainHandler.removeCallbacks(mInvokeBatchRunnable);
+        mMainHandler.post(mInvokeBatchRunnable);
+    }
+
+    /**
+     * Cancels the given job. If it hasn't been invoked yet, it is simply dropped. Otherwise the JS
+     * side is being told to drop its result.
+     *
+     * @return whether or not the job has still been running
+     */
+    public boolean cancelJob(ScriptJob job) {
+        String requestId = job.getRequestId();
+        if (requestId == null || mJobs.remove(requestId) == null) {
+            return false;
+        }
+        mJobStartTimes.remove(requestId);
+        mCancelledJobCount.incrementAndGet();
+        boolean wasPending = false;
+        synchronized (mPendingJobs) {
+            for (int i = 0; i < mPendingJobs.size(); i++) {
+                if (mPendingJobs.get(i).mRequestId.equals(requestId)) {
+                    mPendingJobs.remove(i);
+                    wasPending = true;
+                    break;
+                }
+            }
+        }
+        if (!wasPending) {
+            evaluateJavaScript("Tomahawk.PluginManager.cancel('" + requestId + "');");
+        }
+        return true;
+    }
+
+    /**
+     * Invokes all pending jobs at once. Must be called on the main thread.
+     */
+    private void invokeBatch() {
+        List<PendingJob> pendingJobs;
+        int maxQueueDepth;
+        synchronized (mPendingJobs) {
+            pendingJobs = new ArrayList<>(mPendingJobs);
+            mPendingJobs.clear();
+            mBatchScheduled = false;
+            maxQueueDepth = mMaxQueueDepth;
+        }
+        if (pendingJobs.isEmpty()) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        JsonArray batch = new JsonArray();
+        for (PendingJob pendingJob : pendingJobs) {
+            JsonObject job = new JsonObject();
+            job.addProperty("requestId", pendingJob.mRequestId);
+            job.addProperty("objectId", pendingJob.mJob.getScriptObject().getId());
+            job.addProperty("methodName", pendingJob.mJob.getMethodName());
+            job.add("params", GsonHelper.get().toJsonTree(pendingJob.mJob.getArguments()));
+            batch.add(job);
+            mTotalQueueLatency.addAndGet(now - pendingJob.mStartTime);
+        }
+        long batchCount = mBatchCount.incrementAndGet();
+        long invokedJobCount = mInvokedJobCount.addAndGet(pendingJobs.size());
+        if (batchCount % STATS_LOG_INTERVAL == 0) {
+            Log.d(TAG, "invokeBatch - " + mName + " - batches: " + batchCount
+                    + ", invoked: " + invokedJobCount
+                    + ", max queue depth: " + maxQueueDepth
+                    + ", total queue latency: " + mTotalQueueLatency.get() + "ms"
+                    + ", reported: " + mReportedJobCount.get()
+                    + ", total round trip latency: " + mTotalRoundTripLatency.get() + "ms"
+                    + ", cancelled: " + mCancelledJobCount.get());
+        }
+        // JSON is a valid JS literal (Gson escapes U+2028 and U+2029), so it doesn't have to be
+        // escaped and parsed again on the JS side
+        evaluateUnescapedJavaScript(
+                "Tomahawk.PluginManager.invokeBatch(" + GsonHelper.get().toJson(batch) + ")");
     }
 
     private void evaluateJavaScript(final String code) {
@@ -299,33 +483,84 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
         });
     }
 
-    public void reportScriptJobResult(JsonObject result) {
-        JsonElement requestIdNode = result.get("requestId");
+    /**
+     * Evaluates the given code, which doesn't have to be percent-escaped. Must be called on the
+     * main thread.
+     */
+    private void evaluateUnescapedJavaScript(String code) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mWebView.evaluateJavascript(code, null);
+        } else {
+            // We have to encode the %-chars because the Android WebView automatically decodes
+            // percentage-escaped chars in javascript-urls
+            mWebView.loadUrl("javascript: " + code.replace("%", "%25"));
+        }
+    }
+
+    /**
+     * Streams the given serialized result of a {@link ScriptJob}. The "data" is decoded directly
+     * by the {@link ScriptJob}, so the result's "requestId" has to precede it.
+     */
+    public void reportScriptJobResult(String serializedResult) {
+        JsonReader reader = new JsonReader(new StringReader(serializedResult));
         String requestId = null;
-        if (requestIdNode != null && requestIdNode.isJsonPrimitive()) {
-            requestId = result.get("requestId").getAsString();
-        }
-        if (requestId != null && !requestId.isEmpty()) {
-            ScriptJob job = mJobs.get(requestId);
-            if (job != null) {
-                JsonElement errorNode = result.get("error");
-                if (errorNode == null) {
-                    job.reportResults(result.get("data"));
-                } else if (errorNode.isJsonPrimitive()) {
-                    job.reportFailure(result.get("error").getAsString());
+        ScriptJob job = null;
+        boolean reported = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("requestId") && reader.peek() != JsonToken.NULL) {
+                    requestId = reader.nextString();
+                    job = removeJob(requestId);
+                } else if (name.equals("data") && job != null && !reported) {
+                    reported = true;
+                    job.reportResults(reader);
+                } else if (name.equals("error") && job != null && !reported) {
+                    reported = true;
+                    if (reader.peek() == JsonToken.STRING || reader.peek() == JsonToken.NUMBER) {
+                        job.reportFailure(reader.nextString());
+                    } else {
+                        reader.skipValue();
+                        job.reportFailure("no error message provided");
+                    }
                 } else {
-                    job.reportFailure("no error message provided");
+                    reader.skipValue();
                 }
-            } else {
-                Log.e(TAG, "reportScriptJobResult - ScriptAccount:" + mName
-                        + ", couldn't find ScriptJob with given requestId");
             }
-        } else {
+            reader.endObject();
+        } catch (IOException | JsonParseException | IllegalStateException
+                | NumberFormatException e) {
+            Log.e(TAG, "reportScriptJobResult - " + e.getClass() + ": "
+                    + e.getLocalizedMessage());
+            if (job != null && !reported) {
+                reported = true;
+                job.reportFailure("couldn't read result: " + e.getLocalizedMessage());
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        if (requestId == null || requestId.isEmpty()) {
             Log.e(TAG, "reportScriptJobResult - ScriptAccount:" + mName
                     + ", requestId is null or empty");
+        } else if (job == null) {
+            Log.e(TAG, "reportScriptJobResult - ScriptAccount:" + mName
+                    + ", couldn't find ScriptJob with given requestId");
+        } else if (!reported) {
+            // Neither data nor error have been reported, which means that the result is undefined
+            job.reportResults((JsonElement) null);
         }
     }
 
+    private ScriptJob removeJob(String requestId) {
+        Long startTime = mJobStartTimes.remove(requestId);
+        if (startTime != null) {
+            mReportedJobCount.incrementAndGet();
+            mTotalRoundTripLatency.addAndGet(SystemClock.elapsedRealtime() - startTime);
+        }
+        return mJobs.remove(requestId);
+    }
+
     public void registerScriptPlugin(String type, String objectId) {
         ScriptObject object = mObjects.get(objectId);
         if (object == null) {
@@ -390,20 +625,35 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
                 headers.put(key, concatenatedValues);
             }
         }
-        String headersString = GsonHelper.get().toJson(headers);
-        // We have to encode the %-chars because the Android WebView automatically decodes
-        // percentage-escaped chars ... for whatever reason. Seems likely that this is a bug.
-        String escapedResponseText =
-                StringUtils.escapeJavaScript(responseText).replace("%", "%25");
-        String escapedHeadersString =
-                StringUtils.escapeJavaScript(headersString).replace("%", "%25");
-        String escapedStatusText =
-                StringUtils.escapeJavaScript(statusText).replace("%", "%25");
-        evaluateJavaScript("Tomahawk._nativeAsyncRequestDone(" + requestId + ","
-                + "'" + escapedResponseText + "',"
-                + "'" + escapedHeadersString + "',"
+        // The response text isn't passed along but kept here until the JS side pulls it, so that
+        // it doesn't have to be escaped into the evaluated code. Headers and status text are
+        // passed as JSON, which is a valid JS literal.
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<Integer, NativeResponseText> entry : mNativeResponseTexts.entrySet()) {
+            if (now - entry.getValue().mTime > NATIVE_RESPONSE_TEXT_TTL) {
+                mNativeResponseTexts.remove(entry.getKey());
+            }
+        }
+        mNativeResponseTexts.put(requestId, new NativeResponseText(responseText, now));
+        final String code = "Tomahawk._nativeAsyncRequestDone(" + requestId + ","
+                + GsonHelper.get().toJson(headers) + ","
                 + status + ","
-                + "'" + escapedStatusText + "');");
+                + GsonHelper.get().toJson(statusText) + ");";
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                evaluateUnescapedJavaScript(code);
+            }
+        });
+    }
+
+    /**
+     * @return the text of the response to the native async request with the given id. It can only
+     * be taken once.
+     */
+    public String takeNativeAsyncResponseText(int requestId) {
+        NativeResponseText responseText = mNativeResponseTexts.remove(requestId);
+        return responseText != null ? responseText.mText : null;
     }
 
     public class NativeScriptJobParams {
@@ -414,10 +664,21 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
     }
 
     public void invokeNativeScriptJob(int requestId, String methodName, String paramsString) {
+        if (methodName.equals("collectionAddTracksPage")) {
+            // Pages can be large, so we stream them into the database instead of parsing them
+            // into objects first
+            reportNativeScriptJobResult(requestId, addPendingTracks(paramsString));
+            return;
+        }
         String result = null;
         NativeScriptJobParams params =
                 GsonHelper.get().fromJson(paramsString, NativeScriptJobParams.class);
-        if (methodName.equals("collectionAddTracks")) {
+        if (methodName.equals("collectionCommitTracks")
+                || methodName.equals("collectionSyncTracks")) {
+            CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(params.id);
+            collectionDb.commitPendingTracks(methodName.equals("collectionSyncTracks"));
+            result = collectionDb.getRevision();
+        } else if (methodName.equals("collectionAddTracks")) {
             CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(params.id);
             collectionDb.addTracks(params.tracks);
             result = collectionDb.getRevision();
@@ -427,8 +688,14 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
             CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(params.id);
             result = collectionDb.getRevision();
         } else if (methodName.equals("collectionInitialized")) {
-            CollectionDbManager.get().getCollectionDb(params.id).wipe();
+            // The collection's tracks are about to be added again, so only apply the delta instead
+            // of wiping everything
+            CollectionDbManager.get().getCollectionDb(params.id).replaceOnNextCommit();
         }
+        reportNativeScriptJobResult(requestId, result);
+    }
+
+    private void reportNativeScriptJobResult(int requestId, String result) {
         if (result == null) {
             evaluateJavaScript("Tomahawk.NativeScriptJobManager.reportNativeScriptJobResult("
                     + requestId + ");");
@@ -438,4 +705,75 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
         }
     }
 
+    /**
+     * Streams the tracks contained in the given params of a "collectionAddTracksPage" job into the
+     * pending tracks of the collection with the given id. If the params' "tracks" precede its "id",
+     * they are skipped at first and streamed in a second pass over the params.
+     *
+     * @return the number of tracks that are pending in total or null if the page couldn't be read
+     */
+    private String addPendingTracks(String paramsString) {
+        JsonReader reader = new JsonReader(new StringReader(paramsString));
+        try {
+            String collectionId = null;
+            boolean tracksSkipped = false;
+            int pendingTrackCount = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("id")) {
+                    collectionId = reader.nextString();
+                } else if (name.equals("tracks") && collectionId != null) {
+                    pendingTrackCount = CollectionDbManager.get().getCollectionDb(collectionId)
+                            .addPendingTracks(reader);
+                } else {
+                    if (name.equals("tracks")) {
+                        tracksSkipped = true;
+                    }
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (collectionId == null) {
+                Log.e(TAG, "addPendingTracks - params don't contain a collection id");
+                return null;
+            }
+            if (tracksSkipped) {
+                pendingTrackCount = addPendingTracks(collectionId, paramsString);
+            }
+            return String.valueOf(pendingTrackCount);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            Log.e(TAG, "addPendingTracks - " + e.getClass() + ": " + e.getLocalizedMessage());
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return null;
+    }
+
+    /**
+     * Streams the "tracks" of the given params into the pending tracks of the collection with the
+     * given id
+     *
+     * @return the number of tracks that are pending in total
+     */
+    private int addPendingTracks(String collectionId, String paramsString) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(paramsString));
+        try {
+            int pendingTrackCount = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("tracks")) {
+                    pendingTrackCount = CollectionDbManager.get().getCollectionDb(collectionId)
+                            .addPendingTracks(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return pendingTrackCount;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
 }
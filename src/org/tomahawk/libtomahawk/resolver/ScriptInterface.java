@@ -1,19 +1,18 @@
 package org.tomahawk.libtomahawk.resolver;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-
 import com.squareup.okhttp.Response;
 
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.FileUtils;
 import org.tomahawk.libtomahawk.resolver.models.ScriptInterfaceRequestOptions;
 import org.tomahawk.libtomahawk.resolver.models.ScriptResolverData;
+import org.tomahawk.libtomahawk.resolver.models.ScriptResolverMetaData;
 import org.tomahawk.libtomahawk.utils.GsonHelper;
 import org.tomahawk.libtomahawk.utils.NetworkUtils;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.JavascriptInterface;
@@ -23,6 +22,11 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.greenrobot.event.EventBus;
 
@@ -34,8 +38,31 @@ public class ScriptInterface {
 
     private final static String TAG = ScriptInterface.class.getSimpleName();
 
+    /**
+     * The number of native requests a resolver can run at the same time, if it doesn't specify it
+     * in its metadata
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    private static final long REQUEST_THREAD_KEEP_ALIVE = 30;
+
+    /**
+     * The request counters are being logged every this many requests
+     */
+    private static final int STATS_LOG_INTERVAL = 100;
+
     private final ScriptAccount mScriptAccount;
 
+    private final ThreadPoolExecutor mRequestExecutor;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    private final AtomicLong mFailedRequestCount = new AtomicLong();
+
+    private final AtomicLong mCachedResponseCount = new AtomicLong();
+
+    private final AtomicLong mTotalLatency = new AtomicLong();
+
     /**
      * Class to make a callback on the javascript side of this ScriptInterface. The callback is
      * stored in a map on the js side and can be identified by its callback-id, which is given to
@@ -58,6 +85,30 @@ public class ScriptInterface {
 
     ScriptInterface(ScriptAccount scriptAccount) {
         mScriptAccount = scriptAccount;
+        int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+        ScriptResolverMetaData metaData = scriptAccount.getMetaData();
+        if (metaData != null && metaData.maxConcurrentRequests > 0) {
+            maxConcurrentRequests = metaData.maxConcurrentRequests;
+        }
+        mRequestExecutor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+                REQUEST_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mRequestExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops the threads of the request executor. Requests that are still queued are dropped.
+     */
+    void shutdown() {
+        mRequestExecutor.shutdownNow();
+    }
+
+    private void executeRequest(Runnable request) {
+        try {
+            mRequestExecutor.execute(request);
+        } catch (RejectedExecutionException e) {
+            // The ScriptAccount has been unloaded, so nobody is waiting for the response anymore
+            Log.d(TAG, "executeRequest - request executor has been shut down");
+        }
     }
 
     /**
@@ -110,9 +161,13 @@ public class ScriptInterface {
     @JavascriptInterface
     public void nativeAsyncRequestString(final int reqId, final String url,
             final String stringifiedExtraHeaders, final String stringifiedOptions) {
-        new Thread(new Runnable() {
+        // Requests are queued up, so that a resolver can't fan out into an unbounded number of
+        // threads and connections
+        executeRequest(new Runnable() {
             @Override
             public void run() {
+                long startTime = SystemClock.elapsedRealtime();
+                long requestCount = mRequestCount.incrementAndGet();
                 Response response = null;
                 try {
                     Map<String, String> extraHeaders = new HashMap<>();
@@ -133,14 +188,19 @@ public class ScriptInterface {
                     String username = null;
                     String password = null;
                     String data = null;
+                    int cacheMaxAge = 0;
                     if (options != null) {
                         method = options.method;
                         username = options.username;
                         password = options.password;
                         data = options.data;
+                        cacheMaxAge = options.cacheMaxAge;
+                    }
+                    response = NetworkUtils.httpRequest(method, url, extraHeaders, username,
+                            password, data, true, cacheMaxAge);
+                    if (response.networkResponse() == null) {
+                        mCachedResponseCount.incrementAndGet();
                     }
-                    response = NetworkUtils.httpRequest(
-                            method, url, extraHeaders, username, password, data, true);
                     String responseText = response.body().string();
                     Map<String, List<String>> responseHeaders = new HashMap<>();
                     for (String headerName : response.headers().names()) {
@@ -153,9 +213,20 @@ public class ScriptInterface {
                         callback.call(responseText, responseHeaders, status, statusText);
                     }
                 } catch (IOException e) {
+                    mFailedRequestCount.incrementAndGet();
                     Log.e(TAG, "nativeAsyncRequestString: " + e.getClass() + ": "
                             + e.getLocalizedMessage());
                 } finally {
+                    long totalLatency =
+                            mTotalLatency.addAndGet(SystemClock.elapsedRealtime() - startTime);
+                    if (requestCount % STATS_LOG_INTERVAL == 0) {
+                        Log.d(TAG, "nativeAsyncRequestString - " + mScriptAccount.getName()
+                                + " - requests: " + requestCount
+                                + ", failed: " + mFailedRequestCount.get()
+                                + ", cached: " + mCachedResponseCount.get()
+                                + ", total latency: " + totalLatency + "ms"
+                                + ", queued: " + mRequestExecutor.getQueue().size());
+                    }
                     if (response != null) {
                         try {
                             response.body().close();
@@ -166,7 +237,16 @@ public class ScriptInterface {
                     }
                 }
             }
-        }).start();
+        });
+    }
+
+    /**
+     * This method is being called in tomahawk_android_pre.js to pull the response text of a native
+     * async request, so that it doesn't have to be escaped into a javascript call.
+     */
+    @JavascriptInterface
+    public String nativeAsyncResponseText(int reqId) {
+        return mScriptAccount.takeNativeAsyncResponseText(reqId);
     }
 
     @JavascriptInterface
@@ -254,10 +334,7 @@ public class ScriptInterface {
 
     @JavascriptInterface
     public void reportScriptJobResultsString(String result) {
-        JsonElement node = GsonHelper.get().fromJson(result, JsonElement.class);
-        if (node.isJsonObject()) {
-            mScriptAccount.reportScriptJobResult((JsonObject) node);
-        }
+        mScriptAccount.reportScriptJobResult(result);
     }
 
     @JavascriptInterface
@@ -20,12 +20,15 @@ package org.tomahawk.libtomahawk.resolver;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
 
 import org.tomahawk.libtomahawk.utils.GsonHelper;
 
 import android.util.Log;
 
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -34,7 +37,7 @@ import java.util.Map;
  * callback data whenever the JS method has returned and the data has been passed to the Java side
  * again.
  */
-public class ScriptJob {
+public class ScriptJob implements ResolverScheduler.CancellableJob {
 
     public static final String TAG = ScriptJob.class.getSimpleName();
 
@@ -48,6 +51,8 @@ public class ScriptJob {
 
     private FailureCallback mFailureCallback;
 
+    private volatile String mRequestId;
+
     private interface SuccessCallback {
 
     }
@@ -67,6 +72,18 @@ public class ScriptJob {
         void onReportResults(JsonPrimitive results);
     }
 
+    /**
+     * Callback that decodes the results itself, directly from the stream they are being read from
+     */
+    public interface ResultsReaderCallback extends SuccessCallback {
+
+        /**
+         * @param reader the {@link JsonReader} positioned at the results. The results have to be
+         *               consumed completely.
+         */
+        void onReportResults(JsonReader reader) throws IOException;
+    }
+
     public interface ResultsEmptyCallback extends SuccessCallback {
 
         void onReportResults();
@@ -104,12 +121,15 @@ public class ScriptJob {
      * @param successCallback A callback object that will get called when the request has
      *                        successfully returned from the JS side.
      * @param failureCallback A callback object that will get called when the request has failed.
+     * @return the started {@link ScriptJob}, which can be used to cancel it
      */
-    public static void start(ScriptObject object, String methodName, Map<String, Object> arguments,
-            SuccessCallback successCallback, FailureCallback failureCallback) {
+    public static ScriptJob start(ScriptObject object, String methodName,
+            Map<String, Object> arguments, SuccessCallback successCallback,
+            FailureCallback failureCallback) {
         ScriptJob job = new ScriptJob(object, methodName, arguments, successCallback,
                 failureCallback);
         object.getScriptAccount().startJob(job);
+        return job;
     }
 
     /**
@@ -224,6 +244,29 @@ public class ScriptJob {
         return mArguments;
     }
 
+    /**
+     * @return the id this {@link ScriptJob} has been started with or null if it hasn't been
+     * started yet
+     */
+    public String getRequestId() {
+        return mRequestId;
+    }
+
+    void setRequestId(String requestId) {
+        mRequestId = requestId;
+    }
+
+    /**
+     * Cancels this {@link ScriptJob}. Neither its success nor its failure callback is going to be
+     * called afterwards.
+     *
+     * @return whether or not the job has still been running
+     */
+    @Override
+    public boolean cancel() {
+        return mScriptObject.getScriptAccount().cancelJob(this);
+    }
+
     /**
      * This method is being called if the request was successful.
      *
@@ -248,6 +291,23 @@ public class ScriptJob {
         }
     }
 
+    /**
+     * This method is being called if the request was successful. The returned data is decoded
+     * directly from the given {@link JsonReader}, which is left positioned after it.
+     *
+     * @param reader The {@link JsonReader} positioned at the returned data.
+     */
+    public void reportResults(JsonReader reader) throws IOException {
+        if (mSuccessCallback instanceof ResultsReaderCallback) {
+            ((ResultsReaderCallback) mSuccessCallback).onReportResults(reader);
+        } else if (mSuccessCallback instanceof ResultsCallback) {
+            ResultsCallback callback = ((ResultsCallback) mSuccessCallback);
+            callback.onReportResults(GsonHelper.get().fromJson(reader, callback.getType()));
+        } else {
+            reportResults(new JsonParser().parse(reader));
+        }
+    }
+
     /**
      * This method is being called if the request failed.
      *
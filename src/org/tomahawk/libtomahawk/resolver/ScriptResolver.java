@@ -17,8 +17,8 @@
  */
 package org.tomahawk.libtomahawk.resolver;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
 
 import com.squareup.okhttp.Response;
 
@@ -50,7 +50,8 @@ import de.greenrobot.event.EventBus;
 /**
  * This class represents a javascript resolver.
  */
-public class ScriptResolver implements Resolver, ScriptPlugin {
+public class ScriptResolver
+        implements Resolver, ScriptPlugin, ResolverScheduler.SchedulableResolver {
 
     private final static String TAG = ScriptResolver.class.getSimpleName();
 
@@ -271,36 +272,92 @@ public class ScriptResolver implements Resolver, ScriptPlugin {
      * @return whether or not the Resolver is ready to resolve
      */
     @Override
-    public boolean resolve(final Query query) {
-        if (mInitialized) {
-            mStopped = false;
-            mTimeOutHandler.removeCallbacksAndMessages(null);
-            mTimeOutHandler.sendEmptyMessageDelayed(TIMEOUT_HANDLER_MSG, mTimeout);
-
-            ScriptJob.ResultsArrayCallback callback = new ScriptJob.ResultsArrayCallback() {
-                @Override
-                public void onReportResults(JsonArray results) {
+    public boolean resolve(Query query) {
+        return resolve(query, null) != null;
+    }
+
+    /**
+     * Invoke the javascript to resolve the given {@link Query}.
+     *
+     * @param query            the {@link Query} which should be resolved
+     * @param finishedRunnable called after the results have been reported or the job has failed
+     *                         (optional)
+     * @return the started {@link ScriptJob} or null if the Resolver isn't ready to resolve
+     */
+    @Override
+    public ScriptJob resolve(final Query query, final Runnable finishedRunnable) {
+        if (!mInitialized) {
+            return null;
+        }
+        mStopped = false;
+        mTimeOutHandler.removeCallbacksAndMessages(null);
+        mTimeOutHandler.sendEmptyMessageDelayed(TIMEOUT_HANDLER_MSG, mTimeout);
+
+        ScriptJob.ResultsReaderCallback callback = new ScriptJob.ResultsReaderCallback() {
+            @Override
+            public void onReportResults(JsonReader reader) throws IOException {
+                try {
                     ArrayList<Result> parsedResults =
-                            ScriptUtils.parseResultList(ScriptResolver.this, results);
+                            ScriptUtils.parseResultList(ScriptResolver.this, reader);
                     PipeLine.get().reportResults(query, parsedResults, mId);
                     mTimeOutHandler.removeCallbacksAndMessages(null);
                     mStopped = true;
+                } finally {
+                    if (finishedRunnable != null) {
+                        finishedRunnable.run();
+                    }
                 }
-            };
-
-            if (query.isFullTextQuery()) {
-                HashMap<String, Object> args = new HashMap<>();
-                args.put("query", query.getFullTextQuery());
-                ScriptJob.start(mScriptObject, "search", args, callback);
-            } else {
-                HashMap<String, Object> args = new HashMap<>();
-                args.put("artist", query.getArtist().getName());
-                args.put("album", query.getAlbum().getName());
-                args.put("track", query.getName());
-                ScriptJob.start(mScriptObject, "resolve", args, callback);
             }
+        };
+        ScriptJob.FailureCallback failureCallback = new ScriptJob.FailureCallback() {
+            @Override
+            public void onReportFailure(String errormessage) {
+                Log.e(TAG, "resolve - ScriptResolver: " + mId + ", query: "
+                        + query.getCacheKey() + ", errorMessage: " + errormessage);
+                if (finishedRunnable != null) {
+                    finishedRunnable.run();
+                }
+            }
+        };
+
+        if (query.isFullTextQuery()) {
+            HashMap<String, Object> args = new HashMap<>();
+            args.put("query", query.getFullTextQuery());
+            return ScriptJob.start(mScriptObject, "search", args, callback, failureCallback);
+        } else {
+            HashMap<String, Object> args = new HashMap<>();
+            args.put("artist", query.getArtist().getName());
+            args.put("album", query.getAlbum().getName());
+            args.put("track", query.getName());
+            return ScriptJob.start(mScriptObject, "resolve", args, callback, failureCallback);
         }
-        return mInitialized;
+    }
+
+    /**
+     * @return the time in ms after which this {@link ScriptResolver} is considered to have
+     * finished resolving a {@link Query}. 0 if it hasn't been provided by the resolver.
+     */
+    @Override
+    public int getTimeout() {
+        return mTimeout;
+    }
+
+    /**
+     * @return the number of {@link Query}s this {@link ScriptResolver} can resolve at the same
+     * time. 0 if it hasn't been provided by the resolver.
+     */
+    @Override
+    public int getMaxConcurrentQueries() {
+        return mScriptAccount.getMetaData().maxConcurrentQueries;
+    }
+
+    /**
+     * Invokes the jobs of this {@link ScriptResolver}'s {@link ScriptAccount}, that are waiting to
+     * be batched, right away
+     */
+    @Override
+    public void invokePendingJobs() {
+        mScriptAccount.invokePendingJobs();
     }
 
     public void getStreamUrl(final Result result) {
@@ -17,63 +17,155 @@
  */
 package org.tomahawk.libtomahawk.resolver;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.tomahawk.libtomahawk.collection.Album;
 import org.tomahawk.libtomahawk.collection.Artist;
 import org.tomahawk.libtomahawk.collection.Track;
+import org.tomahawk.libtomahawk.resolver.models.ScriptResolverResultEntry;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 public class ScriptUtils {
 
     /**
-     * Parses the given {@link JsonArray) into an {@link ArrayList} of {@link Result}s.
+     * Streams the JSON array of raw results, which the given {@link JsonReader} is positioned at,
+     * directly into an {@link ArrayList} of {@link Result}s without building a JSON tree first.
      *
-     * @param resolver   the {@link Resolver} which will be set in the {@link Result}'s constructor
-     * @param rawResults {@link JsonArray) containing the raw result information
-     * @return a {@link ArrayList} of {@link Result}s containing the parsed data
+     * @param resolver the {@link Resolver} which will be set in the {@link Result}'s constructor
+     * @param reader   {@link JsonReader} positioned at the array containing the raw results
+     * @return a {@link ArrayList} of {@link Result}s containing the parsed data. Empty if the
+     * reader isn't positioned at an array.
      */
-    public static ArrayList<Result> parseResultList(ScriptResolver resolver, JsonArray rawResults) {
+    public static ArrayList<Result> parseResultList(ScriptResolver resolver, JsonReader reader)
+            throws IOException {
         ArrayList<Result> resultList = new ArrayList<>();
-        for (JsonElement rawResult : rawResults) {
-            String url = getNodeChildAsText(rawResult, "url");
-            String track = getNodeChildAsText(rawResult, "track");
-            if (url != null && track != null) {
-                String artist = getNodeChildAsText(rawResult, "artist");
-                String album = getNodeChildAsText(rawResult, "album");
-                String purchaseUrl = getNodeChildAsText(rawResult, "purchaseUrl");
-                String linkUrl = getNodeChildAsText(rawResult, "linkUrl");
-                int albumpos = getNodeChildAsInt(rawResult, "albumpos");
-                int discnumber = getNodeChildAsInt(rawResult, "discnumber");
-                int year = getNodeChildAsInt(rawResult, "year");
-                int duration = getNodeChildAsInt(rawResult, "duration");
-                int bitrate = getNodeChildAsInt(rawResult, "bitrate");
-                int size = getNodeChildAsInt(rawResult, "size");
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return resultList;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ScriptResolverResultEntry entry = readResultEntry(reader);
+            if (entry != null && entry.url != null && entry.track != null) {
+                resultList.add(parseResult(resolver, entry));
+            }
+        }
+        reader.endArray();
+        return resultList;
+    }
+
+    /**
+     * @return the {@link ScriptResolverResultEntry} read from the object the given {@link
+     * JsonReader} is positioned at or null if it isn't positioned at an object
+     */
+    private static ScriptResolverResultEntry readResultEntry(JsonReader reader)
+            throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        ScriptResolverResultEntry entry = new ScriptResolverResultEntry();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "url":
+                    entry.url = nextString(reader);
+                    break;
+                case "artist":
+                    entry.artist = nextString(reader);
+                    break;
+                case "album":
+                    entry.album = nextString(reader);
+                    break;
+                case "track":
+                    entry.track = nextString(reader);
+                    break;
+                case "purchaseUrl":
+                    entry.purchaseUrl = nextString(reader);
+                    break;
+                case "linkUrl":
+                    entry.linkUrl = nextString(reader);
+                    break;
+                case "year":
+                    entry.year = nextString(reader);
+                    break;
+                case "albumpos":
+                    entry.albumpos = parseInt(nextString(reader));
+                    break;
+                case "discnumber":
+                    entry.discnumber = parseInt(nextString(reader));
+                    break;
+                case "duration":
+                    entry.duration = parseInt(nextString(reader));
+                    break;
+                case "bitrate":
+                    entry.bitrate = parseInt(nextString(reader));
+                    break;
+                case "size":
+                    entry.size = parseInt(nextString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return entry;
+    }
 
-                Artist artistObj = Artist.get(artist);
-                Album albumObj = Album.get(album, artistObj);
-                Track trackObj = Track.get(track, albumObj, artistObj);
-                trackObj.setAlbumPos(albumpos);
-                trackObj.setDiscNumber(discnumber);
-                trackObj.setYear(year);
-                trackObj.setDuration(duration * 1000);
+    private static Result parseResult(ScriptResolver resolver, ScriptResolverResultEntry entry) {
+        Artist artistObj = Artist.get(entry.artist);
+        Album albumObj = Album.get(entry.album, artistObj);
+        Track trackObj = Track.get(entry.track, albumObj, artistObj);
+        trackObj.setAlbumPos(entry.albumpos);
+        trackObj.setDiscNumber(entry.discnumber);
+        trackObj.setYear(parseInt(entry.year));
+        trackObj.setDuration(entry.duration * 1000);
 
-                Result result = Result.get(url, trackObj, resolver);
-                result.setBitrate(bitrate);
-                result.setSize(size);
-                result.setPurchaseUrl(purchaseUrl);
-                result.setLinkUrl(linkUrl);
-                result.setArtist(artistObj);
-                result.setAlbum(albumObj);
-                result.setTrack(trackObj);
+        Result result = Result.get(entry.url, trackObj, resolver);
+        result.setBitrate(entry.bitrate);
+        result.setSize(entry.size);
+        result.setPurchaseUrl(entry.purchaseUrl);
+        result.setLinkUrl(entry.linkUrl);
+        result.setArtist(artistObj);
+        result.setAlbum(albumObj);
+        result.setTrack(trackObj);
+        return result;
+    }
 
-                resultList.add(result);
+    /**
+     * @return the primitive value the given {@link JsonReader} is positioned at as a String or
+     * null if it isn't positioned at a primitive value
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    /**
+     * @return the given value as an int or 0 if it isn't a number. Fractions are cut off.
+     */
+    private static int parseInt(String value) {
+        if (value != null) {
+            try {
+                return (int) Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                // Not a number, so we fall back to 0
             }
         }
-        return resultList;
+        return 0;
     }
 
     public static String getNodeChildAsText(JsonElement node, String fieldName) {
@@ -27,6 +27,11 @@ public class ScriptInterfaceRequestOptions {
 
     public String data;
 
+    /**
+     * Time in seconds for which the response should be cached (optional)
+     */
+    public int cacheMaxAge;
+
     public ScriptInterfaceRequestOptions() {
     }
 }
@@ -39,6 +39,16 @@ public class ScriptResolverMetaData {
 
     public String[] staticCapabilities;
 
+    /**
+     * The number of native requests the resolver can run at the same time (optional)
+     */
+    public int maxConcurrentRequests;
+
+    /**
+     * The number of queries the resolver can resolve at the same time (optional)
+     */
+    public int maxConcurrentQueries;
+
     public ScriptResolverMetaData() {
     }
 }
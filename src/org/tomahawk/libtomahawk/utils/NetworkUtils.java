@@ -1,6 +1,9 @@
 package org.tomahawk.libtomahawk.utils;
 
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.Credentials;
+import com.squareup.okhttp.Interceptor;
 import com.squareup.okhttp.MediaType;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
@@ -13,6 +16,7 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.Proxy;
 import java.util.Map;
@@ -25,6 +29,77 @@ public class NetworkUtils {
     private static final MediaType MEDIA_TYPE_FORM =
             MediaType.parse("application/x-www-form-urlencoded");
 
+    private static final int TIMEOUT = 15000;
+
+    private static final long HTTP_CACHE_SIZE = 1024 * 1024 * 10;
+
+    /**
+     * Attached as the tag of a {@link Request}, whose response should be cached for the given
+     * time, regardless of what the server says about it
+     */
+    private static class CacheHint {
+
+        private final int mMaxAge;
+
+        private CacheHint(int maxAge) {
+            mMaxAge = maxAge;
+        }
+    }
+
+    private static final Interceptor CACHE_HINT_INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Response response = chain.proceed(chain.request());
+            Object tag = chain.request().tag();
+            // Responses to authorized requests are private and mustn't be made cacheable
+            if (tag instanceof CacheHint && response.isSuccessful()
+                    && chain.request().header("Authorization") == null) {
+                return response.newBuilder()
+                        .removeHeader("Pragma")
+                        .header("Cache-Control", "public, max-age=" + ((CacheHint) tag).mMaxAge)
+                        .build();
+            }
+            return response;
+        }
+    };
+
+    private static class Holder {
+
+        private static final OkHttpClient instance = createSharedClient();
+
+    }
+
+    private static OkHttpClient createSharedClient() {
+        OkHttpClient client = new OkHttpClient();
+        client.setConnectTimeout(TIMEOUT, TimeUnit.MILLISECONDS);
+        client.setReadTimeout(TIMEOUT, TimeUnit.MILLISECONDS);
+        client.setConnectionPool(ConnectionPool.getDefault());
+        File cacheDir = new File(TomahawkApp.getContext().getCacheDir(), "httpCache");
+        client.setCache(new Cache(cacheDir, HTTP_CACHE_SIZE));
+        client.networkInterceptors().add(CACHE_HINT_INTERCEPTOR);
+        return client;
+    }
+
+    /**
+     * @return the {@link OkHttpClient} that is being shared by all requests, so that they share
+     * its connection pool and response cache. Use {@link OkHttpClient#clone()} to get a client
+     * with a different configuration that still shares both.
+     */
+    public static OkHttpClient getSharedClient() {
+        return Holder.instance;
+    }
+
+    private static boolean hasAuthorizationHeader(Map<String, String> headers) {
+        if (headers != null) {
+            for (String key : headers.keySet()) {
+                if ("Authorization".equalsIgnoreCase(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Does a HTTP or HTTPS request
      *
@@ -42,11 +117,33 @@ public class NetworkUtils {
     public static Response httpRequest(String method, String urlString,
             Map<String, String> extraHeaders, final String username, final String password,
             String data, boolean followRedirects) throws IOException {
-        OkHttpClient client = new OkHttpClient();
+        return httpRequest(method, urlString, extraHeaders, username, password, data,
+                followRedirects, 0);
+    }
 
-        //Set time-outs
-        client.setConnectTimeout(15000, TimeUnit.MILLISECONDS);
-        client.setReadTimeout(15000, TimeUnit.MILLISECONDS);
+    /**
+     * Does a HTTP or HTTPS request
+     *
+     * @param method          the method that should be used ("GET" or "POST"), defaults to "GET"
+     *                        (optional)
+     * @param urlString       the complete url string to do the request with
+     * @param extraHeaders    extra headers that should be added to the request (optional)
+     * @param username        the username for HTTP Basic Auth (optional)
+     * @param password        the password for HTTP Basic Auth (optional)
+     * @param data            the body data included in POST requests (optional)
+     * @param followRedirects whether or not to follow redirects (also defines what is being
+     *                        returned)
+     * @param cacheMaxAge     the time in seconds for which a successful response to a GET request
+     *                        is being cached, even if the server doesn't allow it. 0 to only
+     *                        cache what the server allows. Ignored for requests with
+     *                        credentials.
+     * @return a HttpURLConnection
+     */
+    public static Response httpRequest(String method, String urlString,
+            Map<String, String> extraHeaders, final String username, final String password,
+            String data, boolean followRedirects, int cacheMaxAge) throws IOException {
+        // Cloning is cheap and keeps the connection pool and the cache shared
+        OkHttpClient client = getSharedClient().clone();
 
         client.setFollowRedirects(followRedirects);
 
@@ -70,6 +167,10 @@ public class NetworkUtils {
 
         // Create request for remote resource.
         Request.Builder builder = new Request.Builder().url(urlString);
+        if (cacheMaxAge > 0 && username == null && password == null
+                && !hasAuthorizationHeader(extraHeaders)) {
+            builder.tag(new CacheHint(cacheMaxAge));
+        }
 
         // Add headers if available
         if (extraHeaders != null) {
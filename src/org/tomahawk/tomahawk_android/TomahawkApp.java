@@ -22,6 +22,8 @@ import org.acra.ACRA;
 import org.acra.ReportingInteractionMode;
 import org.acra.annotation.ReportsCrashes;
 import org.acra.sender.HttpSender;
+import org.tomahawk.libtomahawk.collection.Cacheable;
+import org.tomahawk.libtomahawk.collection.CacheableRegistry;
 import org.tomahawk.tomahawk_android.services.PlaybackService;
 import org.tomahawk.tomahawk_android.utils.TomahawkHttpSender;
 
@@ -30,6 +32,8 @@ import android.content.Context;
 import android.os.StrictMode;
 import android.util.Log;
 
+import java.util.Map;
+
 /**
  * This class represents the Application core.
  */
@@ -95,6 +99,24 @@ public class TomahawkApp extends Application {
         sApplicationContext = getApplicationContext();
     }
 
+    /**
+     * Logs the size, hit and miss counters of the {@link Cacheable} registries, since they are
+     * what's taking up most of the heap on long sessions
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        for (Map.Entry<Class, CacheableRegistry.Stats> entry : Cacheable.getCacheStats()
+                .entrySet()) {
+            CacheableRegistry.Stats stats = entry.getValue();
+            Log.d(TAG, "onTrimMemory - level: " + level + ", " + entry.getKey().getSimpleName()
+                    + " - size: " + stats.mSize + ", capacity: " + stats.mCapacity
+                    + ", hits: " + stats.mHits + ", misses: " + stats.mMisses
+                    + ", evictions: " + stats.mEvictions);
+        }
+    }
+
     public static Context getContext() {
         return sApplicationContext;
     }
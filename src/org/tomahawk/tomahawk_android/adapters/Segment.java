@@ -19,6 +19,7 @@ package org.tomahawk.tomahawk_android.adapters;
 
 import org.tomahawk.libtomahawk.collection.CollectionCursor;
 import org.tomahawk.libtomahawk.collection.Playlist;
+import org.tomahawk.libtomahawk.collection.SectionTable;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 
 import android.content.res.Resources;
@@ -209,6 +210,22 @@ public class Segment {
         }
     }
 
+    /**
+     * @return the {@link SectionTable} of this {@link Segment}'s items or null if there is none or
+     * if the rows of this {@link Segment} don't map directly to its items
+     */
+    public SectionTable getSectionTable() {
+        if (mColumnCount > 1 || mOffset > 0) {
+            return null;
+        }
+        if (mCollectionCursor != null) {
+            return mCollectionCursor.getSectionTable();
+        } else if (mPlaylist != null) {
+            return mPlaylist.getSectionTable();
+        }
+        return null;
+    }
+
     public void close() {
         if (mCollectionCursor != null) {
             mCollectionCursor.close();
@@ -29,6 +29,7 @@ import org.tomahawk.libtomahawk.collection.Collection;
 import org.tomahawk.libtomahawk.collection.ListItemString;
 import org.tomahawk.libtomahawk.collection.Playlist;
 import org.tomahawk.libtomahawk.collection.PlaylistEntry;
+import org.tomahawk.libtomahawk.collection.SectionTable;
 import org.tomahawk.libtomahawk.infosystem.SocialAction;
 import org.tomahawk.libtomahawk.infosystem.User;
 import org.tomahawk.libtomahawk.resolver.Query;
@@ -50,6 +51,7 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
+import android.widget.SectionIndexer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -60,7 +62,7 @@ import se.emilsjolander.stickylistheaders.StickyListHeadersListView;
  * This class is used to populate a {@link se.emilsjolander.stickylistheaders.StickyListHeadersListView}.
  */
 public class TomahawkListAdapter extends StickyBaseAdapter implements
-        SwipeItemMangerInterface, SwipeAdapterInterface {
+        SwipeItemMangerInterface, SwipeAdapterInterface, SectionIndexer {
 
     private static final String TAG = TomahawkListAdapter.class.getSimpleName();
 
@@ -561,6 +563,69 @@ public class TomahawkListAdapter extends StickyBaseAdapter implements
         return 0;
     }
 
+    /**
+     * @return the position of the first row of the first {@link Segment} that has a {@link
+     * SectionTable} or -1 if there is no such {@link Segment}
+     */
+    private int getSectionedSegmentStart() {
+        int position = mHeaderSpacerHeight > 0 ? 1 : 0;
+        for (Segment segment : mSegments) {
+            if (segment.getSectionTable() != null) {
+                return position;
+            }
+            position += segment.getRowCount();
+        }
+        return -1;
+    }
+
+    private SectionTable getSectionTable() {
+        for (Segment segment : mSegments) {
+            SectionTable sectionTable = segment.getSectionTable();
+            if (sectionTable != null) {
+                return sectionTable;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method is being called by the fast scroller. The sections are taken from the {@link
+     * SectionTable} of the first {@link Segment} that has one.
+     */
+    @Override
+    public Object[] getSections() {
+        SectionTable sectionTable = getSectionTable();
+        if (sectionTable == null) {
+            return new String[0];
+        }
+        String[] sections = new String[sectionTable.getSectionCount()];
+        for (int i = 0; i < sections.length; i++) {
+            sections[i] = sectionTable.getKey(i).toUpperCase();
+        }
+        return sections;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        SectionTable sectionTable = getSectionTable();
+        if (sectionTable == null || sectionTable.getSectionCount() == 0) {
+            return 0;
+        }
+        sectionIndex = Math.max(0, Math.min(sectionIndex, sectionTable.getSectionCount() - 1));
+        return getSectionedSegmentStart() + sectionTable.getStartOffset(sectionIndex);
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        SectionTable sectionTable = getSectionTable();
+        if (sectionTable == null || sectionTable.getSectionCount() == 0) {
+            return 0;
+        }
+        int posInSegment = position - getSectionedSegmentStart();
+        posInSegment = Math.max(0, Math.min(posInSegment, sectionTable.getItemCount() - 1));
+        return sectionTable.getSectionForPosition(posInSegment);
+    }
+
     /**
      * Get the id of the item for the given position. (Id is equal to given position)
      */
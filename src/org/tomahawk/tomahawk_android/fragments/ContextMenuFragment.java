@@ -178,6 +178,10 @@ public class ContextMenuFragment extends Fragment {
                         break;
                     case TomahawkFragment.SOCIALACTION:
                         SocialAction socialAction = SocialAction.getByKey(key);
+                        if (socialAction == null) {
+                            getActivity().getSupportFragmentManager().popBackStack();
+                            break;
+                        }
                         Object targetObject = socialAction.getTargetObject();
                         if (targetObject instanceof Artist) {
                             mArtist = (Artist) targetObject;
@@ -160,7 +160,8 @@ public class SearchPagerFragment extends PagerFragment {
         super.onPause();
 
         for (Query query : mCorrespondingQueries) {
-            if (ThreadManager.get().stop(query)) {
+            boolean stopped = ThreadManager.get().stop(query);
+            if (PipeLine.get().cancel(query) || stopped) {
                 mCorrespondingQueries.remove(query);
             }
         }
@@ -82,7 +82,8 @@ public abstract class SelectorFragment extends Fragment {
         super.onPause();
 
         for (Query query : mCorrespondingQueries) {
-            if (ThreadManager.get().stop(query)) {
+            boolean stopped = ThreadManager.get().stop(query);
+            if (PipeLine.get().cancel(query) || stopped) {
                 mCorrespondingQueries.remove(query);
             }
         }
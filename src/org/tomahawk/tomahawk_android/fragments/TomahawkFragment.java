@@ -31,6 +31,7 @@ import org.tomahawk.libtomahawk.infosystem.SocialAction;
 import org.tomahawk.libtomahawk.infosystem.User;
 import org.tomahawk.libtomahawk.resolver.PipeLine;
 import org.tomahawk.libtomahawk.resolver.Query;
+import org.tomahawk.libtomahawk.resolver.ResolverScheduler;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
 import org.tomahawk.tomahawk_android.adapters.Segment;
@@ -135,6 +136,11 @@ public abstract class TomahawkFragment extends TomahawkListFragment
     protected final Set<Query> mCorrespondingQueries =
             Collections.newSetFromMap(new ConcurrentHashMap<Query, Boolean>());
 
+    /**
+     * The queries of the list rows that have been auto resolved the last time
+     */
+    private final Set<Query> mRangeQueries = new HashSet<>();
+
     protected ArrayList<Query> mQueryArray;
 
     protected ArrayList<Album> mAlbumArray;
@@ -402,10 +408,12 @@ public abstract class TomahawkFragment extends TomahawkListFragment
         super.onPause();
 
         for (Query query : mCorrespondingQueries) {
-            if (ThreadManager.get().stop(query)) {
+            boolean stopped = ThreadManager.get().stop(query);
+            if (PipeLine.get().cancel(query) || stopped) {
                 mCorrespondingQueries.remove(query);
             }
         }
+        mRangeQueries.clear();
 
         mAdapterUpdateHandler.removeCallbacksAndMessages(null);
 
@@ -583,16 +591,64 @@ public abstract class TomahawkFragment extends TomahawkListFragment
         if (mTomahawkListAdapter != null) {
             start = Math.max(start, 0);
             end = Math.min(end, mTomahawkListAdapter.getCount());
+            int firstVisible = mFirstVisibleItemLastTime;
+            int endVisible = mFirstVisibleItemLastTime + mVisibleItemCount;
+            Set<Query> visibleQueries = new HashSet<>();
+            Set<Query> prefetchQueries = new HashSet<>();
+            Set<Query> rangeQueries = new HashSet<>();
             for (int i = start; i < end; i++) {
+                Set<Query> queries = i >= firstVisible && i < endVisible
+                        ? visibleQueries : prefetchQueries;
                 Object object = mTomahawkListAdapter.getItem(i);
                 if (object instanceof List) {
                     for (Object item : (List) object) {
-                        resolveItem(item);
+                        resolveItem(item, queries, rangeQueries);
                     }
                 } else {
-                    resolveItem(object);
+                    resolveItem(object, queries, rangeQueries);
+                }
+            }
+            prefetchQueries.removeAll(visibleQueries);
+            // Stop resolving the queries whose rows have been scrolled out of range, so that they
+            // don't keep the resolvers from resolving the visible ones
+            for (Query query : mRangeQueries) {
+                if (!rangeQueries.contains(query) && PipeLine.get().cancel(query)) {
+                    mCorrespondingQueries.remove(query);
                 }
             }
+            mRangeQueries.clear();
+            mRangeQueries.addAll(rangeQueries);
+            // Resolve all visible queries in one batch
+            if (!visibleQueries.isEmpty()) {
+                mCorrespondingQueries.addAll(PipeLine.get().resolve(visibleQueries, false,
+                        ResolverScheduler.PRIORITY_VISIBLE));
+            }
+            if (!prefetchQueries.isEmpty()) {
+                mCorrespondingQueries.addAll(PipeLine.get().resolve(prefetchQueries, false,
+                        ResolverScheduler.PRIORITY_PREFETCH));
+            }
+        }
+    }
+
+    /**
+     * Adds the given object's {@link Query} to the given Set of queries that are to be resolved in
+     * one batch and to the given Set of all queries in range. Every other kind of object is being
+     * resolved right away.
+     */
+    private void resolveItem(Object object, Set<Query> queries, Set<Query> rangeQueries) {
+        Query query = null;
+        if (object instanceof PlaylistEntry) {
+            query = ((PlaylistEntry) object).getQuery();
+        } else if (object instanceof Query) {
+            query = (Query) object;
+        }
+        if (query != null) {
+            rangeQueries.add(query);
+            if (!mCorrespondingQueries.contains(query)) {
+                queries.add(query);
+            }
+        } else {
+            resolveItem(object);
         }
     }
 
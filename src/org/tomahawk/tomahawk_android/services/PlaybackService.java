@@ -32,6 +32,7 @@ import org.tomahawk.libtomahawk.database.DatabaseHelper;
 import org.tomahawk.libtomahawk.infosystem.InfoSystem;
 import org.tomahawk.libtomahawk.resolver.PipeLine;
 import org.tomahawk.libtomahawk.resolver.Query;
+import org.tomahawk.libtomahawk.resolver.ResolverScheduler;
 import org.tomahawk.libtomahawk.utils.ImageUtils;
 import org.tomahawk.tomahawk_android.R;
 import org.tomahawk.tomahawk_android.TomahawkApp;
@@ -696,6 +697,8 @@ public class PlaybackService extends Service implements MusicFocusable {
         mPhoneCallListener = null;
         mKillTimerHandler.removeCallbacksAndMessages(null);
         mKillTimerHandler = null;
+        // Make sure that no playlist mutations are lost if the process is killed after this
+        DatabaseHelper.get().flushPendingWrites();
 
         Log.d(TAG, "PlaybackService has been destroyed");
     }
@@ -1493,13 +1496,24 @@ public class PlaybackService extends Service implements MusicFocusable {
         for (int i = start; i < end; i++) {
             if (i >= 0 && i < getPlaybackListSize()) {
                 Query q = getPlaybackListEntry(i).getQuery();
-                if (!mCorrespondingQueries.contains(q)) {
+                if (i == mCurrentIndex) {
+                    // The currently playing query is resolved before everything else. If it's
+                    // still queued up as a next-up query, this raises its priority. It is only
+                    // resolved again, if none of its jobs are left.
+                    if (!mCorrespondingQueries.contains(q) || !q.isSolved()
+                            && ResolverScheduler.get().getPriority(q)
+                            < ResolverScheduler.PRIORITY_PLAYING) {
+                        mCorrespondingQueries.add(PipeLine.get()
+                                .resolve(q, false, ResolverScheduler.PRIORITY_PLAYING));
+                    }
+                } else if (!mCorrespondingQueries.contains(q)) {
                     qs.add(q);
                 }
             }
         }
         if (!qs.isEmpty()) {
-            HashSet<Query> queries = PipeLine.get().resolve(qs);
+            HashSet<Query> queries =
+                    PipeLine.get().resolve(qs, false, ResolverScheduler.PRIORITY_NEXT_UP);
             mCorrespondingQueries.addAll(queries);
         }
     }
@@ -0,0 +1,78 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.tomahawk_android.utils;
+
+import org.tomahawk.libtomahawk.resolver.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link TomahawkRunnable} that works on a batch of {@link Query}s. Stopping one of its {@link
+ * Query}s via {@link ThreadManager#stop(Query)} only drops that {@link Query} from the batch, as
+ * long as the batch hasn't been started yet.
+ */
+public abstract class QueryBatchRunnable extends TomahawkRunnable {
+
+    private final Set<Query> mQueries;
+
+    private boolean mStarted;
+
+    public QueryBatchRunnable(int priority, Collection<Query> queries) {
+        super(priority);
+        mQueries = new LinkedHashSet<>(queries);
+    }
+
+    @Override
+    public final void run() {
+        List<Query> queries;
+        synchronized (this) {
+            mStarted = true;
+            queries = new ArrayList<>(mQueries);
+        }
+        ThreadManager.get().unregister(this, queries);
+        if (!queries.isEmpty()) {
+            run(queries);
+        }
+    }
+
+    /**
+     * Runs this batch for all of its {@link Query}s that haven't been stopped
+     */
+    public abstract void run(List<Query> queries);
+
+    synchronized List<Query> getQueries() {
+        return new ArrayList<>(mQueries);
+    }
+
+    /**
+     * Drops the given {@link Query} from this batch
+     *
+     * @return whether or not the {@link Query} has been dropped before the batch was started
+     */
+    synchronized boolean remove(Query query) {
+        return !mStarted && mQueries.remove(query);
+    }
+
+    synchronized boolean isEmpty() {
+        return mQueries.isEmpty();
+    }
+}
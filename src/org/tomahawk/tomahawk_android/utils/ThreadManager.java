@@ -70,27 +70,76 @@ public class ThreadManager {
     }
 
     public void execute(TomahawkRunnable r, Query query) {
-        Collection<TomahawkRunnable> runnables = mQueryRunnableMap.get(query);
-        if (runnables == null) {
-            runnables = new HashSet<>();
+        register(r, query);
+        mThreadPool.execute(r);
+    }
+
+    /**
+     * Executes the given {@link QueryBatchRunnable} and registers it under every {@link Query} it
+     * covers, so that each of them can be stopped individually
+     */
+    public void executeBatch(QueryBatchRunnable r) {
+        for (Query query : r.getQueries()) {
+            register(r, query);
         }
-        runnables.add(r);
-        mQueryRunnableMap.put(query, runnables);
         mThreadPool.execute(r);
     }
 
     public boolean stop(Query query) {
         boolean success = false;
-        Collection<TomahawkRunnable> runnables = mQueryRunnableMap.remove(query);
+        Collection<TomahawkRunnable> runnables;
+        synchronized (mQueryRunnableMap) {
+            runnables = mQueryRunnableMap.remove(query);
+        }
         if (runnables != null) {
             for (TomahawkRunnable r : runnables) {
-                mThreadPool.remove(r);
-                success = true;
+                if (r instanceof QueryBatchRunnable) {
+                    // Only drop the Query from the batch, the other Queries still need it
+                    QueryBatchRunnable batch = (QueryBatchRunnable) r;
+                    if (batch.remove(query)) {
+                        success = true;
+                        if (batch.isEmpty()) {
+                            mThreadPool.remove(r);
+                        }
+                    }
+                } else {
+                    mThreadPool.remove(r);
+                    success = true;
+                }
             }
         }
         return success;
     }
 
+    private void register(TomahawkRunnable r, Query query) {
+        synchronized (mQueryRunnableMap) {
+            Collection<TomahawkRunnable> runnables = mQueryRunnableMap.get(query);
+            if (runnables == null) {
+                runnables = new HashSet<>();
+                mQueryRunnableMap.put(query, runnables);
+            }
+            runnables.add(r);
+        }
+    }
+
+    /**
+     * Removes the given {@link TomahawkRunnable} from the {@link Query}s it has been registered
+     * under, once it has been started
+     */
+    void unregister(TomahawkRunnable r, Collection<Query> queries) {
+        synchronized (mQueryRunnableMap) {
+            for (Query query : queries) {
+                Collection<TomahawkRunnable> runnables = mQueryRunnableMap.get(query);
+                if (runnables != null) {
+                    runnables.remove(r);
+                    if (runnables.isEmpty()) {
+                        mQueryRunnableMap.remove(query);
+                    }
+                }
+            }
+        }
+    }
+
     public void executePlayback(TomahawkRunnable r) {
         mPlaybackThreadPool.execute(r);
     }
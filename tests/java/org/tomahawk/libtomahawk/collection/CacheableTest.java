@@ -0,0 +1,120 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.collection;
+
+import org.tomahawk.libtomahawk.utils.MicroBenchmark;
+
+import junit.framework.TestCase;
+
+/**
+ * Makes sure that {@link Cacheable#getCacheKey(Object...)} and its fixed-arity overloads keep
+ * producing the exact same keys as the original String concatenation did.
+ */
+public class CacheableTest extends TestCase {
+
+    private static final Object[][] PARTS = new Object[][]{
+            {"a"},
+            {""},
+            {Boolean.TRUE},
+            {null},
+            {"artist", "album"},
+            {null, "album"},
+            {"artist", null},
+            {"", ""},
+            {"track", "artist", "album"},
+            {"track", null, "album"},
+            {"track", "artist", "album", "url"},
+            {"track", "artist", "album", "url", Boolean.FALSE},
+            {null, null, null, null, Boolean.TRUE},
+            {"track", "artist", "album", "url", Boolean.TRUE, "resolver"},
+            {"tab\ttab", "\u00e4\u00f6\u00fc", "\t"},
+    };
+
+    public void testFixedArityMatchesLegacyFormat() {
+        for (Object[] parts : PARTS) {
+            assertEquals(getLegacyCacheKey(parts), getFixedArityCacheKey(parts));
+        }
+    }
+
+    public void testVarargsMatchesLegacyFormat() {
+        for (Object[] parts : PARTS) {
+            assertEquals(getLegacyCacheKey(parts), Cacheable.getCacheKey((Object[]) parts));
+        }
+    }
+
+    public void testSingleStringIsReturnedAsIs() {
+        String key = new String("query");
+        assertSame(key, Cacheable.getCacheKey(key));
+    }
+
+    public void testTiming() {
+        final String artist = "Some Artist";
+        final String album = "Some Album";
+        final String track = "Some Track";
+        MicroBenchmark.measure("legacy getCacheKey(3)", 100000, new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                return getLegacyCacheKey(new Object[]{track, artist, album});
+            }
+        });
+        MicroBenchmark.measure("getCacheKey(3)", 100000, new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                return Cacheable.getCacheKey(track, artist, album);
+            }
+        });
+    }
+
+    private static String getFixedArityCacheKey(Object[] parts) {
+        switch (parts.length) {
+            case 1:
+                return Cacheable.getCacheKey(parts[0]);
+            case 2:
+                return Cacheable.getCacheKey(parts[0], parts[1]);
+            case 3:
+                return Cacheable.getCacheKey(parts[0], parts[1], parts[2]);
+            case 4:
+                return Cacheable.getCacheKey(parts[0], parts[1], parts[2], parts[3]);
+            case 5:
+                return Cacheable.getCacheKey(parts[0], parts[1], parts[2], parts[3], parts[4]);
+            default:
+                return Cacheable.getCacheKey(parts);
+        }
+    }
+
+    /**
+     * The original implementation of {@link Cacheable#getCacheKey(Object...)}
+     */
+    private static String getLegacyCacheKey(Object[] objects) {
+        String result = "";
+        for (int i = 0; i < objects.length; i++) {
+            Object o = objects[i];
+            if (o != null) {
+                if (i > 0) {
+                    result += "\t\t";
+                }
+                if (o instanceof String) {
+                    result += ((String) o);
+                } else if (o instanceof Boolean) {
+                    result += ((Boolean) o) ? "1" : "0";
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,241 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.collection;
+
+import org.tomahawk.libtomahawk.database.CollectionDb;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pages through a {@link CollectionCursor} backed by an in-memory {@link
+ * CollectionCursor.PageLoader}, whose sort keys have ties across page boundaries
+ */
+public class CollectionCursorTest extends TestCase {
+
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * The number of consecutive items that share the same sort key
+     */
+    private static final int TIE_SIZE = 7;
+
+    /**
+     * The time in ms a blocked page load waits before it continues
+     */
+    private static final long BLOCK_TIME = 1000;
+
+    private static class LoadPageCall {
+
+        private final String[] mAfterKey;
+
+        private final int mOffset;
+
+        private LoadPageCall(String[] afterKey, int offset) {
+            mAfterKey = afterKey;
+            mOffset = offset;
+        }
+    }
+
+    private static class FakePageLoader implements CollectionCursor.PageLoader {
+
+        private final int mCount;
+
+        private final List<LoadPageCall> mCalls =
+                Collections.synchronizedList(new ArrayList<LoadPageCall>());
+
+        /**
+         * The offset of the page whose load is being blocked until mReleaseLatch is counted down
+         */
+        private volatile int mBlockedOffset = -1;
+
+        private final CountDownLatch mBlockedLoadStartedLatch = new CountDownLatch(1);
+
+        private final CountDownLatch mReleaseLatch = new CountDownLatch(1);
+
+        private FakePageLoader(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public Cursor loadPage(String[] afterKey, int offset, int limit) {
+            mCalls.add(new LoadPageCall(afterKey, offset));
+            if (offset == mBlockedOffset) {
+                mBlockedLoadStartedLatch.countDown();
+                try {
+                    mReleaseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            int start = offset;
+            if (afterKey != null) {
+                start = 0;
+                while (start < mCount && compare(start, afterKey) <= 0) {
+                    start++;
+                }
+            }
+            MatrixCursor cursor = new MatrixCursor(
+                    new String[]{CollectionDb.ARTISTS_ARTIST, "sortKey", "id"});
+            for (int i = start; i < Math.min(start + limit, mCount); i++) {
+                cursor.addRow(new Object[]{name(i), sortKey(i), String.valueOf(i)});
+            }
+            return cursor;
+        }
+
+        @Override
+        public SectionTable getSections() {
+            return null;
+        }
+
+        @Override
+        public Cursor loadArtistNames() {
+            MatrixCursor cursor = new MatrixCursor(new String[]{CollectionDb.ARTISTS_ARTIST});
+            for (int i = 0; i < mCount; i++) {
+                cursor.addRow(new Object[]{name(i)});
+            }
+            return cursor;
+        }
+
+        private static int compare(int index, String[] key) {
+            int result = sortKey(index).compareTo(key[0]);
+            if (result == 0) {
+                long id = Long.parseLong(key[1]);
+                result = index < id ? -1 : (index == id ? 0 : 1);
+            }
+            return result;
+        }
+    }
+
+    public void testSequentialAccessUsesKeysetOfPreviousPage() {
+        FakePageLoader pageLoader = new FakePageLoader(350);
+        CollectionCursor<Artist> cursor = new CollectionCursor<>(pageLoader, Artist.class, null,
+                null);
+
+        for (int i = 0; i < pageLoader.getCount(); i++) {
+            assertEquals(name(i), cursor.get(i).getName());
+        }
+        assertNull(cursor.get(pageLoader.getCount()));
+
+        synchronized (pageLoader.mCalls) {
+            for (LoadPageCall call : pageLoader.mCalls) {
+                if (call.mOffset == 0) {
+                    assertNull(call.mAfterKey);
+                } else {
+                    assertKeyOf(call.mOffset - 1, call.mAfterKey);
+                }
+            }
+        }
+        cursor.close();
+    }
+
+    public void testPageBoundaries() {
+        FakePageLoader pageLoader = new FakePageLoader(3 * PAGE_SIZE);
+        CollectionCursor<Artist> cursor = new CollectionCursor<>(pageLoader, Artist.class, null,
+                null);
+
+        int[] locations = new int[]{0, PAGE_SIZE - 1, PAGE_SIZE, 2 * PAGE_SIZE - 1,
+                2 * PAGE_SIZE, 3 * PAGE_SIZE - 1};
+        for (int location : locations) {
+            assertEquals(name(location), cursor.get(location).getName());
+        }
+        assertEquals(3 * PAGE_SIZE, cursor.size());
+        cursor.close();
+    }
+
+    public void testJumpLoadsByOffsetAndContinuesWithKeyset() {
+        FakePageLoader pageLoader = new FakePageLoader(450);
+        CollectionCursor<Artist> cursor = new CollectionCursor<>(pageLoader, Artist.class, null,
+                null);
+
+        // Stay in the first half of the pages, so that nothing is being prefetched
+        assertEquals(name(210), cursor.get(210).getName());
+        assertEquals(1, pageLoader.mCalls.size());
+        assertNull(pageLoader.mCalls.get(0).mAfterKey);
+        assertEquals(2 * PAGE_SIZE, pageLoader.mCalls.get(0).mOffset);
+
+        assertEquals(name(310), cursor.get(310).getName());
+        assertEquals(2, pageLoader.mCalls.size());
+        assertKeyOf(3 * PAGE_SIZE - 1, pageLoader.mCalls.get(1).mAfterKey);
+        cursor.close();
+    }
+
+    public void testReadsDoNotWaitForPrefetch() throws InterruptedException {
+        final FakePageLoader pageLoader = new FakePageLoader(3 * PAGE_SIZE);
+        pageLoader.mBlockedOffset = PAGE_SIZE;
+        CollectionCursor<Artist> cursor = new CollectionCursor<>(pageLoader, Artist.class, null,
+                null);
+
+        // Passing the middle of the first page starts the prefetch of the second one
+        assertEquals(name(PAGE_SIZE / 2), cursor.get(PAGE_SIZE / 2).getName());
+        assertTrue(pageLoader.mBlockedLoadStartedLatch.await(BLOCK_TIME, TimeUnit.MILLISECONDS));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(BLOCK_TIME);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                pageLoader.mReleaseLatch.countDown();
+            }
+        }).start();
+
+        long time = System.currentTimeMillis();
+        assertEquals(name(PAGE_SIZE / 2 + 1), cursor.get(PAGE_SIZE / 2 + 1).getName());
+        assertTrue(System.currentTimeMillis() - time < BLOCK_TIME / 2);
+        cursor.close();
+    }
+
+    public void testClosedCursorReturnsNull() {
+        FakePageLoader pageLoader = new FakePageLoader(10);
+        CollectionCursor<Artist> cursor = new CollectionCursor<>(pageLoader, Artist.class, null,
+                null);
+        cursor.close();
+
+        assertNull(cursor.get(0));
+        assertTrue(pageLoader.mCalls.isEmpty());
+    }
+
+    private static void assertKeyOf(int index, String[] key) {
+        assertNotNull(key);
+        assertEquals(sortKey(index), key[0]);
+        assertEquals(String.valueOf(index), key[1]);
+    }
+
+    private static String sortKey(int index) {
+        return String.format("key_%05d", index / TIE_SIZE);
+    }
+
+    private static String name(int index) {
+        return "collectioncursortest_" + index;
+    }
+}
@@ -0,0 +1,268 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.database;
+
+import org.tomahawk.libtomahawk.resolver.models.ScriptResolverTrack;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs the differential sync and the keyset pagination of {@link CollectionDb} against a real
+ * database
+ */
+public class CollectionDbTest extends AndroidTestCase {
+
+    private static final String COLLECTION_ID = "collectiondbtest";
+
+    private CollectionDb mCollectionDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(COLLECTION_ID + "_collection.db");
+        mCollectionDb = new CollectionDb(getContext(), COLLECTION_ID);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCollectionDb.close();
+        getContext().deleteDatabase(COLLECTION_ID + "_collection.db");
+
+        super.tearDown();
+    }
+
+    public void testSyncAddsAllTracksToEmptyCollection() {
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", "url_a", 1), track("b", "url_b", 1), track("c", "url_c", 1)});
+
+        assertEquals(3, getTrackIds().size());
+    }
+
+    public void testSyncOnlyAppliesDelta() {
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", "url_a", 1), track("b", "url_b", 1), track("c", "url_c", 1)});
+        Map<String, Long> idsBefore = getTrackIds();
+        long syncTime = System.currentTimeMillis() - 1;
+
+        // "a" is unchanged, "b" has been modified, "c" has been removed and "d" has been added
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", "url_a", 1), track("b", "url_b", 2), track("d", "url_d", 1)});
+        Map<String, Long> idsAfter = getTrackIds();
+
+        assertEquals(3, idsAfter.size());
+        assertEquals(idsBefore.get("url_a"), idsAfter.get("url_a"));
+        assertFalse(idsBefore.get("url_b").equals(idsAfter.get("url_b")));
+        assertFalse(idsAfter.containsKey("url_c"));
+        assertTrue(idsAfter.containsKey("url_d"));
+        Set<Long> removedTrackIds = new HashSet<>();
+        for (Integer trackId : mCollectionDb.tracksRemovedSince(syncTime)) {
+            removedTrackIds.add(trackId.longValue());
+        }
+        Set<Long> expectedRemovedTrackIds = new HashSet<>();
+        expectedRemovedTrackIds.add(idsBefore.get("url_b"));
+        expectedRemovedTrackIds.add(idsBefore.get("url_c"));
+        assertEquals(expectedRemovedTrackIds, removedTrackIds);
+    }
+
+    public void testUnchangedSyncDoesNotStoreRevision() {
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", "url_a", 1), track("b", "url_b", 1)});
+        Map<String, Long> idsBefore = getTrackIds();
+        long lastUpdated = mCollectionDb.getLastUpdated();
+        long syncTime = System.currentTimeMillis() - 1;
+
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("b", "url_b", 1), track("a", "url_a", 1)});
+
+        assertEquals(idsBefore, getTrackIds());
+        assertEquals(lastUpdated, mCollectionDb.getLastUpdated());
+        assertTrue(mCollectionDb.tracksRemovedSince(syncTime).isEmpty());
+    }
+
+    public void testTracksWithoutUrlAreMatched() {
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", null, 1), track("b", "url_b", 1)});
+        Map<String, Long> idsBefore = getTrackIds();
+        long lastUpdated = mCollectionDb.getLastUpdated();
+        long syncTime = System.currentTimeMillis() - 1;
+
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", null, 1), track("b", "url_b", 1)});
+
+        // A track without url is matched by its artist, album, name and album position
+        assertEquals(idsBefore, getTrackIds());
+        assertEquals(lastUpdated, mCollectionDb.getLastUpdated());
+        assertTrue(mCollectionDb.tracksRemovedSince(syncTime).isEmpty());
+    }
+
+    public void testTracksWithSameUrlAreMatchedByIdentity() {
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", "url_cue", 1), track("b", "url_cue", 1)});
+        Set<Long> idsBefore = getTrackIdSet();
+        long syncTime = System.currentTimeMillis() - 1;
+
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("b", "url_cue", 1), track("a", "url_cue", 1)});
+
+        assertEquals(idsBefore, getTrackIdSet());
+        assertTrue(mCollectionDb.tracksRemovedSince(syncTime).isEmpty());
+    }
+
+    public void testAddTracksAfterReplaceOnNextCommitKeepsAllChunks() {
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", "url_a", 1), track("b", "url_b", 1)});
+
+        mCollectionDb.replaceOnNextCommit();
+        mCollectionDb.addTracks(new ScriptResolverTrack[]{track("c", "url_c", 1)});
+        mCollectionDb.addTracks(new ScriptResolverTrack[]{track("d", "url_d", 1)});
+
+        // Only the old content is replaced, the second chunk doesn't replace the first one
+        Map<String, Long> ids = getTrackIds();
+        assertEquals(2, ids.size());
+        assertTrue(ids.containsKey("url_c"));
+        assertTrue(ids.containsKey("url_d"));
+    }
+
+    public void testSyncRemovesAllTracks() {
+        mCollectionDb.syncTracks(new ScriptResolverTrack[]{
+                track("a", "url_a", 1), track("b", "url_b", 1)});
+
+        mCollectionDb.syncTracks(new ScriptResolverTrack[0]);
+
+        assertTrue(getTrackIds().isEmpty());
+        Cursor cursor = mCollectionDb.artists(null);
+        try {
+            // Orphaned artists are being cleaned up with the last of their tracks
+            while (cursor.moveToNext()) {
+                assertFalse("artist".equals(cursor.getString(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testTracksPagesHaveNoGapsOrDuplicates() {
+        // Many tracks share the same name, some only differ in case, so that ties in the sort
+        // column span page boundaries
+        ScriptResolverTrack[] tracks = new ScriptResolverTrack[250];
+        for (int i = 0; i < tracks.length; i++) {
+            String name = (i % 2 == 0 ? "track " : "TRACK ") + (i % 9);
+            tracks[i] = track(name, "url_" + i, 1);
+            tracks[i].artist = "artist " + i;
+            tracks[i].albumArtist = tracks[i].artist;
+        }
+        mCollectionDb.addTracks(tracks);
+
+        assertEquals(tracks.length, mCollectionDb.tracksCount());
+        assertPagesMatchFullQuery(false);
+        assertPagesMatchFullQuery(true);
+    }
+
+    private void assertPagesMatchFullQuery(boolean descending) {
+        List<Long> expectedIds = new ArrayList<>();
+        Cursor cursor = mCollectionDb.tracksPage(CollectionDb.TRACKS_TRACK, descending, null, 0,
+                Integer.MAX_VALUE);
+        try {
+            while (cursor.moveToNext()) {
+                expectedIds.add(cursor.getLong(cursor.getColumnCount() - 1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<Long> pagedIds = new ArrayList<>();
+        String[] afterKey = null;
+        int limit = 40;
+        while (true) {
+            cursor = mCollectionDb.tracksPage(CollectionDb.TRACKS_TRACK, descending, afterKey,
+                    0, limit);
+            try {
+                while (cursor.moveToNext()) {
+                    pagedIds.add(cursor.getLong(cursor.getColumnCount() - 1));
+                }
+                if (cursor.getCount() < limit || !cursor.moveToLast()) {
+                    break;
+                }
+                afterKey = new String[]{cursor.getString(cursor.getColumnCount() - 2),
+                        cursor.getString(cursor.getColumnCount() - 1)};
+            } finally {
+                cursor.close();
+            }
+        }
+
+        assertEquals(mCollectionDb.tracksCount(), expectedIds.size());
+        assertEquals(expectedIds, pagedIds);
+        assertEquals(expectedIds.size(), new HashSet<>(pagedIds).size());
+    }
+
+    private static ScriptResolverTrack track(String name, String url, long lastModified) {
+        ScriptResolverTrack track = new ScriptResolverTrack();
+        track.track = name;
+        track.artist = "artist";
+        track.album = "album";
+        track.albumArtist = "artist";
+        track.url = url;
+        track.lastModified = lastModified;
+        return track;
+    }
+
+    /**
+     * @return the ids of all stored tracks
+     */
+    private Set<Long> getTrackIdSet() {
+        Set<Long> trackIds = new HashSet<>();
+        Cursor cursor = mCollectionDb.tracks(null, null, new String[]{CollectionDb.TRACKS_TRACK,
+                CollectionDb.ARTISTS_ARTIST, CollectionDb.ALBUMS_ALBUM,
+                CollectionDb.TABLE_TRACKS + "." + CollectionDb.ID});
+        try {
+            while (cursor.moveToNext()) {
+                trackIds.add(cursor.getLong(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return trackIds;
+    }
+
+    /**
+     * @return the ids of all stored tracks by their url
+     */
+    private Map<String, Long> getTrackIds() {
+        Map<String, Long> trackIds = new HashMap<>();
+        Cursor cursor = mCollectionDb.tracks(null, null, new String[]{CollectionDb.TRACKS_TRACK,
+                CollectionDb.ARTISTS_ARTIST, CollectionDb.ALBUMS_ALBUM, CollectionDb.TRACKS_URL,
+                CollectionDb.TABLE_TRACKS + "." + CollectionDb.ID});
+        try {
+            while (cursor.moveToNext()) {
+                trackIds.put(cursor.getString(3), cursor.getLong(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return trackIds;
+    }
+}
@@ -0,0 +1,132 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.database;
+
+import org.tomahawk.libtomahawk.collection.Playlist;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the ordering and the failure handling of the mutations that {@link DatabaseHelper} is
+ * writing behind
+ */
+public class DatabaseHelperTest extends TestCase {
+
+    private static int sPlaylistCount;
+
+    private final DatabaseHelper mDatabaseHelper = DatabaseHelper.get();
+
+    private final List<String> mPlaylistIds = new ArrayList<>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (String playlistId : mPlaylistIds) {
+            mDatabaseHelper.deletePlaylist(playlistId);
+        }
+        mDatabaseHelper.flushPendingWrites();
+
+        super.tearDown();
+    }
+
+    public void testReadSeesPrecedingWrites() {
+        Playlist playlist = playlist();
+
+        mDatabaseHelper.storePlaylist(playlist, false);
+        assertEquals(playlist.getName(), mDatabaseHelper.getPlaylistName(playlist.getId()));
+
+        mDatabaseHelper.deletePlaylist(playlist.getId());
+        assertNull(mDatabaseHelper.getPlaylistName(playlist.getId()));
+    }
+
+    public void testWritesAreAppliedInOrder() {
+        final List<Integer> writtenIndexes =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> expectedIndexes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            mDatabaseHelper.enqueueWrite(new DatabaseHelper.PendingWrite(null) {
+                @Override
+                void write() {
+                    writtenIndexes.add(index);
+                }
+            });
+            expectedIndexes.add(i);
+        }
+        Playlist playlist = playlist();
+        mDatabaseHelper.deletePlaylist(playlist.getId());
+        mDatabaseHelper.storePlaylist(playlist, false);
+
+        mDatabaseHelper.flushPendingWrites();
+
+        assertEquals(expectedIndexes, writtenIndexes);
+        // The store has been enqueued after the delete, so it has to win
+        assertEquals(playlist.getName(), mDatabaseHelper.getPlaylistName(playlist.getId()));
+    }
+
+    public void testFailingWriteOnlyDropsItself() {
+        Playlist playlist = playlist();
+        Playlist otherPlaylist = playlist();
+        final AtomicInteger failedAttempts = new AtomicInteger();
+
+        mDatabaseHelper.storePlaylist(playlist, false);
+        mDatabaseHelper.enqueueWrite(new DatabaseHelper.PendingWrite(null) {
+            @Override
+            void write() {
+                failedAttempts.incrementAndGet();
+                throw new IllegalStateException("failing on purpose");
+            }
+        });
+        mDatabaseHelper.storePlaylist(otherPlaylist, false);
+        mDatabaseHelper.flushPendingWrites();
+
+        assertEquals(playlist.getName(), mDatabaseHelper.getPlaylistName(playlist.getId()));
+        assertEquals(otherPlaylist.getName(),
+                mDatabaseHelper.getPlaylistName(otherPlaylist.getId()));
+        // Once in the batch and once on its own
+        assertEquals(2, failedAttempts.get());
+    }
+
+    public void testReadOnWriterThreadSeesPrecedingWrites() {
+        final Playlist playlist = playlist();
+        final String[] readName = new String[1];
+
+        mDatabaseHelper.storePlaylist(playlist, false);
+        mDatabaseHelper.enqueueWrite(new DatabaseHelper.PendingWrite(null) {
+            @Override
+            void write() {
+                // Must neither wait for its own batch nor miss the preceding write
+                readName[0] = mDatabaseHelper.getPlaylistName(playlist.getId());
+            }
+        });
+        mDatabaseHelper.flushPendingWrites();
+
+        assertEquals(playlist.getName(), readName[0]);
+    }
+
+    private Playlist playlist() {
+        String playlistId = "databasehelpertest_" + System.currentTimeMillis() + "_"
+                + sPlaylistCount++;
+        mPlaylistIds.add(playlistId);
+        return Playlist.fromEmptyList(playlistId, true, "name of " + playlistId);
+    }
+}
@@ -0,0 +1,142 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.resolver;
+
+import org.tomahawk.libtomahawk.utils.MicroBenchmark;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Makes sure that the compiled {@link Bitap.Matcher} finds the same index with the same number of
+ * errors as the original, uncompiled implementation did.
+ */
+public class BitapTest extends TestCase {
+
+    private static final String ALPHABET = "abcde \u00e4\u00f6\u00df\u4e2d";
+
+    private static final int RUNS = 5000;
+
+    private final Random mRandom = new Random(42);
+
+    public void testIndexOfMatchesLegacyImplementation() {
+        for (int i = 0; i < RUNS; i++) {
+            String text = randomString(0, 40);
+            String pattern = randomString(1, 31);
+            int tolerance = mRandom.nextInt(4);
+            Bitap.Result expected = legacyIndexOf(text, pattern, tolerance);
+            Bitap.Result actual = Bitap.indexOf(text, pattern, tolerance);
+            String message = "'" + pattern + "' in '" + text + "', tolerance " + tolerance;
+            assertEquals(message, expected.index, actual.index);
+            assertEquals(message, expected.errors, actual.errors);
+        }
+    }
+
+    public void testReusedMatcherMatchesLegacyImplementation() {
+        for (int i = 0; i < RUNS / 100; i++) {
+            String pattern = randomString(1, 31);
+            Bitap.Matcher matcher = Bitap.compile(pattern);
+            // Alternate between long and short texts, so that stale bit arrays would show up
+            for (int j = 0; j < 100; j++) {
+                String text = randomString(0, j % 2 == 0 ? 60 : 5);
+                int fromIndex = text.isEmpty() ? 0 : mRandom.nextInt(text.length());
+                int tolerance = mRandom.nextInt(4);
+                Bitap.Result expected =
+                        legacyIndexOf(text.substring(fromIndex), pattern, tolerance);
+                int index = matcher.indexOf(text, fromIndex, tolerance);
+                String message = "'" + pattern + "' in '" + text + "' from " + fromIndex
+                        + ", tolerance " + tolerance;
+                assertEquals(message, expected.index, index);
+                assertEquals(message, expected.errors, matcher.getErrors());
+            }
+        }
+    }
+
+    public void testTiming() {
+        final String text = "the quick brown fox jumps over the lazy dog";
+        final String pattern = "lazy cat";
+        final Bitap.Matcher matcher = Bitap.compile(pattern);
+        MicroBenchmark.measure("legacy Bitap.indexOf", 20000, new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                return legacyIndexOf(text, pattern, 2);
+            }
+        });
+        MicroBenchmark.measure("Bitap.Matcher.indexOf", 20000, new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                return matcher.indexOf(text, 0, 2);
+            }
+        });
+    }
+
+    private String randomString(int minLength, int maxLength) {
+        int length = minLength + mRandom.nextInt(maxLength - minLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(mRandom.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The original implementation of {@link Bitap#indexOf(String, String, int)}
+     */
+    private static Bitap.Result legacyIndexOf(String text, String pattern, int tolerance) {
+        Bitap.Result result = new Bitap.Result();
+
+        int exactIndex = text.indexOf(pattern);
+        if (exactIndex != -1) {
+            result.index = exactIndex;
+            result.errors = 0;
+            return result;
+        }
+
+        Map<Character, Integer> alphabet = Bitap.initAlphabet(pattern);
+        int matchmask = 1 << (pattern.length() - 1);
+
+        int[] last_rd = new int[0];
+        for (int d = 0; d <= tolerance; d++) {
+            int[] rd = new int[text.length() + pattern.length() + 2];
+            rd[text.length() + pattern.length() + 1] = (1 << d) - 1;
+            for (int j = text.length() + pattern.length(); j > 0; j--) {
+                int charMatch;
+                if (text.length() <= j - 1 || !alphabet.containsKey(text.charAt(j - 1))) {
+                    charMatch = 0;
+                } else {
+                    charMatch = alphabet.get(text.charAt(j - 1));
+                }
+                if (d == 0) {
+                    rd[j] = ((rd[j + 1] << 1) | 1) & charMatch;
+                } else {
+                    rd[j] = (((rd[j + 1] << 1) | 1) & charMatch)
+                            | (((last_rd[j + 1] | last_rd[j]) << 1) | 1) | last_rd[j + 1];
+                }
+                if ((rd[j] & matchmask) != 0) {
+                    result.index = j - 1;
+                    result.errors = d;
+                    return result;
+                }
+            }
+            last_rd = rd;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,292 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.resolver;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the in-flight limits, priorities, cancellation and deadlines of the {@link
+ * ResolverScheduler} with fake resolvers
+ */
+public class ResolverSchedulerTest extends TestCase {
+
+    private static final long DEADLINE_WAIT = 2000;
+
+    private static int sResolverCount;
+
+    private static int sQueryCount;
+
+    private static class FakeJob implements ResolverScheduler.CancellableJob {
+
+        private final Query mQuery;
+
+        private final Runnable mFinishedRunnable;
+
+        private volatile boolean mCancelled;
+
+        private FakeJob(Query query, Runnable finishedRunnable) {
+            mQuery = query;
+            mFinishedRunnable = finishedRunnable;
+        }
+
+        @Override
+        public boolean cancel() {
+            mCancelled = true;
+            return true;
+        }
+
+        private void finish() {
+            mFinishedRunnable.run();
+        }
+    }
+
+    private static class FakeResolver implements ResolverScheduler.SchedulableResolver {
+
+        private final String mId = "resolverschedulertest_" + sResolverCount++;
+
+        private final int mWeight;
+
+        private final int mTimeout;
+
+        private final int mMaxConcurrentQueries;
+
+        private boolean mReady = true;
+
+        private final List<FakeJob> mStartedJobs =
+                Collections.synchronizedList(new ArrayList<FakeJob>());
+
+        private volatile int mInvokePendingJobsCount;
+
+        private FakeResolver(int weight, int timeout, int maxConcurrentQueries) {
+            mWeight = weight;
+            mTimeout = timeout;
+            mMaxConcurrentQueries = maxConcurrentQueries;
+        }
+
+        @Override
+        public String getId() {
+            return mId;
+        }
+
+        @Override
+        public int getWeight() {
+            return mWeight;
+        }
+
+        @Override
+        public int getTimeout() {
+            return mTimeout;
+        }
+
+        @Override
+        public int getMaxConcurrentQueries() {
+            return mMaxConcurrentQueries;
+        }
+
+        @Override
+        public ResolverScheduler.CancellableJob resolve(Query query, Runnable finishedRunnable) {
+            if (!mReady) {
+                return null;
+            }
+            FakeJob job = new FakeJob(query, finishedRunnable);
+            mStartedJobs.add(job);
+            return job;
+        }
+
+        @Override
+        public void invokePendingJobs() {
+            mInvokePendingJobsCount++;
+        }
+
+        private FakeJob getStartedJob(Query query) {
+            synchronized (mStartedJobs) {
+                for (FakeJob job : mStartedJobs) {
+                    if (job.mQuery == query) {
+                        return job;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private final ResolverScheduler mScheduler = ResolverScheduler.get();
+
+    private final List<Query> mQueries = new ArrayList<>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (Query query : mQueries) {
+            mScheduler.cancel(query, Integer.MAX_VALUE);
+        }
+
+        super.tearDown();
+    }
+
+    public void testInFlightLimit() {
+        FakeResolver resolver = new FakeResolver(100, 0, 2);
+        Query q1 = query(), q2 = query(), q3 = query(), q4 = query();
+        for (Query query : new Query[]{q1, q2, q3, q4}) {
+            mScheduler.schedule(resolver, query, ResolverScheduler.PRIORITY_VISIBLE);
+        }
+
+        assertEquals(2, resolver.mStartedJobs.size());
+        assertNotNull(resolver.getStartedJob(q1));
+        assertNotNull(resolver.getStartedJob(q2));
+
+        resolver.getStartedJob(q1).finish();
+
+        assertEquals(3, resolver.mStartedJobs.size());
+        assertNotNull(resolver.getStartedJob(q3));
+        // The refill doesn't have to wait for the next batch
+        assertEquals(1, resolver.mInvokePendingJobsCount);
+
+        // Reporting twice doesn't free another slot
+        resolver.getStartedJob(q1).finish();
+        assertEquals(3, resolver.mStartedJobs.size());
+    }
+
+    public void testQueuedJobsStartByPriority() {
+        FakeResolver resolver = new FakeResolver(100, 0, 1);
+        Query q1 = query(), q2 = query(), q3 = query(), q4 = query();
+        mScheduler.schedule(resolver, q1, ResolverScheduler.PRIORITY_PREFETCH);
+        mScheduler.schedule(resolver, q2, ResolverScheduler.PRIORITY_PREFETCH);
+        mScheduler.schedule(resolver, q3, ResolverScheduler.PRIORITY_VISIBLE);
+        mScheduler.schedule(resolver, q4, ResolverScheduler.PRIORITY_PREFETCH);
+        // Raising the priority of a queued job moves it up in the queue
+        mScheduler.schedule(resolver, q4, ResolverScheduler.PRIORITY_PLAYING);
+
+        resolver.getStartedJob(q1).finish();
+        assertSame(q4, resolver.mStartedJobs.get(1).mQuery);
+        resolver.getStartedJob(q4).finish();
+        assertSame(q3, resolver.mStartedJobs.get(2).mQuery);
+        resolver.getStartedJob(q3).finish();
+        assertSame(q2, resolver.mStartedJobs.get(3).mQuery);
+    }
+
+    public void testCancelQueuedJob() {
+        FakeResolver resolver = new FakeResolver(100, 0, 1);
+        Query q1 = query(), q2 = query();
+        mScheduler.schedule(resolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+        mScheduler.schedule(resolver, q2, ResolverScheduler.PRIORITY_VISIBLE);
+
+        assertTrue(mScheduler.cancel(q2, ResolverScheduler.PRIORITY_VISIBLE));
+        assertFalse(mScheduler.cancel(q2, ResolverScheduler.PRIORITY_VISIBLE));
+
+        resolver.getStartedJob(q1).finish();
+        assertEquals(1, resolver.mStartedJobs.size());
+    }
+
+    public void testCancelInFlightJobFreesSlot() {
+        FakeResolver resolver = new FakeResolver(100, 0, 1);
+        Query q1 = query(), q2 = query();
+        mScheduler.schedule(resolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+        mScheduler.schedule(resolver, q2, ResolverScheduler.PRIORITY_VISIBLE);
+        FakeJob job = resolver.getStartedJob(q1);
+
+        assertTrue(mScheduler.cancel(q1, ResolverScheduler.PRIORITY_VISIBLE));
+
+        assertTrue(job.mCancelled);
+        assertNotNull(resolver.getStartedJob(q2));
+
+        // A late report of the cancelled job doesn't free another slot
+        Query q3 = query();
+        mScheduler.schedule(resolver, q3, ResolverScheduler.PRIORITY_VISIBLE);
+        job.finish();
+        assertNull(resolver.getStartedJob(q3));
+    }
+
+    public void testCancelKeepsJobsWithHigherPriority() {
+        FakeResolver resolver = new FakeResolver(100, 0, 1);
+        Query q1 = query();
+        mScheduler.schedule(resolver, q1, ResolverScheduler.PRIORITY_PLAYING);
+
+        assertFalse(mScheduler.cancel(q1, ResolverScheduler.PRIORITY_VISIBLE));
+        assertFalse(resolver.getStartedJob(q1).mCancelled);
+    }
+
+    public void testGetPriority() {
+        FakeResolver resolver = new FakeResolver(100, 0, 1);
+        FakeResolver otherResolver = new FakeResolver(100, 0, 1);
+        Query q1 = query();
+        assertEquals(ResolverScheduler.PRIORITY_NONE, mScheduler.getPriority(q1));
+
+        mScheduler.schedule(resolver, q1, ResolverScheduler.PRIORITY_NEXT_UP);
+        mScheduler.schedule(otherResolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+        assertEquals(ResolverScheduler.PRIORITY_NEXT_UP, mScheduler.getPriority(q1));
+
+        resolver.getStartedJob(q1).finish();
+        assertEquals(ResolverScheduler.PRIORITY_VISIBLE, mScheduler.getPriority(q1));
+        otherResolver.getStartedJob(q1).finish();
+        assertEquals(ResolverScheduler.PRIORITY_NONE, mScheduler.getPriority(q1));
+    }
+
+    public void testCancelOutweighedKeepsResolversWithSameWeight() {
+        FakeResolver lightResolver = new FakeResolver(10, 0, 1);
+        FakeResolver heavyResolver = new FakeResolver(20, 0, 1);
+        FakeResolver otherHeavyResolver = new FakeResolver(20, 0, 1);
+        Query q1 = query();
+        mScheduler.schedule(lightResolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+        mScheduler.schedule(heavyResolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+        mScheduler.schedule(otherHeavyResolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+
+        assertTrue(mScheduler.cancelOutweighed(q1, 20));
+
+        assertTrue(lightResolver.getStartedJob(q1).mCancelled);
+        assertFalse(heavyResolver.getStartedJob(q1).mCancelled);
+        assertFalse(otherHeavyResolver.getStartedJob(q1).mCancelled);
+    }
+
+    public void testResolverThatIsNotReadyFreesSlot() {
+        FakeResolver resolver = new FakeResolver(100, 0, 1);
+        resolver.mReady = false;
+        Query q1 = query(), q2 = query();
+        mScheduler.schedule(resolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+        resolver.mReady = true;
+        mScheduler.schedule(resolver, q2, ResolverScheduler.PRIORITY_VISIBLE);
+
+        assertNotNull(resolver.getStartedJob(q2));
+    }
+
+    public void testExpiredJobIsCancelledAndFreesSlot() throws InterruptedException {
+        FakeResolver resolver = new FakeResolver(100, 50, 1);
+        Query q1 = query(), q2 = query();
+        mScheduler.schedule(resolver, q1, ResolverScheduler.PRIORITY_VISIBLE);
+        mScheduler.schedule(resolver, q2, ResolverScheduler.PRIORITY_VISIBLE);
+        FakeJob job = resolver.getStartedJob(q1);
+
+        // The deadline is being handled on the main thread
+        long waitUntil = System.currentTimeMillis() + DEADLINE_WAIT;
+        while (resolver.getStartedJob(q2) == null && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(job.mCancelled);
+        assertNotNull(resolver.getStartedJob(q2));
+    }
+
+    private Query query() {
+        Query query = Query.get("resolverschedulertest " + sQueryCount++, false);
+        mQueries.add(query);
+        return query;
+    }
+}
@@ -0,0 +1,63 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.utils;
+
+import android.util.Log;
+
+/**
+ * Minimal timing harness for comparing two implementations of the same operation on a device.
+ * Results are only logged, since timings on a shared test device are too noisy to assert on.
+ */
+public class MicroBenchmark {
+
+    private static final String TAG = MicroBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 10000;
+
+    /**
+     * A single operation that is being timed
+     */
+    public interface Operation {
+
+        /**
+         * @param i the index of the current iteration
+         * @return any result, so that the operation can't be optimized away
+         */
+        Object run(int i);
+    }
+
+    /**
+     * Runs the given {@link Operation} a number of times after a warm-up phase and logs the
+     * average time per operation.
+     *
+     * @return the average time per operation in nanoseconds
+     */
+    public static double measure(String name, int iterations, Operation operation) {
+        int sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += operation.run(i) == null ? 0 : 1;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run(i) == null ? 0 : 1;
+        }
+        double nanosPerOp = (double) (System.nanoTime() - start) / iterations;
+        Log.d(TAG, name + " - " + String.format("%.1f", nanosPerOp) + " ns/op (" + sink + ")");
+        return nanosPerOp;
+    }
+}